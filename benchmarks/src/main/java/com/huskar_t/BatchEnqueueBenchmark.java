@@ -0,0 +1,148 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * queueing one publish for the {@link BatchWriter}, the flusher renders every batch into its statement and drops it
+ * staging copies the payload into the off-heap columns of a {@link StagingBuffer},
+ * legacy is the Row with a heap copy of the payload in an ArrayBlockingQueue the batch writer used before
+ * run with -prof gc, gc.alloc.rate.norm is the allocation per publish including the share of the flusher
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class BatchEnqueueBenchmark {
+    private static final String TOPIC = "sensors/building-1/floor-2/temperature";
+
+    @Param({"staging", "legacy"})
+    public String mode;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    private Path folder;
+    private TDengine tdengine;
+    private BatchWriter writer;
+    private BlockingQueue<Row> queue;
+    private Thread drainer;
+    private volatile boolean running;
+    private ByteBuffer payload;
+
+    @Setup
+    public void setup() throws Exception {
+        this.folder = Files.createTempDirectory("batch-enqueue-benchmark");
+        final Path config = this.folder.resolve("tdengine.xml");
+        Files.write(config, ("<tdengine><type>http</type><ip>127.0.0.1</ip><port>6041</port>" +
+                "<username>root</username><password>taosdata</password><db>hivemq</db><table>mqtt_payload</table>" +
+                "<topicColumn>topic</topicColumn><PayloadColumn>payload</PayloadColumn><maxlength>64</maxlength>" +
+                "<httpLock>false</httpLock><batch><enable>true</enable><overflow>drop_oldest</overflow></batch></tdengine>")
+                .getBytes(StandardCharsets.UTF_8));
+        final SqlEncoder encoder = new SqlEncoder("import into hivemq.mqtt_payload values", " (%s,'%s','%s')");
+        this.tdengine = new TDengine(config.toString()) {
+            @Override
+            public boolean saveBatch(List<Row> rows) {
+                return encoder.encode(rows).length() > 0;
+            }
+        };
+        final byte[] bytes = new byte[this.payloadSize];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        // HiveMQ hands the payload out as a read-only buffer
+        this.payload = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        this.running = true;
+        if ("staging".equals(this.mode)) {
+            this.writer = new BatchWriter(this.tdengine, this.tdengine.getBatchConfig());
+            this.writer.start();
+            return;
+        }
+        final BatchConfig batchConfig = this.tdengine.getBatchConfig();
+        this.queue = new ArrayBlockingQueue<>(batchConfig.getQueueSize());
+        this.drainer = new Thread(() -> {
+            final List<Row> batch = new ArrayList<>(batchConfig.getMaxRows());
+            while (this.running) {
+                this.queue.drainTo(batch, batchConfig.getMaxRows());
+                if (batch.isEmpty()) {
+                    Thread.yield();
+                    continue;
+                }
+                this.tdengine.saveBatch(batch);
+                batch.clear();
+            }
+        }, "legacy-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.running = false;
+        if (this.writer != null) {
+            this.writer.close();
+        }
+        if (this.drainer != null) {
+            this.drainer.join();
+        }
+        this.tdengine.close();
+        for (File file : this.folder.toFile().listFiles()) {
+            Files.deleteIfExists(file.toPath());
+        }
+        Files.deleteIfExists(this.folder);
+    }
+
+    @Benchmark
+    public boolean offer() {
+        if (this.writer != null) {
+            return this.writer.offer(System.currentTimeMillis(), TOPIC, this.payload);
+        }
+        final Row row = new Row(System.currentTimeMillis(), TOPIC, Util.copyOf(this.payload));
+        while (!this.queue.offer(row)) {
+            this.queue.poll();
+        }
+        return true;
+    }
+}
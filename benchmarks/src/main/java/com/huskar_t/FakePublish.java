@@ -0,0 +1,126 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.packets.publish.ModifiablePublishPacket;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+
+/**
+ * input, output, packet and async of one publish as HiveMQ hands them to {@link TDengineInterceptor},
+ * just what the interceptor reads, the rest answers null
+ * one instance per benchmark thread, {@link #set} reuses it for the next publish without allocating
+ */
+class FakePublish implements InvocationHandler {
+    private final PublishInboundInput input;
+    private final PublishInboundOutput output;
+    private final ModifiablePublishPacket packet;
+    private final Async<?> async;
+    private final Semaphore resumed = new Semaphore(0);
+    private String topic;
+    private Optional<ByteBuffer> payload;
+    private boolean asynchronous;
+    private boolean prevented;
+
+    FakePublish() {
+        final ClassLoader loader = FakePublish.class.getClassLoader();
+        this.input = (PublishInboundInput) Proxy.newProxyInstance(loader, new Class<?>[]{PublishInboundInput.class}, this);
+        this.output = (PublishInboundOutput) Proxy.newProxyInstance(loader, new Class<?>[]{PublishInboundOutput.class}, this);
+        this.packet = (ModifiablePublishPacket) Proxy.newProxyInstance(loader, new Class<?>[]{ModifiablePublishPacket.class}, this);
+        this.async = (Async<?>) Proxy.newProxyInstance(loader, new Class<?>[]{Async.class}, this);
+    }
+
+    /**
+     * @param topic   主题
+     * @param payload read-only payload, its position is not moved
+     */
+    void set(String topic, Optional<ByteBuffer> payload) {
+        this.topic = topic;
+        this.payload = payload;
+        this.asynchronous = false;
+        this.prevented = false;
+    }
+
+    PublishInboundInput getInput() {
+        return input;
+    }
+
+    PublishInboundOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * wait until the interceptor resumed the output, returns right away if it did not go async
+     */
+    void await() throws InterruptedException {
+        if (this.asynchronous) {
+            this.resumed.acquire();
+        }
+    }
+
+    /**
+     * @return true if the interceptor failed the publish
+     */
+    boolean isPrevented() {
+        return prevented;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getPublishPacket":
+                return this.packet;
+            case "getTopic":
+                return this.topic;
+            case "getPayload":
+                return this.payload;
+            case "getTimestamp":
+                return System.currentTimeMillis();
+            case "getQos":
+                return Qos.AT_LEAST_ONCE;
+            case "async":
+                this.asynchronous = true;
+                return this.async;
+            case "resume":
+                this.resumed.release();
+                return null;
+            case "getOutput":
+                return this.output;
+            case "preventPublishDelivery":
+                this.prevented = true;
+                return null;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "publish " + this.topic;
+            default:
+                return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the whole write path of a publish, {@link TDengineInterceptor} to {@link TDengine} to {@link StubRestServer},
+ * an operation is one publish and ends when HiveMQ would deliver it
+ * sync is the blocking http client on an executor sized like the extension executor of HiveMQ, async the
+ * non-blocking client, batch the {@link BatchWriter} where a publish only waits for its queue, commit the batch
+ * writer with group commit where a publish waits for the write of its batch
+ * Throughput is publishes per ms and SampleTime gives latency percentiles, run with -prof gc for the allocation
+ * per publish (the fake packets add a boxed timestamp, 16 B), failed counts the publishes the interceptor prevented
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class IngestBenchmark {
+    private static final int TOPICS = 1000;
+
+    @Param({"sync", "async", "batch", "commit"})
+    public String mode;
+
+    /**
+     * added to every response of the stub server
+     */
+    @Param({"0", "2"})
+    public double latencyMs;
+
+    @Param({"0", "0.01"})
+    public double errorRate;
+
+    private StubRestServer server;
+    private Path folder;
+    private ExecutorService executor;
+    private TDengine tdengine;
+    private BatchWriter batchWriter;
+    private TDengineInterceptor interceptor;
+    private final String[] topics = new String[TOPICS];
+    private final List<Optional<ByteBuffer>> payloads = new ArrayList<>(TOPICS);
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Publisher {
+        private final FakePublish publish = new FakePublish();
+        private int next;
+        public long failed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.failed = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        this.server = new StubRestServer(this.latencyMs, this.latencyMs / 2);
+        this.folder = Files.createTempDirectory("ingest-benchmark");
+        final String extra;
+        switch (this.mode) {
+            case "async":
+                extra = "<http><async>true</async></http>";
+                break;
+            case "batch":
+                extra = "<batch><enable>true</enable></batch>";
+                break;
+            case "commit":
+                extra = "<batch><enable>true</enable><ack>commit</ack></batch>";
+                break;
+            default:
+                extra = "";
+                break;
+        }
+        this.tdengine = new TDengine(this.server.writeConfig(this.folder, extra));
+        if (!this.tdengine.connect()) {
+            throw new IllegalStateException("connect to stub server failed");
+        }
+        if ("sync".equals(this.mode)) {
+            this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            this.tdengine.setExecutor(this.executor);
+        }
+        if (this.tdengine.getBatchConfig().isEnable()) {
+            this.batchWriter = new BatchWriter(this.tdengine, this.tdengine.getBatchConfig());
+            this.batchWriter.start();
+        }
+        this.interceptor = new TDengineInterceptor(this.tdengine, this.batchWriter);
+        for (int i = 0; i < TOPICS; i++) {
+            this.topics[i] = "factory/line" + (i % 20) + "/sensor" + i;
+            final String payload = "{\"temp\":" + (20 + (i % 97) / 10.0) + ",\"humidity\":" + (40 + i % 13) + ",\"status\":\"ok\"}";
+            this.payloads.add(Optional.of(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer()));
+        }
+        this.server.setErrorRate(this.errorRate);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (this.batchWriter != null) {
+            this.batchWriter.close();
+        }
+        this.tdengine.close();
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+        this.server.close();
+        for (File file : this.folder.toFile().listFiles()) {
+            Files.deleteIfExists(file.toPath());
+        }
+        Files.deleteIfExists(this.folder);
+    }
+
+    @Benchmark
+    public void publish(Publisher publisher) throws InterruptedException {
+        final FakePublish publish = publisher.publish;
+        final int index = publisher.next;
+        publisher.next = index + 1 == TOPICS ? 0 : index + 1;
+        publish.set(this.topics[index], this.payloads.get(index));
+        this.interceptor.onInboundPublish(publish.getInput(), publish.getOutput());
+        publish.await();
+        if (publish.isPrevented()) {
+            publisher.failed++;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * payload decoding from 16 B to 256 KB
+ * legacy is the byte by byte copy + Charset.forName Util.getStringFromByteBuffer did before,
+ * encodeRow decodes straight into the insert statement without a payload String
+ * run with -prof gc to see the allocation per operation
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadDecodeBenchmark {
+
+    @Param({"16", "256", "4096", "65536", "262144"})
+    public int payloadSize;
+
+    /**
+     * HiveMQ hands the payload out as a read-only buffer
+     */
+    @Param({"heap", "readOnly", "direct"})
+    public String kind;
+
+    private final SqlEncoder encoder = new SqlEncoder("import into hivemq.mqtt_payload values", " (%s,'%s','%s')");
+    private ByteBuffer payload;
+    private List<Row> rows;
+
+    @Setup
+    public void setup() {
+        final byte[] bytes = new byte[payloadSize];
+        final byte[] chinese = "中文测试".getBytes(Charset.forName("GBK"));
+        for (int i = 0; i < bytes.length; i++) {
+            // mostly ascii with some GBK text, a quote every 64 bytes
+            if (i % 64 == 63) {
+                bytes[i] = '\'';
+            } else if (i % 128 < chinese.length) {
+                bytes[i] = chinese[i % 128];
+            } else {
+                bytes[i] = (byte) ('a' + i % 26);
+            }
+        }
+        switch (kind) {
+            case "readOnly":
+                payload = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+                break;
+            case "direct":
+                payload = ByteBuffer.allocateDirect(bytes.length);
+                payload.put(bytes).flip();
+                break;
+            default:
+                payload = ByteBuffer.wrap(bytes);
+        }
+        rows = Collections.singletonList(new Row(1603000000000L, "sensors/building-1/floor-2/temperature", payload));
+    }
+
+    @Benchmark
+    public String legacy() {
+        final byte[] bytes = new byte[payload.remaining()];
+        for (int i = 0; i < payload.remaining(); i++) {
+            bytes[i] = payload.get(i);
+        }
+        final Charset charset = Charset.forName("GBK");
+        final CharBuffer cBuf = charset.decode(ByteBuffer.wrap(bytes));
+        return cBuf.toString();
+    }
+
+    @Benchmark
+    public String decodeString() {
+        return Util.getStringFromByteBuffer(payload);
+    }
+
+    @Benchmark
+    public String legacyEncodeRow() {
+        return encoder.encode("1603000000000", "sensors/building-1/floor-2/temperature", legacy());
+    }
+
+    @Benchmark
+    public String encodeRow() {
+        return encoder.encode(rows);
+    }
+}
@@ -0,0 +1,125 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * one batch insert posted to {@link StubRestServer}, the StringEntity with application/json
+ * TDengine.doPost used before against {@link TextEntity} plain and gzip at level 1 and 6
+ * wireBytes is the rate of request body bytes as received, divided by the post rate it is the size of a batch on the wire
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestBodyBenchmark {
+    private static final ContentType TEXT = ContentType.create("text/plain", StandardCharsets.UTF_8);
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    @Param({"string", "stream", "gzip1", "gzip6"})
+    public String body;
+
+    private StubRestServer server;
+    private CloseableHttpClient client;
+    private String url;
+    private String sql;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Wire {
+        public long wireBytes;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        this.server = new StubRestServer();
+        this.url = this.server.getSqlUrl();
+        this.client = HttpClients.createDefault();
+        final SqlEncoder encoder = new SqlEncoder("import into hivemq.mqtt_payload values", " (%s,'%s','%s')");
+        final List<CharSequence[]> values = new ArrayList<>(this.rows);
+        for (int i = 0; i < this.rows; i++) {
+            values.add(new CharSequence[]{
+                    String.valueOf(1600000000000L + i),
+                    "factory/line" + (i % 20) + "/sensor" + (i % 500),
+                    "{\"temp\":" + (20 + (i % 97) / 10.0) + ",\"humidity\":" + (40 + i % 13) + ",\"status\":\"ok\"}"});
+        }
+        this.sql = encoder.encodeAll(values);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.client.close();
+        this.server.close();
+    }
+
+    @Benchmark
+    public int post(Wire wire) throws IOException {
+        final HttpPost post = new HttpPost(this.url);
+        switch (this.body) {
+            case "string":
+                post.setEntity(new StringEntity(this.sql, "UTF-8"));
+                post.setHeader("Content-Type", "application/json");
+                break;
+            case "stream":
+                post.setEntity(new TextEntity(this.sql, TEXT, -1));
+                break;
+            case "gzip1":
+                post.setEntity(new TextEntity(this.sql, TEXT, 1));
+                break;
+            default:
+                post.setEntity(new TextEntity(this.sql, TEXT, 6));
+                break;
+        }
+        final long before = this.server.getBytesReceived();
+        try (CloseableHttpResponse response = this.client.execute(post)) {
+            EntityUtils.consume(response.getEntity());
+            wire.wireBytes += this.server.getBytesReceived() - before;
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+}
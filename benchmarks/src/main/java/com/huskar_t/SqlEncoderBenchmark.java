@@ -0,0 +1,75 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SqlEncoder} against the String.format path it replaced in TDengine.saveData
+ * (payload.replace in the interceptor followed by String.format of the insert template)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlEncoderBenchmark {
+    private static final String INSERT_TEMPLATE = "import into hivemq.mqtt_payload values (now,'%s','%s')";
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    private final SqlEncoder encoder = new SqlEncoder("import into hivemq.mqtt_payload values", " (%s,'%s','%s')");
+    private final String topic = "sensors/building-1/floor-2/temperature";
+    private String payload;
+
+    @Setup
+    public void setup() {
+        final char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'a');
+        // a quote every 64 characters so escaping is not a no-op
+        for (int i = 63; i < chars.length; i += 64) {
+            chars[i] = '\'';
+        }
+        payload = new String(chars);
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format(INSERT_TEMPLATE, topic, payload.replace("'", "\\'"));
+    }
+
+    @Benchmark
+    public String sqlEncoder() {
+        return encoder.encode("now", topic, payload);
+    }
+}
@@ -0,0 +1,182 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * embedded stand-in for /rest/sql and /influxdb/v1/write of taosAdapter for the benchmarks
+ * every request is answered after latencyMs (plus up to jitterMs), errorRate of them with the error TDengine sends
+ * for a failed insert, set it after connect so the create statements go through
+ * bodies are read and counted but not parsed, gzip bodies are counted as sent
+ * requests are served by a thread each so latency does not serialize them
+ */
+class StubRestServer implements AutoCloseable {
+    static final byte[] SUCC = "{\"status\":\"succ\",\"head\":[\"affected_rows\"],\"data\":[[1]],\"rows\":1}".getBytes(StandardCharsets.UTF_8);
+    static final byte[] ERROR = "{\"status\":\"error\",\"code\":855,\"desc\":\"Table does not exist\"}".getBytes(StandardCharsets.UTF_8);
+    static final byte[] LINE_ERROR = "{\"code\":-1,\"message\":\"invalid line\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "stub-rest-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private volatile double errorRate;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    StubRestServer() throws IOException {
+        this(0, 0);
+    }
+
+    /**
+     * @param latencyMs added to every response
+     * @param jitterMs  random extra latency of up to this much
+     */
+    StubRestServer(double latencyMs, double jitterMs) throws IOException {
+        // without it delayed acks add ~40ms to every request of the jdk server
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.latencyNanos = (long) (latencyMs * 1000000);
+        this.jitterNanos = (long) (jitterMs * 1000000);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/rest/sql", exchange -> {
+            final boolean error = this.serve(exchange);
+            // TDengine answers errors with http 400
+            respond(exchange, error ? 400 : 200, error ? ERROR : SUCC);
+        });
+        this.server.createContext("/influxdb/v1/write", exchange -> {
+            if (this.serve(exchange)) {
+                respond(exchange, 500, LINE_ERROR);
+            } else {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        this.server.start();
+    }
+
+    /**
+     * read the body and wait out the latency
+     *
+     * @return true if the request should fail
+     */
+    private boolean serve(HttpExchange exchange) throws IOException {
+        final long started = System.nanoTime();
+        final byte[] buffer = new byte[8192];
+        long bytes = 0;
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes += read;
+            }
+        }
+        this.bytesReceived.addAndGet(bytes);
+        this.requests.incrementAndGet();
+        long wait = this.latencyNanos + (this.jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(this.jitterNanos) : 0);
+        wait -= System.nanoTime() - started;
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final double errorRate = this.errorRate;
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            this.errors.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @param errorRate share of requests that fail from now on, 0 to 1
+     */
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    String getSqlUrl() {
+        return "http://127.0.0.1:" + this.getPort() + "/rest/sql";
+    }
+
+    long getRequests() {
+        return this.requests.get();
+    }
+
+    long getErrors() {
+        return this.errors.get();
+    }
+
+    /**
+     * @return request body bytes as sent, gzip bodies compressed
+     */
+    long getBytesReceived() {
+        return this.bytesReceived.get();
+    }
+
+    /**
+     * @param folder   目录
+     * @param extraXml additional sections of tdengine.xml
+     * @return path of a tdengine.xml writing over http to this server
+     */
+    String writeConfig(Path folder, String extraXml) throws IOException {
+        final Path config = folder.resolve("tdengine.xml");
+        Files.write(config, ("<tdengine><type>http</type><ip>127.0.0.1</ip><port>" + this.getPort() + "</port>" +
+                "<username>root</username><password>taosdata</password><db>hivemq</db><table>mqtt_payload</table>" +
+                "<topicColumn>topic</topicColumn><PayloadColumn>payload</PayloadColumn><maxlength>64</maxlength>" +
+                "<httpLock>false</httpLock>" + extraXml + "</tdengine>").getBytes(StandardCharsets.UTF_8));
+        return config.toString();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,105 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TopicTrie} against checking every filter with {@link Util#matchesTopicFilter(String, String)}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicTrieBenchmark {
+
+    @Param({"100", "10000"})
+    public int rules;
+
+    private final List<String> filters = new ArrayList<>();
+    private final TopicTrie<String> trie = new TopicTrie<>();
+    private String matching;
+    private final String missing = "factory/line-3/robot-12/status";
+
+    @Setup
+    public void setup() {
+        // a third each of "+" filters, "#" filters and exact topics
+        for (int i = 0; i < rules; i++) {
+            final String filter;
+            switch (i % 3) {
+                case 0:
+                    filter = "site/" + i + "/+/temperature";
+                    break;
+                case 1:
+                    filter = "site/" + i + "/line/#";
+                    break;
+                default:
+                    filter = "site/" + i + "/meter";
+                    break;
+            }
+            filters.add(filter);
+            trie.add(filter, filter);
+        }
+        matching = "site/" + (rules / 3 * 3 - 3) + "/room-1/temperature";
+    }
+
+    @Benchmark
+    public String trieMatching() {
+        return trie.match(matching);
+    }
+
+    @Benchmark
+    public String trieMissing() {
+        return trie.match(missing);
+    }
+
+    @Benchmark
+    public String linearMatching() {
+        return linear(matching);
+    }
+
+    @Benchmark
+    public String linearMissing() {
+        return linear(missing);
+    }
+
+    private String linear(String topic) {
+        for (String filter : filters) {
+            if (Util.matchesTopicFilter(filter, topic)) {
+                return filter;
+            }
+        }
+        return null;
+    }
+}
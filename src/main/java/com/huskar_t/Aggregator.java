@@ -0,0 +1,352 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link Aggregator}
+ * tumbling windows per topic for the topics of the {@link WindowAggregate}s of tdengine.xml,
+ * a publish only updates the primitive accumulators of its window, nothing is allocated per publish
+ * (JSON fields still go through {@link JsonExtractor}), a window is written as one row once the broker clock
+ * has passed its end plus graceMs, publishes for a window already written are late and only counted
+ * every topic keeps a ring of windows spanning the grace period, a window that is pushed out of the ring
+ * by newer ones is written right away, topics without open windows are dropped until they publish again
+ * windows are cut by the time of the timestamp section, the arrival time without the series clock so folded publishes
+ * don't move the timestamps of the raw rows
+ *
+ * @author huskar-t
+ */
+public class Aggregator {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(Aggregator.class);
+    private static final long EMPTY = Long.MIN_VALUE;
+    /**
+     * rows per insert statement
+     */
+    private static final int MAX_ROWS = 1000;
+
+    /**
+     * the open windows of one topic, slot i of field f is at i * fields + f
+     */
+    static final class Series {
+        private final WindowAggregate aggregate;
+        private final long window;
+        private final int fields;
+        private final long[] starts;
+        private final long[] counts;
+        private final long[] fieldCounts;
+        private final double[] min;
+        private final double[] max;
+        private final double[] sum;
+        private final double[] last;
+        /**
+         * windows starting before this were written
+         */
+        private long closedBefore = EMPTY;
+        private long publishes;
+        private boolean removed;
+
+        Series(WindowAggregate aggregate, long window, long grace) {
+            this.aggregate = aggregate;
+            this.window = window;
+            this.fields = aggregate.getFieldCount();
+            final int slots = (int) Math.min(1024, (grace + window - 1) / window + 1);
+            this.starts = new long[slots];
+            Arrays.fill(this.starts, EMPTY);
+            this.counts = new long[slots];
+            this.fieldCounts = new long[slots * this.fields];
+            this.min = new double[slots * this.fields];
+            this.max = new double[slots * this.fields];
+            this.sum = new double[slots * this.fields];
+            this.last = new double[slots * this.fields];
+        }
+
+        private int slotOf(long start) {
+            return (int) Math.floorMod(start / this.window, (long) this.starts.length);
+        }
+
+        private void open(int slot, long start) {
+            this.starts[slot] = start;
+            this.counts[slot] = 0;
+            for (int f = slot * this.fields; f < (slot + 1) * this.fields; f++) {
+                this.fieldCounts[f] = 0;
+                this.sum[f] = 0;
+            }
+        }
+
+        private void add(int slot, double[] values) {
+            this.counts[slot]++;
+            for (int i = 0; i < this.fields; i++) {
+                final double value = values[i];
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                final int f = slot * this.fields + i;
+                if (this.fieldCounts[f]++ == 0) {
+                    this.min[f] = value;
+                    this.max[f] = value;
+                } else {
+                    this.min[f] = Math.min(this.min[f], value);
+                    this.max[f] = Math.max(this.max[f], value);
+                }
+                this.sum[f] += value;
+                this.last[f] = value;
+            }
+        }
+
+        /**
+         * @return values for {@link WindowAggregate#renderRows(List)}
+         */
+        private CharSequence[] close(int slot, String topic) {
+            final CharSequence[] values = new CharSequence[3 + this.fields * 4];
+            values[0] = topic;
+            values[1] = String.valueOf(this.starts[slot]);
+            values[2] = String.valueOf(this.counts[slot]);
+            for (int i = 0; i < this.fields; i++) {
+                final int f = slot * this.fields + i;
+                final boolean any = this.fieldCounts[f] > 0;
+                values[3 + i * 4] = any ? String.valueOf(this.min[f]) : "null";
+                values[4 + i * 4] = any ? String.valueOf(this.max[f]) : "null";
+                values[5 + i * 4] = any ? String.valueOf(this.sum[f] / this.fieldCounts[f]) : "null";
+                values[6 + i * 4] = any ? String.valueOf(this.last[f]) : "null";
+            }
+            this.closedBefore = Math.max(this.closedBefore, this.starts[slot] + this.window);
+            this.starts[slot] = EMPTY;
+            return values;
+        }
+    }
+
+    private final TDengine tdengine;
+    private final TopicTrie<WindowAggregate> aggregates = new TopicTrie<>();
+    private final TimestampConfig.Precision precision;
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    /**
+     * windows pushed out of a ring, written with the next tick
+     */
+    private final Map<WindowAggregate, List<CharSequence[]>> evicted = new LinkedHashMap<>();
+    private final ThreadLocal<double[]> values;
+    private final long tickMs;
+    private Thread ticker;
+    private volatile boolean running;
+
+    /**
+     * @param tdengine   writes the windows
+     * @param aggregates aggregate 配置
+     * @param precision  数据库时间精度
+     */
+    public Aggregator(TDengine tdengine, List<WindowAggregate> aggregates, TimestampConfig.Precision precision) {
+        this.tdengine = tdengine;
+        this.precision = precision;
+        int fields = 1;
+        long shortest = Long.MAX_VALUE;
+        for (WindowAggregate aggregate : aggregates) {
+            this.aggregates.add(aggregate.getTopicFilter(), aggregate);
+            fields = Math.max(fields, aggregate.getFieldCount());
+            shortest = Math.min(shortest, aggregate.getWindowMs());
+        }
+        final int size = fields;
+        this.values = ThreadLocal.withInitial(() -> new double[size]);
+        this.tickMs = Math.max(10, Math.min(1000, shortest / 4));
+    }
+
+    public void start() {
+        if (this.ticker != null) {
+            return;
+        }
+        this.running = true;
+        this.ticker = new Thread(this::run, "tdengine-aggregator");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * stop the ticker and write every open window
+     */
+    public void close() {
+        this.running = false;
+        if (this.ticker != null) {
+            this.ticker.interrupt();
+            try {
+                this.ticker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.ticker = null;
+        }
+        this.flush(Long.MAX_VALUE);
+    }
+
+    /**
+     * @param topic 主题
+     * @return true if publishes of the topic are aggregated
+     */
+    public boolean matches(String topic) {
+        return this.aggregates.match(topic) != null;
+    }
+
+    /**
+     * fold the publish into the window of its topic
+     *
+     * @param packet publish
+     * @return true if the publish is to be written as a raw row too, it is not aggregated or it is a sample
+     */
+    public boolean accept(PublishPacket packet) {
+        final Optional<ByteBuffer> payload = packet.getPayload();
+        return !payload.isPresent() || this.accept(packet.getTopic(), payload.get(), () -> this.tdengine.eventTimeOf(packet, null));
+    }
+
+    /**
+     * @param topic     主题
+     * @param payload   消息内容, its position is not moved
+     * @param timestamp row timestamp in database precision, only asked for numbers of aggregated topics
+     * @return true if the publish is to be written as a raw row too
+     */
+    boolean accept(String topic, ByteBuffer payload, LongSupplier timestamp) {
+        final WindowAggregate aggregate = this.aggregates.match(topic);
+        if (aggregate == null) {
+            return true;
+        }
+        final double[] values = this.values.get();
+        if (!aggregate.values(payload, this.tdengine.getCharset(), values)) {
+            // not a number, nothing is lost
+            return true;
+        }
+        final long start = this.windowOf(aggregate, timestamp.getAsLong());
+        this.tdengine.getMetrics().aggregated();
+        while (true) {
+            final Series series = this.series.computeIfAbsent(topic, key -> new Series(aggregate,
+                    this.precision.fromMillis(aggregate.getWindowMs()), this.precision.fromMillis(aggregate.getGraceMs())));
+            synchronized (series) {
+                if (series.removed) {
+                    continue;
+                }
+                final boolean sample = aggregate.getSample() > 0 && series.publishes++ % aggregate.getSample() == 0;
+                if (series.closedBefore != EMPTY && start < series.closedBefore) {
+                    this.tdengine.getMetrics().late();
+                    return sample;
+                }
+                final int slot = series.slotOf(start);
+                if (series.starts[slot] != start) {
+                    if (series.starts[slot] != EMPTY) {
+                        if (series.starts[slot] > start) {
+                            // older than every window in the ring
+                            this.tdengine.getMetrics().late();
+                            return sample;
+                        }
+                        final CharSequence[] row = series.close(slot, topic);
+                        synchronized (this.evicted) {
+                            this.evicted.computeIfAbsent(aggregate, key -> new ArrayList<>()).add(row);
+                        }
+                    }
+                    series.open(slot, start);
+                }
+                series.add(slot, values);
+                return sample;
+            }
+        }
+    }
+
+    /**
+     * @return start of the window of the timestamp, windows are aligned to the epoch
+     */
+    private long windowOf(WindowAggregate aggregate, long timestamp) {
+        final long window = this.precision.fromMillis(aggregate.getWindowMs());
+        return Math.floorDiv(timestamp, window) * window;
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                Thread.sleep(this.tickMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                this.flush(this.precision.fromMillis(System.currentTimeMillis()));
+            } catch (Exception e) {
+                log.error("tdengine aggregator flush error", e);
+            }
+        }
+    }
+
+    /**
+     * write the windows whose end plus grace is before now
+     *
+     * @param now in database precision, Long.MAX_VALUE for all windows
+     */
+    void flush(long now) {
+        final Map<WindowAggregate, List<CharSequence[]>> closed;
+        synchronized (this.evicted) {
+            closed = new LinkedHashMap<>(this.evicted);
+            this.evicted.clear();
+        }
+        final Iterator<Map.Entry<String, Series>> iterator = this.series.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Series> entry = iterator.next();
+            final Series series = entry.getValue();
+            final long grace = this.precision.fromMillis(series.aggregate.getGraceMs());
+            synchronized (series) {
+                boolean open = false;
+                for (int slot = 0; slot < series.starts.length; slot++) {
+                    final long start = series.starts[slot];
+                    if (start == EMPTY) {
+                        continue;
+                    }
+                    if (now == Long.MAX_VALUE || start + series.window + grace <= now) {
+                        closed.computeIfAbsent(series.aggregate, key -> new ArrayList<>()).add(series.close(slot, entry.getKey()));
+                    } else {
+                        open = true;
+                    }
+                }
+                if (!open && (now == Long.MAX_VALUE || series.closedBefore + grace <= now)) {
+                    // nothing left to be late for
+                    series.removed = true;
+                    iterator.remove();
+                }
+            }
+        }
+        for (Map.Entry<WindowAggregate, List<CharSequence[]>> entry : closed.entrySet()) {
+            final List<CharSequence[]> rows = entry.getValue();
+            for (int from = 0; from < rows.size(); from += MAX_ROWS) {
+                this.tdengine.saveAggregates(entry.getKey(), rows.subList(from, Math.min(rows.size(), from + MAX_ROWS)));
+            }
+        }
+    }
+
+    /**
+     * @return topics with open windows
+     */
+    public int size() {
+        return this.series.size();
+    }
+}
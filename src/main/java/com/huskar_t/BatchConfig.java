@@ -0,0 +1,146 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementBoolean;
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link BatchConfig}
+ * the "batch" section of tdengine.xml
+ */
+public class BatchConfig {
+    private boolean enable;
+    private int queueSize;
+    private int maxRows;
+    private int maxBytes;
+    private long lingerMs;
+    private int flushThreads;
+    private BatchWriter.OverflowPolicy overflow;
+    private long blockTimeoutMs;
+    private BatchWriter.AckMode ack;
+
+    /**
+     * @param element batch 配置节点,为空时使用默认值
+     */
+    public BatchConfig(Element element) {
+        this.setEnable(elementBoolean(element, "enable", false));
+        this.setQueueSize(elementInt(element, "queueSize", 100000));
+        this.setMaxRows(elementInt(element, "maxRows", 1000));
+        this.setMaxBytes(elementInt(element, "maxBytes", 60000));
+        this.setLingerMs(elementLong(element, "lingerMs", 50));
+        this.setFlushThreads(elementInt(element, "flushThreads", 1));
+        this.setOverflow(BatchWriter.OverflowPolicy.parse(elementText(element, "overflow", "block")));
+        this.setBlockTimeoutMs(elementLong(element, "blockTimeoutMs", 1000));
+        this.setAck(BatchWriter.AckMode.parse(elementText(element, "ack", "immediate")));
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public void setEnable(boolean enable) {
+        this.enable = enable;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        if (queueSize < 1) {
+            queueSize = 1;
+        }
+        this.queueSize = queueSize;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public void setMaxRows(int maxRows) {
+        if (maxRows < 1) {
+            maxRows = 1;
+        }
+        this.maxRows = maxRows;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(int maxBytes) {
+        if (maxBytes < 1024) {
+            maxBytes = 1024;
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    public void setLingerMs(long lingerMs) {
+        if (lingerMs < 0) {
+            lingerMs = 0;
+        }
+        this.lingerMs = lingerMs;
+    }
+
+    public int getFlushThreads() {
+        return flushThreads;
+    }
+
+    public void setFlushThreads(int flushThreads) {
+        if (flushThreads < 1) {
+            flushThreads = 1;
+        }
+        this.flushThreads = flushThreads;
+    }
+
+    public BatchWriter.OverflowPolicy getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(BatchWriter.OverflowPolicy overflow) {
+        this.overflow = overflow;
+    }
+
+    public long getBlockTimeoutMs() {
+        return blockTimeoutMs;
+    }
+
+    public void setBlockTimeoutMs(long blockTimeoutMs) {
+        if (blockTimeoutMs < 0) {
+            blockTimeoutMs = 0;
+        }
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    public BatchWriter.AckMode getAck() {
+        return ack;
+    }
+
+    public void setAck(BatchWriter.AckMode ack) {
+        this.ack = ack;
+    }
+}
@@ -0,0 +1,572 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import com.hivemq.extension.sdk.api.packets.publish.AckReasonCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link BatchWriter}
+ * bounded in-memory queue between {@link TDengineInterceptor} and {@link TDengine},
+ * flusher threads drain it into multi-row insert statements
+ * a batch is flushed when it reaches maxRows, maxBytes or has waited lingerMs since its first row
+ * rows are queued straight into the columns of a {@link StagingBuffer} per batch, payloads are copied off-heap and
+ * flushed buffers are reused, so queueing a publish does not allocate; the {@link Row}s handed to
+ * {@link TDengine#saveBatch(List)} are views into the buffer and only valid during the call
+ * with ack commit the publishes wait for their batch instead, see {@link AckMode#COMMIT}, one round trip
+ * acknowledges the whole batch
+ * batches TDengine did not accept go to the spool of {@link TDengine#getSpool()} if there is one
+ * with a cluster every endpoint has a queue (lane) and flusher threads of its own, queueSize is shared by the lanes
+ * the lane of a row is the endpoint its topic hashes to, so the rows of a topic stay in order even while
+ * they are written to another endpoint, and a slow endpoint only fills its own lane
+ *
+ * @author huskar-t
+ */
+public class BatchWriter {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(BatchWriter.class);
+    private static final long CLOSE_TIMEOUT_MS = 10000;
+
+    /**
+     * what {@link #offer(Row)} does when the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * wait up to blockTimeoutMs for space, then fail the publish
+         */
+        BLOCK,
+        /**
+         * evict the oldest queued row to make room
+         */
+        DROP_OLDEST,
+        /**
+         * fail the publish immediately
+         */
+        FAIL,
+        /**
+         * write the row to the spool, it is replayed once the queue has drained, fails the publish without a spool
+         */
+        SPOOL;
+
+        public static OverflowPolicy parse(String value) {
+            switch (value.toLowerCase()) {
+                case "dropoldest":
+                case "drop_oldest":
+                    return DROP_OLDEST;
+                case "fail":
+                    return FAIL;
+                case "spool":
+                    return SPOOL;
+                case "block":
+                    return BLOCK;
+                default:
+                    log.error("batch overflow policy {} unsupported using block", value);
+                    return BLOCK;
+            }
+        }
+    }
+
+    /**
+     * when a queued publish of QoS 1 or 2 continues
+     */
+    public enum AckMode {
+        /**
+         * right after it was queued
+         */
+        IMMEDIATE,
+        /**
+         * once the batch with its row was written, all publishes of a batch are resumed together,
+         * or failed according to the overload fallback, QoS 0 publishes still continue right away
+         * an idle flusher writes right away instead of waiting lingerMs, the rows queued meanwhile make the next batch
+         */
+        COMMIT;
+
+        public static AckMode parse(String value) {
+            switch (value.toLowerCase()) {
+                case "commit":
+                case "group_commit":
+                    return COMMIT;
+                case "immediate":
+                    return IMMEDIATE;
+                default:
+                    log.error("batch ack mode {} unsupported using immediate", value);
+                    return IMMEDIATE;
+            }
+        }
+    }
+
+    private final TDengine tdengine;
+    private final BatchConfig config;
+    private final List<Lane> lanes = new ArrayList<>();
+    private final Thread[] flushers;
+    private final AtomicLong droppedRows = new AtomicLong();
+    private volatile boolean running;
+
+    /**
+     * the queue of one endpoint, the rows are added to the active buffer until it is full and sealed,
+     * flushers take sealed buffers, or the active one once its first row waited lingerMs, and give them back flushed
+     */
+    private final class Lane {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = this.lock.newCondition();
+        private final Condition notFull = this.lock.newCondition();
+        private final ArrayDeque<StagingBuffer> sealed = new ArrayDeque<>();
+        private final ArrayDeque<StagingBuffer> free = new ArrayDeque<>();
+        private final int capacity;
+        private final int retained;
+        private StagingBuffer active;
+        private int size;
+
+        /**
+         * @param capacity 最大行数
+         * @param flushers flusher threads of the lane, one free buffer more than that is kept for reuse
+         */
+        Lane(int capacity, int flushers) {
+            this.capacity = capacity;
+            this.retained = flushers + 1;
+        }
+
+        boolean offer(long timestamp, String topic, ByteBuffer payload, Async<PublishInboundOutput> ack) {
+            this.lock.lock();
+            try {
+                if (this.size >= this.capacity) {
+                    switch (config.getOverflow()) {
+                        case DROP_OLDEST:
+                            this.dropOldest();
+                            break;
+                        case BLOCK:
+                            long nanos = TimeUnit.MILLISECONDS.toNanos(config.getBlockTimeoutMs());
+                            while (this.size >= this.capacity) {
+                                if (nanos <= 0) {
+                                    return false;
+                                }
+                                nanos = this.notFull.awaitNanos(nanos);
+                            }
+                            break;
+                        case FAIL:
+                        case SPOOL:
+                        default:
+                            return false;
+                    }
+                }
+                this.append(timestamp, topic, payload, ack);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void append(long timestamp, String topic, ByteBuffer payload, Async<PublishInboundOutput> ack) {
+            if (this.active == null) {
+                this.active = this.newBuffer();
+            }
+            final boolean first = this.active.isEmpty();
+            if (!this.active.add(timestamp, topic, payload, ack)) {
+                this.seal();
+                this.active = this.newBuffer();
+                if (!this.active.add(timestamp, topic, payload, ack)) {
+                    // larger than a whole buffer, it gets one of its own
+                    final StagingBuffer large = new StagingBuffer(1, payload.remaining(), false);
+                    large.add(timestamp, topic, payload, ack);
+                    this.sealed.add(large);
+                    this.notEmpty.signal();
+                }
+            } else if (first) {
+                // a flusher starts to linger
+                this.notEmpty.signal();
+            }
+            this.size++;
+            if (this.active.isFull()) {
+                this.seal();
+            }
+        }
+
+        private void seal() {
+            if (this.active != null && !this.active.isEmpty()) {
+                this.sealed.add(this.active);
+                this.active = null;
+                this.notEmpty.signal();
+            }
+        }
+
+        private StagingBuffer newBuffer() {
+            final StagingBuffer buffer = this.free.poll();
+            return buffer != null ? buffer : new StagingBuffer(config.getMaxRows(), config.getMaxBytes(), true, tdengine::estimateSize);
+        }
+
+        private void dropOldest() {
+            final StagingBuffer oldest = this.sealed.isEmpty() ? this.active : this.sealed.peekFirst();
+            if (oldest == null) {
+                return;
+            }
+            final Async<PublishInboundOutput> ack = oldest.dropFirst();
+            if (ack != null) {
+                acknowledge(ack, delivered(false, false));
+            }
+            this.size--;
+            if (oldest.isEmpty() && oldest != this.active) {
+                this.sealed.pollFirst();
+                this.recycle(oldest);
+            }
+            if (droppedRows.incrementAndGet() % 1000 == 1) {
+                log.warn("tdengine batch queue full, {} rows dropped so far", droppedRows.get());
+            }
+        }
+
+        /**
+         * @return the next batch to flush, null once the writer was closed and the lane is empty
+         */
+        StagingBuffer take() throws InterruptedException {
+            // with group commit the rows queued while a write is in flight are the next batch, nobody lingers
+            final long lingerNanos = config.getAck() == AckMode.COMMIT ? 0 : TimeUnit.MILLISECONDS.toNanos(config.getLingerMs());
+            this.lock.lock();
+            try {
+                while (true) {
+                    StagingBuffer buffer = this.sealed.poll();
+                    if (buffer == null && this.active != null && !this.active.isEmpty()) {
+                        final long wait = this.active.getStarted() + lingerNanos - System.nanoTime();
+                        if (wait > 0 && running) {
+                            this.notEmpty.awaitNanos(wait);
+                            continue;
+                        }
+                        buffer = this.active;
+                        this.active = null;
+                    }
+                    if (buffer != null) {
+                        this.size -= buffer.size();
+                        this.notFull.signalAll();
+                        return buffer;
+                    }
+                    if (!running) {
+                        return null;
+                    }
+                    this.notEmpty.await(Math.max(1, config.getLingerMs()), TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * @param buffer flushed buffer, kept for the next rows unless enough are kept already
+         */
+        void release(StagingBuffer buffer) {
+            this.lock.lock();
+            try {
+                this.recycle(buffer);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void recycle(StagingBuffer buffer) {
+            if (buffer.isDirect() && this.free.size() < this.retained) {
+                buffer.clear();
+                this.free.push(buffer);
+            }
+        }
+
+        void wakeUp() {
+            this.lock.lock();
+            try {
+                this.notEmpty.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * @return every queued buffer, the lane is empty afterwards
+         */
+        List<StagingBuffer> drain() {
+            this.lock.lock();
+            try {
+                this.seal();
+                final List<StagingBuffer> buffers = new ArrayList<>(this.sealed);
+                this.sealed.clear();
+                this.size = 0;
+                return buffers;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        int size() {
+            this.lock.lock();
+            try {
+                return this.size;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    public BatchWriter(TDengine tdengine, BatchConfig config) {
+        this.tdengine = tdengine;
+        this.config = config;
+        final int count = Math.max(1, tdengine.getEndpointCount());
+        for (int i = 0; i < count; i++) {
+            this.lanes.add(new Lane(Math.max(1, config.getQueueSize() / count), config.getFlushThreads()));
+        }
+        this.flushers = new Thread[config.getFlushThreads() * count];
+    }
+
+    public void start() {
+        this.running = true;
+        for (int i = 0; i < this.flushers.length; i++) {
+            final Lane lane = this.lanes.get(i % this.lanes.size());
+            final String name = this.lanes.size() == 1
+                    ? "tdengine-batch-flusher-" + i
+                    : "tdengine-batch-flusher-" + (i % this.lanes.size()) + "-" + (i / this.lanes.size());
+            final Thread flusher = new Thread(() -> this.runFlusher(lane), name);
+            flusher.setDaemon(true);
+            flusher.start();
+            this.flushers[i] = flusher;
+        }
+    }
+
+    /**
+     * stop accepting rows, flush everything still queued and wait for the flusher threads
+     */
+    public void close() {
+        this.running = false;
+        for (Lane lane : this.lanes) {
+            lane.wakeUp();
+        }
+        final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+        for (Thread flusher : this.flushers) {
+            if (flusher == null) {
+                continue;
+            }
+            try {
+                flusher.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        int rest = 0;
+        boolean spooled = true;
+        final Spool spool = this.tdengine.getSpool();
+        for (Lane lane : this.lanes) {
+            for (StagingBuffer buffer : lane.drain()) {
+                rest += buffer.size();
+                final boolean appended = spool != null && spool.append(buffer.rows());
+                spooled &= appended;
+                if (this.config.getAck() == AckMode.COMMIT) {
+                    this.acknowledge(buffer, false, appended);
+                }
+            }
+        }
+        if (rest == 0) {
+            return;
+        }
+        if (spooled) {
+            log.info("tdengine batch writer closed, {} rows not written moved to spool", rest);
+        } else {
+            log.warn("tdengine batch writer closed with {} rows not written", rest);
+        }
+    }
+
+    /**
+     * @param row 待写入的数据
+     * @return false if the row was not accepted and the publish should fail
+     */
+    public boolean offer(Row row) {
+        return this.offer(row.getTimestamp(), row.getTopic(), row.getPayload(), null);
+    }
+
+    /**
+     * the payload is copied into the queue, nothing is allocated for the row
+     *
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   消息内容, its position is not moved
+     * @return false if the row was not accepted and the publish should fail
+     */
+    public boolean offer(long timestamp, String topic, ByteBuffer payload) {
+        return this.offer(timestamp, topic, payload, null);
+    }
+
+    /**
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   消息内容, its position is not moved
+     * @param ack       parked output of the publish, resumed once its batch was written, null to not wait for it
+     * @return false if the row was not accepted, the ack is left to the caller then and the publish should fail
+     */
+    public boolean offer(long timestamp, String topic, ByteBuffer payload, @Nullable Async<PublishInboundOutput> ack) {
+        if (!this.running) {
+            return false;
+        }
+        final Lane lane = this.lanes.size() == 1
+                ? this.lanes.get(0)
+                : this.lanes.get(this.tdengine.laneOf(topic));
+        if (lane.offer(timestamp, topic, payload, ack)) {
+            return true;
+        }
+        if (this.config.getOverflow() != OverflowPolicy.SPOOL) {
+            return false;
+        }
+        // the spool copies the payload right away
+        final Spool spool = this.tdengine.getSpool();
+        if (spool == null || !spool.append(new Row(timestamp, topic, payload))) {
+            return false;
+        }
+        this.tdengine.remember(timestamp, topic, payload);
+        if (ack != null) {
+            acknowledge(ack, this.delivered(false, true));
+        }
+        return true;
+    }
+
+    public int queueSize() {
+        int size = 0;
+        for (Lane lane : this.lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    private void runFlusher(Lane lane) {
+        while (true) {
+            final StagingBuffer buffer;
+            try {
+                buffer = lane.take();
+            } catch (InterruptedException e) {
+                log.warn("tdengine batch flusher interrupted");
+                continue;
+            }
+            if (buffer == null) {
+                return;
+            }
+            try {
+                flush(buffer);
+            } finally {
+                lane.release(buffer);
+            }
+        }
+    }
+
+    private void flush(StagingBuffer buffer) {
+        final List<Row> batch = buffer.rows();
+        if (batch.isEmpty()) {
+            return;
+        }
+        boolean written = false;
+        boolean spooled = false;
+        try {
+            this.tdengine.getMetrics().batch(batch.size());
+            final CircuitBreaker breaker = this.tdengine.getBreaker();
+            if (breaker != null && !breaker.allow()) {
+                final Spool spool = this.tdengine.getSpool();
+                spooled = spool != null && spool.append(batch);
+                if (spooled) {
+                    log.debug("tdengine circuit breaker open, batch of {} rows moved to spool", batch.size());
+                } else {
+                    log.error("tdengine circuit breaker open, batch of {} rows not written", batch.size());
+                }
+                return;
+            }
+            written = this.tdengine.saveBatch(batch);
+            if (!written) {
+                final Spool spool = this.tdengine.getSpool();
+                spooled = spool != null && spool.append(batch);
+                if (spooled) {
+                    log.warn("tdengine batch of {} rows not fully written, moved to spool", batch.size());
+                } else {
+                    log.error("tdengine batch of {} rows not fully written", batch.size());
+                }
+            }
+        } catch (Exception e) {
+            log.error("tdengine batch flush error", e);
+        } finally {
+            if (written || spooled) {
+                // the rows are views into the buffer, the cache copies them before it is cleared
+                for (Row row : batch) {
+                    this.tdengine.remember(row.getTimestamp(), row.getTopic(), row.getPayload());
+                }
+            }
+            batch.clear();
+            if (this.config.getAck() == AckMode.COMMIT) {
+                this.acknowledge(buffer, written, spooled);
+            }
+        }
+    }
+
+    /**
+     * resume the parked publishes of a batch together
+     *
+     * @param buffer  the batch
+     * @param written true if TDengine answered succ for the whole batch
+     * @param spooled true if the batch went to the spool instead
+     */
+    private void acknowledge(StagingBuffer buffer, boolean written, boolean spooled) {
+        final boolean delivered = this.delivered(written, spooled);
+        for (int i = 0; i < buffer.size(); i++) {
+            final Async<PublishInboundOutput> ack = buffer.ack(i);
+            if (ack != null) {
+                acknowledge(ack, delivered);
+            }
+        }
+    }
+
+    /**
+     * a publish whose row was not written is delivered according to the fallback of the overload section,
+     * pass delivers it anyway, spool only if its row is in the spool, drop never
+     */
+    private boolean delivered(boolean written, boolean spooled) {
+        switch (this.tdengine.getOverloadConfig().getFallback()) {
+            case PASS:
+                return true;
+            case SPOOL:
+                return written || spooled;
+            case DROP:
+            default:
+                return written;
+        }
+    }
+
+    private static void acknowledge(Async<PublishInboundOutput> ack, boolean delivered) {
+        try {
+            if (!delivered) {
+                ack.getOutput().preventPublishDelivery(AckReasonCode.IMPLEMENTATION_SPECIFIC_ERROR, "tdengine write failed");
+            }
+            ack.resume();
+        } catch (Exception e) {
+            // the publish timed out already and went on with the timeout fallback
+            log.debug("resume publish error", e);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * {@link ChangeFilter}
+ * per-topic last written value, a publish is only written if it differs from it or heartbeatMs has passed
+ * numeric payloads (or the number at path of JSON payloads) must move more than the deadband,
+ * the larger of deadband and percent of the last written value, other payloads must differ in their 64 bit hash
+ * skipped publishes do not replace the last written value, so slow drift is still written once it exceeds the deadband,
+ * nor do publishes whose row was shed or failed, a value only counts once {@link #written} was told its row was written or spooled
+ * the cache is keyed by a 64 bit hash of the topic and kept in primitive arrays, split into stripes
+ * with a lock each; a topic is looked up in a window of {@link #PROBES} slots and a full window
+ * makes room by dropping its least recently written topic, so millions of topics cost no objects per topic
+ *
+ * @author huskar-t
+ */
+public class ChangeFilter {
+    private static final int STRIPES = 64;
+    private static final int PROBES = 8;
+
+    private static final class Stripe {
+        private final long[] keys;
+        private final long[] hashes;
+        private final double[] values;
+        private final long[] written;
+
+        Stripe(int size) {
+            this.keys = new long[size];
+            this.hashes = new long[size];
+            this.values = new double[size];
+            this.written = new long[size];
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final int mask;
+    private final double deadband;
+    private final double percent;
+    private final boolean numeric;
+    private final long heartbeatMs;
+    private final JsonExtractor extractor;
+    private final Charset charset;
+
+    /**
+     * @param config  dedup 配置
+     * @param charset payload 编码, used for the JSON path
+     */
+    public ChangeFilter(DedupConfig config, Charset charset) {
+        int size = 16;
+        while (size * STRIPES < config.getCapacity() && size < (1 << 24)) {
+            size <<= 1;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe(size);
+        }
+        this.mask = size - 1;
+        this.deadband = config.getDeadband();
+        this.percent = config.getPercent() / 100;
+        this.numeric = this.deadband > 0 || this.percent > 0;
+        this.heartbeatMs = config.getHeartbeatMs();
+        this.extractor = config.getPath().equals("") ? null : new JsonExtractor(
+                Collections.singletonList(config.getPath()), Collections.singletonList(JsonMapping.ColumnType.DOUBLE), false);
+        this.charset = charset;
+    }
+
+    /**
+     * @param topic    主题
+     * @param payload  消息内容, its position is not changed
+     * @param received 毫秒时间戳
+     * @return true if the publish should be written, the last written value is not changed
+     */
+    public boolean accept(String topic, ByteBuffer payload, long received) {
+        final long key = topicKey(topic);
+        final double value = this.numeric ? this.valueOf(payload) : Double.NaN;
+        final long hash = Double.isNaN(value) ? payloadHash(payload) : 0;
+        final Stripe stripe = this.stripes[(int) (key >>> 58)];
+        final int start = (int) key & this.mask;
+        synchronized (stripe) {
+            for (int p = 0; p < PROBES; p++) {
+                final int i = (start + p) & this.mask;
+                if (stripe.keys[i] == key) {
+                    return received - stripe.written[i] >= this.heartbeatMs || this.changed(stripe, i, value, hash);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * the row of a publish was written or spooled, its value is the one later publishes are compared with
+     *
+     * @param topic   主题
+     * @param payload 消息内容, its position is not changed
+     * @param written 毫秒时间戳
+     */
+    public void written(String topic, ByteBuffer payload, long written) {
+        final long key = topicKey(topic);
+        final double value = this.numeric ? this.valueOf(payload) : Double.NaN;
+        final long hash = Double.isNaN(value) ? payloadHash(payload) : 0;
+        final Stripe stripe = this.stripes[(int) (key >>> 58)];
+        final int start = (int) key & this.mask;
+        synchronized (stripe) {
+            int slot = -1;
+            int free = -1;
+            int oldest = -1;
+            for (int p = 0; p < PROBES; p++) {
+                final int i = (start + p) & this.mask;
+                final long current = stripe.keys[i];
+                if (current == key) {
+                    slot = i;
+                    break;
+                }
+                if (current == 0) {
+                    if (free < 0) {
+                        free = i;
+                    }
+                } else if (oldest < 0 || stripe.written[i] < stripe.written[oldest]) {
+                    oldest = i;
+                }
+            }
+            if (slot < 0) {
+                slot = free >= 0 ? free : oldest;
+                stripe.keys[slot] = key;
+            }
+            stripe.hashes[slot] = hash;
+            stripe.values[slot] = value;
+            stripe.written[slot] = written;
+        }
+    }
+
+    private boolean changed(Stripe stripe, int slot, double value, long hash) {
+        final double last = stripe.values[slot];
+        if (Double.isNaN(value) || Double.isNaN(last)) {
+            return Double.isNaN(value) != Double.isNaN(last) || hash != stripe.hashes[slot];
+        }
+        return Math.abs(value - last) > Math.max(this.deadband, Math.abs(last) * this.percent);
+    }
+
+    /**
+     * @return NaN if the payload has no number
+     */
+    private double valueOf(ByteBuffer payload) {
+        final String text;
+        if (this.extractor != null) {
+            final String[] literals = new String[1];
+            if (!this.extractor.extract(Util.getStringFromByteBuffer(payload, this.charset), literals) || literals[0] == null) {
+                return Double.NaN;
+            }
+            text = literals[0];
+        } else {
+            // a plain number is short and starts like one, anything else is compared by hash
+            final int length = payload.remaining();
+            if (length == 0 || length > 32 || !startsNumber(payload.get(payload.position()))) {
+                return Double.NaN;
+            }
+            final byte[] bytes = new byte[length];
+            payload.duplicate().get(bytes);
+            text = new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        try {
+            return Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean startsNumber(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == ' ';
+    }
+
+    static long topicKey(String topic) {
+        long h = 1125899906842597L;
+        for (int i = 0; i < topic.length(); i++) {
+            h = 31 * h + topic.charAt(i);
+        }
+        h = mix(h);
+        return h == 0 ? 1 : h;
+    }
+
+    static long payloadHash(ByteBuffer payload) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = payload.position(); i < payload.limit(); i++) {
+            h ^= payload.get(i) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * murmur3 64 bit finalizer
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
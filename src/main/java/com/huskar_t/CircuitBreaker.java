@@ -0,0 +1,88 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link CircuitBreaker}
+ * opens after breakerFailures failed requests to TDengine in a row, while open no write is tried
+ * after breakerOpenMs one caller is let through as a probe, the breaker closes on the next successful request
+ * (the probe or any other, e.g. the availability check of the spool) and stays open for another breakerOpenMs otherwise
+ *
+ * @author huskar-t
+ */
+public class CircuitBreaker {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final long CLOSED = 0;
+
+    private final int threshold;
+    private final long openNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong(CLOSED);
+
+    /**
+     * @param config overload 配置
+     */
+    public CircuitBreaker(OverloadConfig config) {
+        this.threshold = config.getBreakerFailures();
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.getBreakerOpenMs());
+    }
+
+    /**
+     * @return false while open, true for the probe once breakerOpenMs has passed
+     */
+    public boolean allow() {
+        final long until = this.openUntil.get();
+        if (until == CLOSED) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        return now - until >= 0 && this.openUntil.compareAndSet(until, now + this.openNanos);
+    }
+
+    public boolean isOpen() {
+        return this.openUntil.get() != CLOSED;
+    }
+
+    public void succeeded() {
+        if (this.failures.get() != 0) {
+            this.failures.set(0);
+        }
+        if (this.openUntil.get() != CLOSED && this.openUntil.getAndSet(CLOSED) != CLOSED) {
+            log.info("tdengine circuit breaker closed");
+        }
+    }
+
+    public void failed() {
+        if (this.failures.incrementAndGet() < this.threshold) {
+            return;
+        }
+        final long until = System.nanoTime() + this.openNanos;
+        if (this.openUntil.getAndSet(until == CLOSED ? 1 : until) == CLOSED) {
+            log.warn("tdengine circuit breaker opened after {} failed requests, no writes for {}ms",
+                    this.threshold, TimeUnit.NANOSECONDS.toMillis(this.openNanos));
+        }
+    }
+}
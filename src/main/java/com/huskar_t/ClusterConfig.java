@@ -0,0 +1,120 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+
+/**
+ * {@link ClusterConfig}
+ * the "cluster" section of tdengine.xml, more endpoints besides ip/port and how their health is judged
+ */
+public class ClusterConfig {
+    private final List<String> endpoints = new ArrayList<>();
+    private int virtualNodes;
+    private int failureThreshold;
+    private long downMs;
+    private long slowMs;
+
+    /**
+     * @param element cluster 配置节点,为空时使用默认值
+     */
+    public ClusterConfig(Element element) {
+        final Element endpointsElement = element == null ? null : element.element("endpoints");
+        if (endpointsElement != null) {
+            for (Element endpoint : endpointsElement.elements("endpoint")) {
+                final String value = endpoint.getTextTrim();
+                if (!value.equals("")) {
+                    this.endpoints.add(value);
+                }
+            }
+        }
+        this.setVirtualNodes(elementInt(element, "virtualNodes", 160));
+        this.setFailureThreshold(elementInt(element, "failureThreshold", 3));
+        this.setDownMs(elementLong(element, "downMs", 10000));
+        this.setSlowMs(elementLong(element, "slowMs", 5000));
+    }
+
+    /**
+     * @return "host:port" of the endpoints after the one of ip/port
+     */
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @return points of each endpoint on the hash ring
+     */
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        if (virtualNodes < 1) {
+            virtualNodes = 1;
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * @return consecutive failed or slow requests after which an endpoint is taken out
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        if (failureThreshold < 1) {
+            failureThreshold = 1;
+        }
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * @return how long an endpoint stays out before it gets requests again
+     */
+    public long getDownMs() {
+        return downMs;
+    }
+
+    public void setDownMs(long downMs) {
+        if (downMs < 0) {
+            downMs = 0;
+        }
+        this.downMs = downMs;
+    }
+
+    /**
+     * @return a request slower than this counts as failed for the health of the endpoint
+     */
+    public long getSlowMs() {
+        return slowMs;
+    }
+
+    public void setSlowMs(long slowMs) {
+        if (slowMs < 1) {
+            slowMs = 1;
+        }
+        this.slowMs = slowMs;
+    }
+}
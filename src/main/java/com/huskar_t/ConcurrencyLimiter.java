@@ -0,0 +1,116 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ConcurrencyLimiter}
+ * AIMD limit on the writes in flight, driven by their latency
+ * the baseline is the lowest latency of the last {@link #WINDOW} writes, the limit grows by one per limit writes
+ * that finish within tolerance times the baseline and shrinks by {@link #BACKOFF} on a slower or failed write,
+ * at most once per latency so a burst of slow answers to the same load counts once
+ * a write that does not get a permit is not queued, the caller falls back right away
+ *
+ * @author huskar-t
+ */
+public class ConcurrencyLimiter {
+    private static final int WINDOW = 500;
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile double limit;
+    private long baselineNanos = Long.MAX_VALUE;
+    private long windowMinNanos = Long.MAX_VALUE;
+    private int samples;
+    private long lastDecrease;
+
+    /**
+     * @param config overload 配置
+     */
+    public ConcurrencyLimiter(OverloadConfig config) {
+        this.minLimit = config.getMinLimit();
+        this.maxLimit = Math.max(config.getMinLimit(), config.getMaxLimit());
+        this.tolerance = config.getTolerance();
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, config.getInitialLimit()));
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * @return true if the write may start, it must call {@link #release(long, boolean)} when it is done
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = this.inflight.get();
+            if (current >= (int) this.limit) {
+                return false;
+            }
+            if (this.inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param started System.nanoTime() when the write started
+     * @param success 是否写入成功
+     */
+    public void release(long started, boolean success) {
+        final long now = System.nanoTime();
+        final long latency = now - started;
+        final int current = this.inflight.getAndDecrement();
+        synchronized (this) {
+            this.windowMinNanos = Math.min(this.windowMinNanos, latency);
+            this.baselineNanos = Math.min(this.baselineNanos, latency);
+            if (++this.samples >= WINDOW) {
+                // follow the latency of TDengine when it gets slower for good
+                this.baselineNanos = this.windowMinNanos;
+                this.windowMinNanos = Long.MAX_VALUE;
+                this.samples = 0;
+            }
+            final double limit = this.limit;
+            if (!success || latency > this.baselineNanos * this.tolerance) {
+                if (now - this.lastDecrease > latency) {
+                    this.limit = Math.max(this.minLimit, limit * BACKOFF);
+                    this.lastDecrease = now;
+                }
+            } else if (current * 2 >= limit) {
+                // only grow a limit that is actually used
+                this.limit = Math.min(this.maxLimit, limit + 1 / limit);
+            }
+        }
+    }
+
+    /**
+     * give back the permit of a write that never started, its latency is not sampled
+     */
+    public void cancel() {
+        this.inflight.decrementAndGet();
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+}
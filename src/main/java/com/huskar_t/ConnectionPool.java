@@ -0,0 +1,208 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ConnectionPool}
+ * fixed number of sdk connections, each with its own statement and used by one thread at a time,
+ * replaces the single shared statement that needed a global lock ( https://github.com/taosdata/TDengine/issues/1477 )
+ * a slot whose connection broke is reopened the next time it is borrowed
+ *
+ * @author huskar-t
+ */
+public class ConnectionPool {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final String VALIDATION_SQL = "select server_status()";
+
+    /**
+     * one pooled connection and its statement
+     */
+    public class Slot {
+        private Connection connection;
+        private Statement statement;
+        private long lastUsed;
+
+        public Statement getStatement() {
+            return statement;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        private void open() throws SQLException {
+            this.connection = DriverManager.getConnection(url);
+            this.statement = this.connection.createStatement();
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        private boolean isOpen() {
+            return this.statement != null;
+        }
+
+        private boolean validate() {
+            try {
+                this.statement.executeQuery(VALIDATION_SQL).close();
+                return true;
+            } catch (SQLException e) {
+                log.warn("tdengine connection failed validation", e);
+                return false;
+            }
+        }
+
+        private void close() {
+            if (this.statement != null) {
+                try {
+                    this.statement.close();
+                } catch (SQLException e) {
+                    log.warn("close tdengine statement error", e);
+                }
+                this.statement = null;
+            }
+            if (this.connection != null) {
+                try {
+                    this.connection.close();
+                } catch (SQLException e) {
+                    log.warn("close tdengine connect error", e);
+                }
+                this.connection = null;
+            }
+        }
+    }
+
+    private final String url;
+    private final PoolConfig config;
+    private final BlockingQueue<Slot> idle;
+    private final List<Slot> slots;
+
+    public ConnectionPool(String url, PoolConfig config) {
+        this.url = url;
+        this.config = config;
+        this.idle = new ArrayBlockingQueue<>(config.getSize());
+        this.slots = new ArrayList<>(config.getSize());
+    }
+
+    /**
+     * open every connection of the pool
+     *
+     * @throws SQLException 第一个连接失败时抛出
+     */
+    public void open() throws SQLException {
+        for (int i = 0; i < this.config.getSize(); i++) {
+            final Slot slot = new Slot();
+            try {
+                slot.open();
+            } catch (SQLException e) {
+                if (i == 0) {
+                    throw e;
+                }
+                log.warn("open tdengine pooled connection error, it will be retried on use", e);
+                slot.close();
+            }
+            this.slots.add(slot);
+            this.idle.add(slot);
+        }
+    }
+
+    /**
+     * take a slot for exclusive use, it must be handed back with {@link #release(Slot, boolean)}
+     *
+     * @return 可用的连接
+     * @throws SQLException 等待超时或无法重新连接
+     */
+    public Slot borrow() throws SQLException {
+        final Slot slot;
+        try {
+            slot = this.idle.poll(this.config.getBorrowTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a tdengine connection");
+        }
+        if (slot == null) {
+            throw new SQLException("no tdengine connection available after " + this.config.getBorrowTimeoutMs() + "ms");
+        }
+        try {
+            if (slot.isOpen()
+                    && System.currentTimeMillis() - slot.lastUsed > this.config.getValidateIdleMs()
+                    && !slot.validate()) {
+                slot.close();
+            }
+            if (!slot.isOpen()) {
+                slot.open();
+                log.info("reopened tdengine pooled connection");
+            }
+        } catch (SQLException e) {
+            slot.close();
+            this.idle.add(slot);
+            throw e;
+        }
+        return slot;
+    }
+
+    /**
+     * @param slot   borrow 得到的连接
+     * @param failed the last statement failed for a reason other than its own sql, check the connection before reuse
+     */
+    public void release(Slot slot, boolean failed) {
+        if (failed && !slot.validate()) {
+            slot.close();
+        }
+        slot.lastUsed = System.currentTimeMillis();
+        this.idle.add(slot);
+    }
+
+    /**
+     * @return true if a connection can be borrowed and answers the validation query
+     */
+    public boolean isAvailable() {
+        final Slot slot;
+        try {
+            slot = this.borrow();
+        } catch (SQLException e) {
+            return false;
+        }
+        final boolean valid = slot.validate();
+        if (!valid) {
+            slot.close();
+        }
+        slot.lastUsed = System.currentTimeMillis();
+        this.idle.add(slot);
+        return valid;
+    }
+
+    public void close() {
+        for (Slot slot : this.slots) {
+            slot.close();
+        }
+        this.idle.clear();
+    }
+}
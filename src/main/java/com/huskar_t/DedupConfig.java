@@ -0,0 +1,125 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementBoolean;
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link DedupConfig}
+ * the "dedup" section of tdengine.xml, publishes that did not change since the last written one are not written
+ */
+public class DedupConfig {
+    private boolean enable;
+    private double deadband;
+    private double percent;
+    private String path;
+    private long heartbeatMs;
+    private int capacity;
+
+    /**
+     * @param element dedup 配置节点,为空时使用默认值
+     */
+    public DedupConfig(Element element) {
+        this.setEnable(elementBoolean(element, "enable", false));
+        this.setDeadband(Double.parseDouble(elementText(element, "deadband", "0")));
+        this.setPercent(Double.parseDouble(elementText(element, "percent", "0")));
+        this.setPath(elementText(element, "path", ""));
+        this.setHeartbeatMs(elementLong(element, "heartbeatMs", 60000));
+        this.setCapacity(elementInt(element, "capacity", 1000000));
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public void setEnable(boolean enable) {
+        this.enable = enable;
+    }
+
+    /**
+     * @return numeric values that moved at most this much since the last written one are skipped
+     */
+    public double getDeadband() {
+        return deadband;
+    }
+
+    public void setDeadband(double deadband) {
+        if (deadband < 0) {
+            deadband = 0;
+        }
+        this.deadband = deadband;
+    }
+
+    /**
+     * @return numeric values that moved at most this percentage of the last written one are skipped
+     */
+    public double getPercent() {
+        return percent;
+    }
+
+    public void setPercent(double percent) {
+        if (percent < 0) {
+            percent = 0;
+        }
+        this.percent = percent;
+    }
+
+    /**
+     * @return JSON path of the numeric value, empty if the payload itself is the number
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * @return a topic is written at least this often even if it did not change
+     */
+    public long getHeartbeatMs() {
+        return heartbeatMs;
+    }
+
+    public void setHeartbeatMs(long heartbeatMs) {
+        if (heartbeatMs < 1) {
+            heartbeatMs = 1;
+        }
+        this.heartbeatMs = heartbeatMs;
+    }
+
+    /**
+     * @return topics kept in the last value cache, the least recently written ones make room
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            capacity = 1;
+        }
+        this.capacity = capacity;
+    }
+}
@@ -0,0 +1,134 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Endpoint}
+ * one taosAdapter/taosd node: its REST urls or its sdk connections, and whether it is healthy
+ * failureThreshold failed or slow requests in a row take it out for downMs, afterwards it gets requests again
+ *
+ * @author huskar-t
+ */
+public class Endpoint {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(Endpoint.class);
+
+    private final String host;
+    private final String port;
+    private final ClusterConfig config;
+    private final long slowNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long downUntil;
+    private String url;
+    private String lineUrl;
+    private ConnectionPool pool;
+
+    /**
+     * @param host   主机
+     * @param port   端口
+     * @param config health settings
+     */
+    public Endpoint(String host, String port, ClusterConfig config) {
+        this.host = host;
+        this.port = port;
+        this.config = config;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowMs());
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPort() {
+        return port;
+    }
+
+    public boolean isUp() {
+        return System.currentTimeMillis() >= this.downUntil;
+    }
+
+    /**
+     * @param nanos duration of the request
+     */
+    public void succeeded(long nanos) {
+        if (nanos > this.slowNanos) {
+            this.failed();
+        } else if (this.failures.get() != 0) {
+            this.failures.set(0);
+        }
+    }
+
+    public void failed() {
+        if (this.failures.incrementAndGet() >= this.config.getFailureThreshold()) {
+            this.failures.set(0);
+            this.downUntil = System.currentTimeMillis() + this.config.getDownMs();
+            log.warn("tdengine endpoint {} failed {} times in a row, its topics move to other endpoints for {}ms",
+                    this, this.config.getFailureThreshold(), this.config.getDownMs());
+        }
+    }
+
+    /**
+     * @return "http://host:port/rest/sql"
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    /**
+     * @return schemaless write url, null unless schemaless over http
+     */
+    public String getLineUrl() {
+        return lineUrl;
+    }
+
+    public void setLineUrl(String lineUrl) {
+        this.lineUrl = lineUrl;
+    }
+
+    /**
+     * @return sdk connections, null with http
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public void close() {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.host + ":" + this.port;
+    }
+}
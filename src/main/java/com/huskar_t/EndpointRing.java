@@ -0,0 +1,113 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link EndpointRing}
+ * consistent hash ring over the endpoints of a cluster, each endpoint has virtualNodes points on it
+ * a topic belongs to the endpoint of the first point at or after its hash, so its rows always go to the same node
+ * and adding or losing an endpoint only moves the topics of that endpoint
+ * while an endpoint is down its topics go to the next endpoint on the ring that is up
+ *
+ * @author huskar-t
+ */
+public class EndpointRing {
+    private final Endpoint[] endpoints;
+    private final int[] hashes;
+    private final int[] owners;
+
+    /**
+     * @param endpoints    至少一个
+     * @param virtualNodes points per endpoint
+     */
+    public EndpointRing(List<Endpoint> endpoints, int virtualNodes) {
+        this.endpoints = endpoints.toArray(new Endpoint[0]);
+        final List<long[]> points = new ArrayList<>(this.endpoints.length * virtualNodes);
+        for (int i = 0; i < this.endpoints.length; i++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                points.add(new long[]{hash(this.endpoints[i] + "#" + v), i});
+            }
+        }
+        points.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.hashes = new int[points.size()];
+        this.owners = new int[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            this.hashes[i] = (int) points.get(i)[0];
+            this.owners[i] = (int) points.get(i)[1];
+        }
+    }
+
+    /**
+     * murmur3 finalizer over String.hashCode, topics that differ in one character land far apart
+     */
+    static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private int point(String key) {
+        final int index = Arrays.binarySearch(this.hashes, hash(key));
+        final int point = index >= 0 ? index : -index - 1;
+        return point == this.hashes.length ? 0 : point;
+    }
+
+    /**
+     * @return index of the endpoint the topic belongs to, regardless of its health
+     */
+    public int primary(String key) {
+        return this.endpoints.length == 1 ? 0 : this.owners[this.point(key)];
+    }
+
+    /**
+     * @return the endpoint of the topic, or the next one on the ring that is up, the own one if none is up
+     */
+    public Endpoint pick(String key) {
+        if (this.endpoints.length == 1) {
+            return this.endpoints[0];
+        }
+        final int start = this.point(key);
+        final Endpoint own = this.endpoints[this.owners[start]];
+        if (own.isUp()) {
+            return own;
+        }
+        for (int i = 1; i < this.owners.length; i++) {
+            final Endpoint endpoint = this.endpoints[this.owners[(start + i) % this.owners.length]];
+            if (endpoint.isUp()) {
+                return endpoint;
+            }
+        }
+        return own;
+    }
+
+    public Endpoint get(int index) {
+        return this.endpoints[index];
+    }
+
+    public int size() {
+        return this.endpoints.length;
+    }
+}
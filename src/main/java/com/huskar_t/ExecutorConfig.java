@@ -0,0 +1,62 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link ExecutorConfig}
+ * the "executor" section of tdengine.xml, where the blocking writes of single publishes run
+ */
+public class ExecutorConfig {
+    private WriteExecutor.Type type;
+    private int maxConcurrency;
+
+    /**
+     * @param element executor 配置节点,为空时使用默认值
+     */
+    public ExecutorConfig(Element element) {
+        this.setType(WriteExecutor.Type.parse(elementText(element, "type", "hivemq")));
+        this.setMaxConcurrency(elementInt(element, "maxConcurrency", 256));
+    }
+
+    public WriteExecutor.Type getType() {
+        return type;
+    }
+
+    public void setType(WriteExecutor.Type type) {
+        this.type = type;
+    }
+
+    /**
+     * @return max blocking TDengine calls at the same time, threads of the platform pool
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            maxConcurrency = 1;
+        }
+        this.maxConcurrency = maxConcurrency;
+    }
+}
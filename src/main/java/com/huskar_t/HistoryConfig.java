@@ -0,0 +1,148 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.huskar_t.Util.elementBoolean;
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+
+/**
+ * {@link HistoryConfig}
+ * the "history" section of tdengine.xml, a new subscription gets the recent values of its topics replayed
+ */
+public class HistoryConfig {
+    private boolean enable;
+    private final List<String> topics = new ArrayList<>();
+    private int count;
+    private long maxAgeMs;
+    private int capacity;
+    private long batchMs;
+    private int batchTopics;
+
+    /**
+     * @param element history 配置节点,为空时使用默认值
+     */
+    public HistoryConfig(Element element) {
+        this.setEnable(elementBoolean(element, "enable", false));
+        if (element != null) {
+            for (Element topic : element.elements("topic")) {
+                this.topics.add(topic.getTextTrim());
+            }
+        }
+        if (this.topics.isEmpty()) {
+            this.topics.add("#");
+        }
+        this.setCount(elementInt(element, "count", 10));
+        this.setMaxAgeMs(elementLong(element, "maxAgeMs", 600000));
+        this.setCapacity(elementInt(element, "capacity", 10000));
+        this.setBatchMs(elementLong(element, "batchMs", 50));
+        this.setBatchTopics(elementInt(element, "batchTopics", 500));
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public void setEnable(boolean enable) {
+        this.enable = enable;
+    }
+
+    /**
+     * @return filters of the topics whose history is kept and replayed, "#" for all
+     */
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    /**
+     * @return values replayed per topic at most, the newest ones
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        if (count < 1) {
+            count = 1;
+        } else if (count > 10000) {
+            count = 10000;
+        }
+        this.count = count;
+    }
+
+    /**
+     * @return values older than this are not replayed, 0 for no limit
+     */
+    public long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+
+    public void setMaxAgeMs(long maxAgeMs) {
+        if (maxAgeMs < 0) {
+            maxAgeMs = 0;
+        }
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * @return topics kept in the cache, the least recently used ones make room
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            capacity = 1;
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return topics not in the cache are collected this long and then loaded with one query
+     */
+    public long getBatchMs() {
+        return batchMs;
+    }
+
+    public void setBatchMs(long batchMs) {
+        if (batchMs < 0) {
+            batchMs = 0;
+        }
+        this.batchMs = batchMs;
+    }
+
+    /**
+     * @return topics loaded together at most, more are split, a query takes {@link PayloadTable#MAX_UNION} of them
+     */
+    public int getBatchTopics() {
+        return batchTopics;
+    }
+
+    public void setBatchTopics(int batchTopics) {
+        if (batchTopics < 1) {
+            batchTopics = 1;
+        }
+        this.batchTopics = batchTopics;
+    }
+}
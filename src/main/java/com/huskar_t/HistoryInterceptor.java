@@ -0,0 +1,242 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.interceptor.suback.SubackOutboundInterceptor;
+import com.hivemq.extension.sdk.api.interceptor.suback.parameter.SubackOutboundInput;
+import com.hivemq.extension.sdk.api.interceptor.suback.parameter.SubackOutboundOutput;
+import com.hivemq.extension.sdk.api.interceptor.subscribe.SubscribeInboundInterceptor;
+import com.hivemq.extension.sdk.api.interceptor.subscribe.parameter.SubscribeInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.subscribe.parameter.SubscribeInboundOutput;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.packets.subscribe.SubackReasonCode;
+import com.hivemq.extension.sdk.api.packets.subscribe.SubscribePacket;
+import com.hivemq.extension.sdk.api.packets.subscribe.Subscription;
+import com.hivemq.extension.sdk.api.services.Services;
+import com.hivemq.extension.sdk.api.services.builder.Builders;
+import com.hivemq.extension.sdk.api.services.publish.Publish;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link SubscribeInboundInterceptor} and {@link SubackOutboundInterceptor},
+ * replays the recent values of its topics to a new subscription, the last count publishes no older than maxAgeMs
+ * the filters of a SUBSCRIBE are remembered until its SUBACK, only then the subscriptions exist and
+ * {@link com.hivemq.extension.sdk.api.services.publish.PublishService#publishToClient} reaches the client,
+ * filters that were not granted are skipped and the replay uses the granted QoS
+ * topics with a complete ring in the {@link LastValueCache} are replayed right away, the others after the
+ * {@link HistoryLoader} merged their rows of TDengine into the cache, a wildcard filter replays the topics the cache knows
+ * replayed publishes are not retained and carry the user property "history" with the epoch milliseconds of the value,
+ * shared subscriptions get no replay
+ *
+ * @author huskar-t
+ */
+public class HistoryInterceptor implements SubscribeInboundInterceptor, SubackOutboundInterceptor {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(HistoryInterceptor.class);
+    static final String PROPERTY = "history";
+    /**
+     * SUBSCRIBEs waiting for their SUBACK at most, a client that went away before it was answered leaks no entry
+     */
+    private static final int MAX_PENDING = 100000;
+
+    /**
+     * sends one replayed value to a client
+     */
+    interface Sender {
+        void send(String clientId, Row row, Qos qos);
+    }
+
+    private final LastValueCache cache;
+    private final HistoryLoader loader;
+    private final TDengineMetrics metrics;
+    private final Sender sender;
+    private final Map<String, List<String>> subscribes = new LinkedHashMap<String, List<String>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return this.size() > MAX_PENDING;
+        }
+    };
+
+    /**
+     * @param tdengine holds the cache filled by the writes
+     * @param loader   loads the topics the cache can not answer
+     */
+    public HistoryInterceptor(TDengine tdengine, HistoryLoader loader) {
+        this(tdengine.getHistory(), loader, tdengine.getMetrics(), HistoryInterceptor::publish);
+    }
+
+    HistoryInterceptor(LastValueCache cache, HistoryLoader loader, TDengineMetrics metrics, Sender sender) {
+        this.cache = cache;
+        this.loader = loader;
+        this.metrics = metrics;
+        this.sender = sender;
+    }
+
+    @Override
+    public void onInboundSubscribe(final @NotNull SubscribeInboundInput subscribeInboundInput, final @NotNull SubscribeInboundOutput subscribeInboundOutput) {
+        final SubscribePacket packet = subscribeInboundInput.getSubscribePacket();
+        final List<String> filters = new ArrayList<>(packet.getSubscriptions().size());
+        for (Subscription subscription : packet.getSubscriptions()) {
+            filters.add(subscription.getTopicFilter());
+        }
+        this.subscribed(subscribeInboundInput.getClientInformation().getClientId(), packet.getPacketId(), filters);
+    }
+
+    @Override
+    public void onOutboundSuback(final @NotNull SubackOutboundInput subackOutboundInput, final @NotNull SubackOutboundOutput subackOutboundOutput) {
+        try {
+            this.acknowledged(subackOutboundInput.getClientInformation().getClientId(),
+                    subackOutboundInput.getSubackPacket().getPacketIdentifier(),
+                    subackOutboundInput.getSubackPacket().getReasonCodes());
+        } catch (Exception e) {
+            log.error("replay history error", e);
+        }
+    }
+
+    /**
+     * @param filters filters in the order of the SUBSCRIBE
+     */
+    void subscribed(String clientId, int packetId, List<String> filters) {
+        // null keeps the place of a filter without history
+        final List<String> replayed = new ArrayList<>(filters.size());
+        boolean any = false;
+        for (String filter : filters) {
+            final boolean replays = this.replays(filter);
+            replayed.add(replays ? filter : null);
+            any |= replays;
+        }
+        if (any) {
+            synchronized (this.subscribes) {
+                this.subscribes.put(key(clientId, packetId), replayed);
+            }
+        }
+    }
+
+    /**
+     * @param reasonCodes one per filter of the SUBSCRIBE
+     */
+    void acknowledged(String clientId, int packetId, List<SubackReasonCode> reasonCodes) {
+        final List<String> filters;
+        synchronized (this.subscribes) {
+            filters = this.subscribes.remove(key(clientId, packetId));
+        }
+        if (filters == null) {
+            return;
+        }
+        final Map<String, Qos> topics = new LinkedHashMap<>();
+        for (int i = 0; i < filters.size() && i < reasonCodes.size(); i++) {
+            final String filter = filters.get(i);
+            final Qos qos = granted(reasonCodes.get(i));
+            if (filter == null || qos == null) {
+                continue;
+            }
+            if (isWildcard(filter)) {
+                for (String topic : this.cache.topics(filter)) {
+                    topics.merge(topic, qos, HistoryInterceptor::max);
+                }
+            } else {
+                topics.merge(filter, qos, HistoryInterceptor::max);
+            }
+        }
+        final long now = System.currentTimeMillis();
+        final List<String> cold = new ArrayList<>();
+        for (Map.Entry<String, Qos> entry : topics.entrySet()) {
+            final List<Row> rows = this.cache.get(entry.getKey(), now, false);
+            if (rows == null) {
+                cold.add(entry.getKey());
+            } else {
+                this.metrics.historyHit();
+                this.replay(clientId, rows, entry.getValue());
+            }
+        }
+        if (cold.isEmpty()) {
+            return;
+        }
+        this.loader.load(cold).thenRun(() -> {
+            final long loaded = System.currentTimeMillis();
+            for (String topic : cold) {
+                this.replay(clientId, this.cache.get(topic, loaded, true), topics.get(topic));
+            }
+        });
+    }
+
+    private void replay(String clientId, List<Row> rows, Qos qos) {
+        for (Row row : rows) {
+            try {
+                this.sender.send(clientId, row, qos);
+            } catch (Exception e) {
+                log.warn("replay history of topic {} to client {} error", row.getTopic(), clientId, e);
+                return;
+            }
+        }
+        this.metrics.replayed(rows.size());
+    }
+
+    /**
+     * @return true if the filter may have history, shared subscriptions have none
+     */
+    private boolean replays(String filter) {
+        return !filter.startsWith("$share/") && (isWildcard(filter) || this.cache.matches(filter));
+    }
+
+    private static boolean isWildcard(String filter) {
+        return filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0;
+    }
+
+    private static String key(String clientId, int packetId) {
+        return packetId + ":" + clientId;
+    }
+
+    private static @Nullable Qos granted(SubackReasonCode reasonCode) {
+        switch (reasonCode) {
+            case GRANTED_QOS_0:
+                return Qos.AT_MOST_ONCE;
+            case GRANTED_QOS_1:
+                return Qos.AT_LEAST_ONCE;
+            case GRANTED_QOS_2:
+                return Qos.EXACTLY_ONCE;
+            default:
+                return null;
+        }
+    }
+
+    private static Qos max(Qos a, Qos b) {
+        return a.getQosNumber() >= b.getQosNumber() ? a : b;
+    }
+
+    private static void publish(String clientId, Row row, Qos qos) {
+        final Publish publish = Builders.publish()
+                .topic(row.getTopic())
+                .payload(row.getPayload().asReadOnlyBuffer())
+                .qos(qos)
+                .userProperty(PROPERTY, String.valueOf(row.getTimestamp()))
+                .build();
+        Services.publishService().publishToClient(publish, clientId).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                log.warn("replay history of topic {} to client {} error", row.getTopic(), clientId, throwable);
+            }
+        });
+    }
+}
@@ -0,0 +1,190 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link HistoryLoader}
+ * the cold tier of the history, loads topics the {@link LastValueCache} can not answer from TDengine
+ * topics asked for are collected for batchMs and then loaded together, one query per hundred of them, so a reconnect storm
+ * where thousands of clients subscribe again costs a few queries instead of one per client,
+ * a topic already waiting or being loaded is not asked for twice
+ * the rows are merged into the cache, the subscribers read them from there once the future completed
+ *
+ * @author huskar-t
+ */
+public class HistoryLoader {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(HistoryLoader.class);
+    private static final long CLOSE_TIMEOUT_MS = 10000;
+
+    private final TDengine tdengine;
+    private final LastValueCache cache;
+    private final HistoryConfig config;
+    /**
+     * topics of the next query, all waiting on the same future
+     */
+    private final Map<String, CompletableFuture<Void>> pending = new LinkedHashMap<>();
+    private final Map<String, CompletableFuture<Void>> loading = new HashMap<>();
+    private CompletableFuture<Void> round;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param tdengine queries the history
+     * @param cache    receives the rows
+     * @param config   history 配置
+     */
+    public HistoryLoader(TDengine tdengine, LastValueCache cache, HistoryConfig config) {
+        this.tdengine = tdengine;
+        this.cache = cache;
+        this.config = config;
+    }
+
+    public void start() {
+        this.running = true;
+        this.thread = new Thread(this::run, "tdengine-history-loader");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * stop loading, subscribers still waiting get what the cache has
+     */
+    public void close() {
+        this.running = false;
+        if (this.thread != null) {
+            this.thread.interrupt();
+            try {
+                this.thread.join(CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final List<CompletableFuture<Void>> waiting;
+        synchronized (this) {
+            waiting = new ArrayList<>(this.pending.values());
+            waiting.addAll(this.loading.values());
+            this.pending.clear();
+        }
+        waiting.forEach(future -> future.complete(null));
+    }
+
+    /**
+     * @param topics 主题
+     * @return completes once the topics were loaded into the cache or their query failed, never exceptionally
+     */
+    public CompletableFuture<Void> load(Collection<String> topics) {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(1);
+        synchronized (this) {
+            for (String topic : topics) {
+                CompletableFuture<Void> future = this.loading.get(topic);
+                if (future == null) {
+                    future = this.pending.get(topic);
+                }
+                if (future == null) {
+                    if (this.round == null) {
+                        this.round = new CompletableFuture<>();
+                        this.notifyAll();
+                    }
+                    future = this.round;
+                    this.pending.put(topic, future);
+                }
+                if (!futures.contains(future)) {
+                    futures.add(future);
+                }
+            }
+        }
+        CompletableFuture<Void> all = futures.get(0);
+        for (int i = 1; i < futures.size(); i++) {
+            all = all.thenCombine(futures.get(i), (a, b) -> null);
+        }
+        return all;
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                synchronized (this) {
+                    while (this.pending.isEmpty() && this.running) {
+                        this.wait();
+                    }
+                }
+                // the rest of the storm joins the query
+                Thread.sleep(this.config.getBatchMs());
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                this.flush();
+            } catch (Exception e) {
+                log.error("tdengine history load error", e);
+            }
+        }
+    }
+
+    /**
+     * load every pending topic, batchTopics per round
+     */
+    void flush() {
+        final Map<String, CompletableFuture<Void>> batch;
+        synchronized (this) {
+            batch = new LinkedHashMap<>(this.pending);
+            this.pending.clear();
+            this.round = null;
+            this.loading.putAll(batch);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<String> topics = new ArrayList<>(batch.keySet());
+        final long since = this.cache.since(System.currentTimeMillis());
+        try {
+            for (int from = 0; from < topics.size(); from += this.config.getBatchTopics()) {
+                final List<String> chunk = topics.subList(from, Math.min(topics.size(), from + this.config.getBatchTopics()));
+                final Map<String, List<Row>> rows = this.tdengine.queryHistory(chunk, since, this.cache.getCount());
+                if (rows == null) {
+                    // not marked complete, the next subscriber asks again
+                    continue;
+                }
+                for (String topic : chunk) {
+                    this.cache.load(topic, rows.getOrDefault(topic, Collections.emptyList()));
+                }
+                this.tdengine.getMetrics().historyQuery(chunk.size());
+            }
+        } finally {
+            synchronized (this) {
+                this.loading.keySet().removeAll(batch.keySet());
+            }
+            for (CompletableFuture<Void> future : batch.values()) {
+                future.complete(null);
+            }
+        }
+    }
+}
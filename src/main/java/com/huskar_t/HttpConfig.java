@@ -0,0 +1,158 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementBoolean;
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+
+/**
+ * {@link HttpConfig}
+ * the "http" section of tdengine.xml, connection pool and timeouts of the REST client
+ */
+public class HttpConfig {
+    private boolean async;
+    private int maxConnections;
+    private int maxPerRoute;
+    private long keepAliveMs;
+    private int connectTimeoutMs;
+    private int socketTimeoutMs;
+    private int requestTimeoutMs;
+    private boolean gzip;
+    private int gzipLevel;
+    private int gzipThreshold;
+
+    /**
+     * @param element http 配置节点,为空时使用默认值
+     */
+    public HttpConfig(Element element) {
+        this.setAsync(elementBoolean(element, "async", false));
+        this.setMaxConnections(elementInt(element, "maxConnections", 64));
+        this.setMaxPerRoute(elementInt(element, "maxPerRoute", 64));
+        this.setKeepAliveMs(elementLong(element, "keepAliveMs", 30000));
+        this.setConnectTimeoutMs(elementInt(element, "connectTimeoutMs", 3000));
+        this.setSocketTimeoutMs(elementInt(element, "socketTimeoutMs", 10000));
+        this.setRequestTimeoutMs(elementInt(element, "requestTimeoutMs", 5000));
+        this.setGzip(elementBoolean(element, "gzip", false));
+        this.setGzipLevel(elementInt(element, "gzipLevel", 1));
+        this.setGzipThreshold(elementInt(element, "gzipThreshold", 8192));
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            maxConnections = 1;
+        }
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public void setMaxPerRoute(int maxPerRoute) {
+        if (maxPerRoute < 1) {
+            maxPerRoute = 1;
+        }
+        this.maxPerRoute = maxPerRoute;
+    }
+
+    public long getKeepAliveMs() {
+        return keepAliveMs;
+    }
+
+    public void setKeepAliveMs(long keepAliveMs) {
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+
+    public void setSocketTimeoutMs(int socketTimeoutMs) {
+        this.socketTimeoutMs = socketTimeoutMs;
+    }
+
+    /**
+     * @return how long a request waits for a pooled connection
+     */
+    public int getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public void setRequestTimeoutMs(int requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    /**
+     * @return compress request bodies, the server (taosAdapter) must accept Content-Encoding gzip
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * @return deflate level, 1 is fastest and 9 smallest
+     */
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = Math.max(0, Math.min(9, gzipLevel));
+    }
+
+    /**
+     * @return bodies with fewer characters are sent uncompressed
+     */
+    public int getGzipThreshold() {
+        return gzipThreshold;
+    }
+
+    public void setGzipThreshold(int gzipThreshold) {
+        if (gzipThreshold < 0) {
+            gzipThreshold = 0;
+        }
+        this.gzipThreshold = gzipThreshold;
+    }
+}
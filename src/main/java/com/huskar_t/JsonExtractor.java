@@ -0,0 +1,243 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.parser.JSONLexer;
+import com.alibaba.fastjson.parser.JSONScanner;
+import com.alibaba.fastjson.parser.JSONToken;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link JsonExtractor}
+ * pulls the values of a fixed set of paths out of a JSON object with the fastjson token scanner,
+ * no JSONObject tree is built, unmapped values are only tokenized and scanning stops once every path was found
+ * paths are dotted field names, a leading "$." is optional, values inside arrays can not be addressed
+ * every value is rendered as a sql literal for the type of its column, or with quote off strings are left unquoted
+ *
+ * @author huskar-t
+ */
+public class JsonExtractor {
+    private static final String NULL = "null";
+
+    private static final class Node {
+        private Map<String, Node> children;
+        private int column = -1;
+    }
+
+    private final Node root = new Node();
+    private final JsonMapping.ColumnType[] types;
+    private final boolean quote;
+
+    /**
+     * @param paths one path per column
+     * @param types column types in the same order
+     */
+    public JsonExtractor(List<String> paths, List<JsonMapping.ColumnType> types) {
+        this(paths, types, true);
+    }
+
+    /**
+     * @param paths one path per column
+     * @param types column types in the same order
+     * @param quote false to return strings as they are instead of quoted and escaped for sql
+     */
+    public JsonExtractor(List<String> paths, List<JsonMapping.ColumnType> types, boolean quote) {
+        this.types = types.toArray(new JsonMapping.ColumnType[0]);
+        this.quote = quote;
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            if (path.startsWith("$.")) {
+                path = path.substring(2);
+            }
+            Node node = this.root;
+            for (String field : path.split("\\.")) {
+                if (node.children == null) {
+                    node.children = new HashMap<>();
+                }
+                node = node.children.computeIfAbsent(field, key -> new Node());
+            }
+            node.column = i;
+        }
+    }
+
+    /**
+     * @param json     payload
+     * @param literals receives one sql literal per column, "null" for missing values (null with quote off)
+     * @return false if the payload is not a JSON object
+     */
+    public boolean extract(String json, String[] literals) {
+        for (int i = 0; i < literals.length; i++) {
+            literals[i] = null;
+        }
+        final JSONScanner lexer = new JSONScanner(json);
+        try {
+            lexer.nextToken();
+            if (lexer.token() != JSONToken.LBRACE) {
+                return false;
+            }
+            this.read(lexer, this.root, literals, 0);
+        } catch (JSONException e) {
+            return false;
+        } finally {
+            lexer.close();
+        }
+        for (int i = 0; i < literals.length; i++) {
+            // the NULL constant itself, a string "null" of the payload is another instance
+            if (literals[i] == null || literals[i] == NULL) {
+                literals[i] = this.quote ? NULL : null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * read the value at the current token and move past it
+     *
+     * @return number of columns found so far
+     */
+    private int read(JSONLexer lexer, Node node, String[] literals, int found) {
+        switch (lexer.token()) {
+            case JSONToken.LBRACE:
+                lexer.nextToken();
+                while (lexer.token() != JSONToken.RBRACE) {
+                    if (lexer.token() != JSONToken.LITERAL_STRING && lexer.token() != JSONToken.IDENTIFIER) {
+                        throw new JSONException("field name expected at " + lexer.pos());
+                    }
+                    final Node child = node == null || node.children == null ? null : node.children.get(lexer.stringVal());
+                    lexer.nextTokenWithColon();
+                    found = this.read(lexer, child, literals, found);
+                    if (found == literals.length) {
+                        return found;
+                    }
+                    this.separator(lexer, JSONToken.RBRACE);
+                }
+                lexer.nextToken();
+                return found;
+            case JSONToken.LBRACKET:
+                lexer.nextToken();
+                while (lexer.token() != JSONToken.RBRACKET) {
+                    found = this.read(lexer, null, literals, found);
+                    this.separator(lexer, JSONToken.RBRACKET);
+                }
+                lexer.nextToken();
+                return found;
+            case JSONToken.EOF:
+            case JSONToken.ERROR:
+                throw new JSONException("unexpected end at " + lexer.pos());
+            default:
+                if (node != null && node.column >= 0 && literals[node.column] == null) {
+                    try {
+                        literals[node.column] = this.literal(lexer, this.types[node.column]);
+                    } catch (NumberFormatException e) {
+                        literals[node.column] = NULL;
+                    }
+                    found++;
+                }
+                lexer.nextToken();
+                return found;
+        }
+    }
+
+    private void separator(JSONLexer lexer, int end) {
+        if (lexer.token() == JSONToken.COMMA) {
+            lexer.nextToken();
+        } else if (lexer.token() != end) {
+            throw new JSONException("',' expected at " + lexer.pos());
+        }
+    }
+
+    private String literal(JSONLexer lexer, JsonMapping.ColumnType type) {
+        final int token = lexer.token();
+        switch (type) {
+            case BOOL:
+                switch (token) {
+                    case JSONToken.TRUE:
+                        return "true";
+                    case JSONToken.FALSE:
+                        return "false";
+                    case JSONToken.LITERAL_INT:
+                        return lexer.longValue() != 0 ? "true" : "false";
+                    case JSONToken.LITERAL_STRING:
+                        return String.valueOf(Boolean.parseBoolean(lexer.stringVal()));
+                    default:
+                        return NULL;
+                }
+            case INT:
+            case BIGINT:
+                switch (token) {
+                    case JSONToken.LITERAL_INT:
+                        return lexer.numberString();
+                    case JSONToken.LITERAL_FLOAT:
+                        return String.valueOf(lexer.decimalValue().longValue());
+                    case JSONToken.TRUE:
+                        return "1";
+                    case JSONToken.FALSE:
+                        return "0";
+                    case JSONToken.LITERAL_STRING:
+                        return String.valueOf(Long.parseLong(lexer.stringVal().trim()));
+                    default:
+                        return NULL;
+                }
+            case DOUBLE:
+                switch (token) {
+                    case JSONToken.LITERAL_INT:
+                    case JSONToken.LITERAL_FLOAT:
+                        return lexer.numberString();
+                    case JSONToken.TRUE:
+                        return "1";
+                    case JSONToken.FALSE:
+                        return "0";
+                    case JSONToken.LITERAL_STRING:
+                        return String.valueOf(Double.parseDouble(lexer.stringVal().trim()));
+                    default:
+                        return NULL;
+                }
+            case TIMESTAMP:
+                switch (token) {
+                    case JSONToken.LITERAL_INT:
+                        return lexer.numberString();
+                    case JSONToken.LITERAL_STRING:
+                        return this.string(lexer.stringVal());
+                    default:
+                        return NULL;
+                }
+            default:
+                switch (token) {
+                    case JSONToken.LITERAL_STRING:
+                        return this.string(lexer.stringVal());
+                    case JSONToken.LITERAL_INT:
+                    case JSONToken.LITERAL_FLOAT:
+                        return this.string(lexer.numberString());
+                    case JSONToken.TRUE:
+                        return this.string("true");
+                    case JSONToken.FALSE:
+                        return this.string("false");
+                    default:
+                        return NULL;
+                }
+        }
+    }
+
+    private String string(String value) {
+        return this.quote ? "'" + SqlEncoder.escape(value) + "'" : value;
+    }
+}
@@ -0,0 +1,199 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link JsonMapping}
+ * one "mapping" of tdengine.xml, JSON payloads of topics matching the filter are written to their own table
+ * with one typed column per mapped JSON path instead of the payload string
+ * a TIMESTAMP column named "ts" is not a column of its own, it replaces the receive time of the row,
+ * numbers are epoch milliseconds converted to the database precision, strings are left to TDengine
+ *
+ * @author huskar-t
+ */
+public class JsonMapping {
+    private static final Logger log = LoggerFactory.getLogger(JsonMapping.class);
+    private static final String TIMESTAMP_COLUMN = "ts";
+
+    /**
+     * supported column types
+     */
+    public enum ColumnType {
+        DOUBLE, INT, BIGINT, BOOL, TIMESTAMP, NCHAR, BINARY;
+
+        public static ColumnType parse(String value) {
+            final int length = value.indexOf('(');
+            final String name = (length < 0 ? value : value.substring(0, length)).trim().toUpperCase();
+            switch (name) {
+                case "FLOAT":
+                    return DOUBLE;
+                case "BOOLEAN":
+                    return BOOL;
+                default:
+                    return ColumnType.valueOf(name);
+            }
+        }
+    }
+
+    private final String topicFilter;
+    private final String table;
+    private final String series;
+    private final List<String> columns = new ArrayList<>();
+    private final List<String> definitions = new ArrayList<>();
+    private final int timestampIndex;
+    private final JsonExtractor extractor;
+    private final SqlEncoder encoder;
+    private final TimestampConfig.Precision precision;
+
+    /**
+     * @param element   mapping 配置节点
+     * @param db        数据库名
+     * @param precision 数据库时间精度
+     * @throws Exception 缺少 topic/table 或列类型不支持
+     */
+    public JsonMapping(Element element, String db, TimestampConfig.Precision precision) throws Exception {
+        this.precision = precision;
+        this.topicFilter = elementText(element, "topic", "");
+        this.table = elementText(element, "table", "");
+        if (this.topicFilter.equals("") || this.table.equals("")) {
+            throw new Exception("mapping requires topic and table");
+        }
+        this.series = db + "." + this.table;
+        final List<String> paths = new ArrayList<>();
+        final List<ColumnType> types = new ArrayList<>();
+        int timestamp = -1;
+        final Element columnsElement = element.element("columns");
+        final List<Element> columnElements = columnsElement == null ? new ArrayList<>() : columnsElement.elements("column");
+        for (Element column : columnElements) {
+            final String name = elementText(column, "name", "");
+            final String type = elementText(column, "type", "NCHAR(64)");
+            final ColumnType columnType = ColumnType.parse(type);
+            if (name.equals("")) {
+                throw new Exception("mapping column of table " + this.table + " requires name");
+            }
+            if (TIMESTAMP_COLUMN.equalsIgnoreCase(name) && columnType == ColumnType.TIMESTAMP) {
+                timestamp = paths.size();
+            } else {
+                this.columns.add(name);
+                this.definitions.add(name + " " + definition(type, columnType));
+            }
+            paths.add(elementText(column, "path", name));
+            types.add(columnType);
+        }
+        if (paths.isEmpty()) {
+            throw new Exception("mapping of table " + this.table + " has no columns");
+        }
+        this.timestampIndex = timestamp;
+        this.extractor = new JsonExtractor(paths, types);
+        final StringBuilder template = new StringBuilder(" (%s,'%s'");
+        for (int i = 0; i < this.columns.size(); i++) {
+            template.append(",%s");
+        }
+        template.append(')');
+        this.encoder = new SqlEncoder(String.format("import into %s.%s values", db, this.table), template.toString());
+        log.info("payload of topic {} mapped to table {} columns {}", this.topicFilter, this.table, this.columns);
+    }
+
+    private static String definition(String type, ColumnType columnType) {
+        switch (columnType) {
+            case NCHAR:
+            case BINARY:
+                return type.indexOf('(') < 0 ? columnType.name() + "(64)" : type.toUpperCase();
+            default:
+                return columnType.name();
+        }
+    }
+
+    public String getTopicFilter() {
+        return topicFilter;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return key of the {@link SeriesClock} series of the mapping table
+     */
+    public String getSeries() {
+        return series;
+    }
+
+    /**
+     * @return (ts, topic, mapped columns)
+     */
+    public String createTableSql(String db, String topicColumn, int maxlength) {
+        final StringBuilder sql = new StringBuilder(String.format(
+                "create table if not exists %s.%s (ts timestamp, %s NCHAR(%d)", db, this.table, topicColumn, maxlength));
+        for (String definition : this.definitions) {
+            sql.append(", ").append(definition);
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * @param timestamp receive time, used when the payload has no "ts"
+     * @param topic     主题
+     * @param payload   消息内容
+     * @return values for {@link #getEncoder()}, null if the payload is not a JSON object
+     */
+    public CharSequence[] values(String timestamp, String topic, String payload) {
+        final String[] literals = new String[this.columns.size() + (this.timestampIndex < 0 ? 0 : 1)];
+        if (!this.extractor.extract(payload, literals)) {
+            return null;
+        }
+        final CharSequence[] values = new CharSequence[this.columns.size() + 2];
+        values[0] = this.timestampIndex < 0 || "null".equals(literals[this.timestampIndex]) ? timestamp : this.timestamp(literals[this.timestampIndex]);
+        values[1] = topic;
+        int column = 2;
+        for (int i = 0; i < literals.length; i++) {
+            if (i != this.timestampIndex) {
+                values[column++] = literals[i];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param literal number or quoted string of the payload
+     * @return epoch milliseconds in database precision, strings as they are
+     */
+    private String timestamp(String literal) {
+        if (this.precision == TimestampConfig.Precision.MS || literal.startsWith("'")) {
+            return literal;
+        }
+        try {
+            return String.valueOf(this.precision.fromMillis(Long.parseLong(literal)));
+        } catch (NumberFormatException e) {
+            return literal;
+        }
+    }
+
+    public SqlEncoder getEncoder() {
+        return encoder;
+    }
+}
@@ -0,0 +1,82 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LaneExecutor}
+ * N single-threaded lanes, a topic always runs on the lane of its hash
+ * writes of one topic run one after the other in the order they were handed in,
+ * writes of topics on different lanes run in parallel without sharing a lock
+ *
+ * @author huskar-t
+ */
+public class LaneExecutor {
+    private static final long CLOSE_TIMEOUT_MS = 10000;
+
+    private final ExecutorService[] lanes;
+
+    /**
+     * @param count 通道数
+     */
+    public LaneExecutor(int count) {
+        this.lanes = new ExecutorService[Math.max(1, count)];
+        for (int i = 0; i < this.lanes.length; i++) {
+            final String name = "tdengine-lane-" + i;
+            this.lanes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @param topic 主题
+     * @return the lane of the topic
+     */
+    public Executor lane(String topic) {
+        return this.lanes.length == 1 ? this.lanes[0] : this.lanes[Math.floorMod(EndpointRing.hash(topic), this.lanes.length)];
+    }
+
+    public int size() {
+        return this.lanes.length;
+    }
+
+    /**
+     * finish the writes already handed in
+     */
+    public void close() {
+        for (ExecutorService lane : this.lanes) {
+            lane.shutdown();
+        }
+        final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+        for (ExecutorService lane : this.lanes) {
+            try {
+                lane.awaitTermination(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
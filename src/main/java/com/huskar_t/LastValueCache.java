@@ -0,0 +1,202 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LastValueCache}
+ * the hot tier of the history replayed to new subscribers, see {@link HistoryInterceptor}
+ * every topic of the history section keeps a ring of its last count publishes, filled by {@link TDengine#remember}
+ * once their rows were written or spooled, the topics are a bounded LRU map so the least recently used ones make room
+ * a ring is complete once it is full or was merged with the rows of the database by {@link HistoryLoader},
+ * only complete rings answer without the database, a topic first seen after a restart may have older rows there
+ * timestamps are epoch milliseconds, payloads are heap copies
+ *
+ * @author huskar-t
+ */
+public class LastValueCache {
+
+    /**
+     * the last values of one topic, oldest first starting at next once the ring is full
+     */
+    private static final class Ring {
+        private final Row[] rows;
+        private int next;
+        private int size;
+        private boolean complete;
+
+        private Ring(int count) {
+            this.rows = new Row[count];
+        }
+
+        private void add(Row row) {
+            this.rows[this.next] = row;
+            this.next = (this.next + 1) % this.rows.length;
+            if (this.size < this.rows.length) {
+                this.size++;
+            }
+            if (this.size == this.rows.length) {
+                this.complete = true;
+            }
+        }
+
+        /**
+         * @param since rows before are left out
+         */
+        private List<Row> rows(long since) {
+            final List<Row> rows = new ArrayList<>(this.size);
+            final int first = this.size < this.rows.length ? 0 : this.next;
+            for (int i = 0; i < this.size; i++) {
+                final Row row = this.rows[(first + i) % this.rows.length];
+                if (row.getTimestamp() >= since) {
+                    rows.add(row);
+                }
+            }
+            return rows;
+        }
+    }
+
+    private final TopicTrie<Boolean> topics = new TopicTrie<>();
+    private final int count;
+    private final long maxAgeMs;
+    private final Map<String, Ring> rings;
+
+    /**
+     * @param config history 配置
+     */
+    public LastValueCache(HistoryConfig config) {
+        for (String filter : config.getTopics()) {
+            this.topics.add(filter, Boolean.TRUE);
+        }
+        this.count = config.getCount();
+        this.maxAgeMs = config.getMaxAgeMs();
+        final int capacity = config.getCapacity();
+        this.rings = new LinkedHashMap<String, Ring>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+                return this.size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param topic 主题
+     * @return true if the history of the topic is kept
+     */
+    public boolean matches(String topic) {
+        return this.topics.matches(topic);
+    }
+
+    /**
+     * @param topic     主题
+     * @param timestamp epoch milliseconds
+     * @param payload   消息内容, copied, its position is not moved
+     */
+    public void add(String topic, long timestamp, ByteBuffer payload) {
+        if (!this.matches(topic)) {
+            return;
+        }
+        final Row row = new Row(timestamp, topic, Util.copyOf(payload));
+        synchronized (this) {
+            this.rings.computeIfAbsent(topic, key -> new Ring(this.count)).add(row);
+        }
+    }
+
+    /**
+     * @param topic   主题
+     * @param now     epoch milliseconds, values older than maxAgeMs before are left out
+     * @param partial true to answer whatever is cached even if the database may have more
+     * @return values oldest first, null if the topic is not cached or its ring is not complete and partial is false
+     */
+    public synchronized @Nullable List<Row> get(String topic, long now, boolean partial) {
+        final Ring ring = this.rings.get(topic);
+        if (ring == null) {
+            return partial ? Collections.emptyList() : null;
+        }
+        if (!ring.complete && !partial) {
+            return null;
+        }
+        return ring.rows(this.since(now));
+    }
+
+    /**
+     * @param filter 订阅过滤器
+     * @return cached topics matching the filter, the cache does not know topics it has not seen
+     */
+    public synchronized List<String> topics(String filter) {
+        final List<String> topics = new ArrayList<>();
+        for (String topic : this.rings.keySet()) {
+            if (Util.matchesTopicFilter(filter, topic)) {
+                topics.add(topic);
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * merge the rows of the database older than the cached ones into the ring of the topic, which makes it complete,
+     * the rows must be the newest count of the topic, fewer only if the database has no more
+     *
+     * @param topic 主题
+     * @param rows  rows of the database oldest first, timestamps in epoch milliseconds
+     */
+    public synchronized void load(String topic, List<Row> rows) {
+        final Ring ring = this.rings.get(topic);
+        final List<Row> cached = ring == null ? Collections.emptyList() : ring.rows(Long.MIN_VALUE);
+        // the newest rows of the database may also be in the ring already
+        final long oldest = cached.isEmpty() ? Long.MAX_VALUE : cached.get(0).getTimestamp();
+        final Ring merged = new Ring(this.count);
+        for (Row row : rows) {
+            if (row.getTimestamp() < oldest) {
+                merged.add(row);
+            }
+        }
+        for (Row row : cached) {
+            merged.add(row);
+        }
+        merged.complete = true;
+        this.rings.put(topic, merged);
+    }
+
+    /**
+     * @param now epoch milliseconds
+     * @return oldest timestamp still replayed, Long.MIN_VALUE without maxAgeMs
+     */
+    public long since(long now) {
+        return this.maxAgeMs == 0 ? Long.MIN_VALUE : now - this.maxAgeMs;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return cached topics
+     */
+    public synchronized int size() {
+        return this.rings.size();
+    }
+}
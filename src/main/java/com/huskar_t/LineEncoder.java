@@ -0,0 +1,287 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link LineEncoder}
+ * renders publishes as InfluxDB line protocol for the schemaless insert of TDengine:
+ * measurement,tag=value,... field=value,... timestamp
+ * measurement and tag values are templates over the topic, {topic} is the whole topic and {n} its level n counted from 0
+ * fields come from JSON payloads, a payload without any of them (or no fields configured) is written as one nchar field
+ * a TIMESTAMP field named ts replaces the timestamp of the line, its epoch milliseconds converted to the database precision
+ * line breaks inside string fields are written as the two characters \n (\r) since a line break ends the line
+ * TDengine creates a super table per measurement and a subtable per tag set, no schema has to exist beforehand
+ *
+ * @author huskar-t
+ */
+public class LineEncoder {
+    private static final String TIMESTAMP_FIELD = "ts";
+    private static final String DEFAULT_MEASUREMENT = "mqtt";
+    private static final int TOPIC = -1;
+
+    /**
+     * literal parts and topic levels, a level of {@link #TOPIC} is the whole topic
+     */
+    static final class Template {
+        private final List<String> literals = new ArrayList<>();
+        private final List<Integer> levels = new ArrayList<>();
+
+        Template(String template) {
+            int start = 0;
+            StringBuilder literal = new StringBuilder();
+            while (start < template.length()) {
+                final int open = template.indexOf('{', start);
+                final int close = open < 0 ? -1 : template.indexOf('}', open);
+                if (close < 0) {
+                    literal.append(template, start, template.length());
+                    break;
+                }
+                final String name = template.substring(open + 1, close);
+                final Integer level = "topic".equals(name) ? Integer.valueOf(TOPIC) : parseLevel(name);
+                literal.append(template, start, level == null ? close + 1 : open);
+                if (level != null) {
+                    this.literals.add(literal.toString());
+                    this.levels.add(level);
+                    literal = new StringBuilder();
+                }
+                start = close + 1;
+            }
+            this.literals.add(literal.toString());
+        }
+
+        private static Integer parseLevel(String name) {
+            try {
+                final int level = Integer.parseInt(name);
+                return level < 0 ? null : level;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @param escape characters escaped with a backslash
+         */
+        void append(StringBuilder out, String topic, String escape) {
+            for (int i = 0; i < this.levels.size(); i++) {
+                LineEncoder.escape(out, this.literals.get(i), escape);
+                final int level = this.levels.get(i);
+                if (level == TOPIC) {
+                    LineEncoder.escape(out, topic, escape);
+                } else {
+                    appendLevel(out, topic, level, escape);
+                }
+            }
+            LineEncoder.escape(out, this.literals.get(this.levels.size()), escape);
+        }
+
+        private static void appendLevel(StringBuilder out, String topic, int level, String escape) {
+            int start = 0;
+            for (int i = 0; i < level; i++) {
+                start = topic.indexOf('/', start) + 1;
+                if (start == 0) {
+                    return;
+                }
+            }
+            final int end = topic.indexOf('/', start);
+            LineEncoder.escape(out, topic.substring(start, end < 0 ? topic.length() : end), escape);
+        }
+    }
+
+    private static final String MEASUREMENT_ESCAPE = ", ";
+    private static final String KEY_ESCAPE = ",= ";
+
+    private final Template measurement;
+    private final List<String> tagNames = new ArrayList<>();
+    private final List<Template> tagValues = new ArrayList<>();
+    private final List<SchemalessConfig.Field> fields;
+    private final JsonExtractor extractor;
+    private final String payloadField;
+    private final Charset charset;
+    private final TimestampConfig.Precision precision;
+
+    /**
+     * @param config       schemaless 配置
+     * @param payloadField field of payloads without mapped fields
+     * @param charset      payload 编码
+     * @param precision    数据库时间精度, the precision of the lines
+     */
+    public LineEncoder(SchemalessConfig config, String payloadField, Charset charset, TimestampConfig.Precision precision) {
+        this.measurement = new Template(config.getMeasurement());
+        for (SchemalessConfig.Tag tag : config.getTags()) {
+            this.tagNames.add(tag.getName());
+            this.tagValues.add(new Template(tag.getValue()));
+        }
+        this.fields = config.getFields();
+        final List<String> paths = new ArrayList<>();
+        final List<JsonMapping.ColumnType> types = new ArrayList<>();
+        for (SchemalessConfig.Field field : this.fields) {
+            paths.add(field.getPath());
+            types.add(field.getType());
+        }
+        this.extractor = this.fields.isEmpty() ? null : new JsonExtractor(paths, types, false);
+        this.payloadField = payloadField;
+        this.charset = charset;
+        this.precision = precision;
+    }
+
+    /**
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   消息内容
+     * @return one line
+     */
+    public String encode(long timestamp, String topic, String payload) {
+        final StringBuilder line = new StringBuilder(64 + topic.length() + payload.length());
+        this.append(line, timestamp, topic, payload);
+        return line.toString();
+    }
+
+    /**
+     * @param rows 待写入的数据
+     * @return one line per row
+     */
+    public List<String> encode(List<Row> rows) {
+        final List<String> lines = new ArrayList<>(rows.size());
+        final StringBuilder line = new StringBuilder(256);
+        for (Row row : rows) {
+            line.setLength(0);
+            this.append(line, row.getTimestamp(), row.getTopic(), Util.getStringFromByteBuffer(row.getPayload(), this.charset));
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private void append(StringBuilder line, long timestamp, String topic, String payload) {
+        final int start = line.length();
+        this.measurement.append(line, topic, MEASUREMENT_ESCAPE);
+        if (line.length() == start) {
+            line.append(DEFAULT_MEASUREMENT);
+        }
+        for (int i = 0; i < this.tagNames.size(); i++) {
+            final int tagStart = line.length();
+            line.append(',');
+            escape(line, this.tagNames.get(i), KEY_ESCAPE);
+            line.append('=');
+            final int valueStart = line.length();
+            this.tagValues.get(i).append(line, topic, KEY_ESCAPE);
+            if (line.length() == valueStart) {
+                // empty tag values are not allowed, a missing level leaves the tag out
+                line.setLength(tagStart);
+            }
+        }
+        line.append(' ');
+        timestamp = this.appendFields(line, timestamp, payload);
+        line.append(' ').append(timestamp);
+    }
+
+    /**
+     * @return the timestamp, replaced by a TIMESTAMP field named ts if the payload has one
+     */
+    private long appendFields(StringBuilder line, long timestamp, String payload) {
+        final int start = line.length();
+        final String[] literals = this.extractor == null ? null : new String[this.fields.size()];
+        if (literals != null && this.extractor.extract(payload, literals)) {
+            for (int i = 0; i < literals.length; i++) {
+                final String literal = literals[i];
+                if (literal == null) {
+                    continue;
+                }
+                final SchemalessConfig.Field field = this.fields.get(i);
+                if (field.getType() == JsonMapping.ColumnType.TIMESTAMP && TIMESTAMP_FIELD.equals(field.getName())) {
+                    try {
+                        timestamp = this.precision.fromMillis(Long.parseLong(literal));
+                    } catch (NumberFormatException ignored) {
+                        // keep the receive time
+                    }
+                    continue;
+                }
+                if (line.length() > start) {
+                    line.append(',');
+                }
+                escape(line, field.getName(), KEY_ESCAPE);
+                line.append('=');
+                switch (field.getType()) {
+                    case DOUBLE:
+                        line.append(literal).append("f64");
+                        break;
+                    case INT:
+                        line.append(literal).append("i32");
+                        break;
+                    case BIGINT:
+                    case TIMESTAMP:
+                        line.append(literal).append("i64");
+                        break;
+                    case BOOL:
+                        line.append(literal);
+                        break;
+                    case BINARY:
+                        line.append('"');
+                        escapeString(line, literal);
+                        line.append('"');
+                        break;
+                    default:
+                        line.append("L\"");
+                        escapeString(line, literal);
+                        line.append('"');
+                        break;
+                }
+            }
+        }
+        if (line.length() == start) {
+            escape(line, this.payloadField, KEY_ESCAPE);
+            line.append("=L\"");
+            escapeString(line, payload);
+            line.append('"');
+        }
+        return timestamp;
+    }
+
+    private static void escapeString(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    out.append('\\').append(c);
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    static void escape(StringBuilder out, String value, String escape) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (escape.indexOf(c) >= 0) {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementBoolean;
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link OverloadConfig}
+ * the "overload" section of tdengine.xml, how long a publish waits for its write and what happens when it can not
+ */
+public class OverloadConfig {
+    private static final long MIN_TIMEOUT_MS = 1000;
+
+    private long timeoutMs;
+    private TDengineInterceptor.Fallback fallback;
+    private boolean limiter;
+    private int initialLimit;
+    private int minLimit;
+    private int maxLimit;
+    private double tolerance;
+    private boolean breaker;
+    private int breakerFailures;
+    private long breakerOpenMs;
+
+    /**
+     * @param element overload 配置节点,为空时使用默认值
+     */
+    public OverloadConfig(Element element) {
+        this.setTimeoutMs(elementLong(element, "timeoutMs", 10000));
+        this.setFallback(TDengineInterceptor.Fallback.parse(elementText(element, "fallback", "drop")));
+        this.setLimiter(elementBoolean(element, "limiter", false));
+        this.setInitialLimit(elementInt(element, "initialLimit", 20));
+        this.setMinLimit(elementInt(element, "minLimit", 1));
+        this.setMaxLimit(elementInt(element, "maxLimit", 200));
+        this.setTolerance(Double.parseDouble(elementText(element, "tolerance", "2.0")));
+        this.setBreaker(elementBoolean(element, "breaker", false));
+        this.setBreakerFailures(elementInt(element, "breakerFailures", 5));
+        this.setBreakerOpenMs(elementLong(element, "breakerOpenMs", 5000));
+    }
+
+    /**
+     * @return how long a publish waits for its write before the fallback applies, HiveMQ needs at least a second
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        if (timeoutMs < MIN_TIMEOUT_MS) {
+            timeoutMs = MIN_TIMEOUT_MS;
+        }
+        this.timeoutMs = timeoutMs;
+    }
+
+    public TDengineInterceptor.Fallback getFallback() {
+        return fallback;
+    }
+
+    public void setFallback(TDengineInterceptor.Fallback fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * @return limit the writes in flight with {@link ConcurrencyLimiter}
+     */
+    public boolean isLimiter() {
+        return limiter;
+    }
+
+    public void setLimiter(boolean limiter) {
+        this.limiter = limiter;
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+        if (minLimit < 1) {
+            minLimit = 1;
+        }
+        this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        if (maxLimit < 1) {
+            maxLimit = 1;
+        }
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @return a write slower than this multiple of the lowest recent latency shrinks the limit
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        if (tolerance < 1) {
+            tolerance = 1;
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @return stop writing for breakerOpenMs after breakerFailures failed requests in a row
+     */
+    public boolean isBreaker() {
+        return breaker;
+    }
+
+    public void setBreaker(boolean breaker) {
+        this.breaker = breaker;
+    }
+
+    public int getBreakerFailures() {
+        return breakerFailures;
+    }
+
+    public void setBreakerFailures(int breakerFailures) {
+        if (breakerFailures < 1) {
+            breakerFailures = 1;
+        }
+        this.breakerFailures = breakerFailures;
+    }
+
+    public long getBreakerOpenMs() {
+        return breakerOpenMs;
+    }
+
+    public void setBreakerOpenMs(long breakerOpenMs) {
+        if (breakerOpenMs < 1) {
+            breakerOpenMs = 1;
+        }
+        this.breakerOpenMs = breakerOpenMs;
+    }
+}
@@ -0,0 +1,369 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link PayloadTable}
+ * a table that stores topic and payload strings, either the flat table (ts, topic, payload)
+ * or with stable enabled a super table (ts, payload) with one subtable per topic
+ * renders the insert statements for it
+ * the payload is stored as text decoded with the charset of the table, or with encoding hex / base64 as the raw bytes
+ * in a BINARY column, those go from the publish straight into the statement and never fail to parse
+ *
+ * @author huskar-t
+ */
+public class PayloadTable {
+    private static final Logger log = LoggerFactory.getLogger(PayloadTable.class);
+    /**
+     * digits of the longest timestamp
+     */
+    private static final int TIMESTAMP_LENGTH = 20;
+    private static final int MD5_LENGTH = 32;
+    /**
+     * selects TDengine joins with union all at most
+     */
+    public static final int MAX_UNION = 100;
+
+    /**
+     * how the payload bytes are stored
+     */
+    public enum Encoding {
+        /**
+         * decoded with the charset of the table into an NCHAR column, retried as base64 if TDengine rejects it
+         */
+        TEXT,
+        /**
+         * two hex digits per byte in a BINARY column
+         */
+        HEX,
+        /**
+         * base64 in a BINARY column, like the retry of text but without the failed first attempt
+         */
+        BASE64;
+
+        public static Encoding parse(String value) {
+            switch (value.toLowerCase()) {
+                case "text":
+                    return TEXT;
+                case "hex":
+                    return HEX;
+                case "base64":
+                    return BASE64;
+                default:
+                    log.error("payload encoding {} unsupported using text", value);
+                    return TEXT;
+            }
+        }
+    }
+
+    private final String db;
+    private final String table;
+    private final String series;
+    private final SqlEncoder encoder;
+    private final SubtableCache subtables;
+    private final Charset charset;
+    private final Encoding encoding;
+    private final int rowOverhead;
+    private final int clauseOverhead;
+
+    /**
+     * @param db      数据库名
+     * @param table   表名
+     * @param charset payload 编码
+     * @param stable  超级表配置
+     */
+    public PayloadTable(String db, String table, Charset charset, STableConfig stable) {
+        this(db, table, charset, Encoding.TEXT, stable);
+    }
+
+    /**
+     * @param db       数据库名
+     * @param table    表名
+     * @param charset  payload 编码, used by text
+     * @param encoding 存储方式
+     * @param stable   超级表配置
+     */
+    public PayloadTable(String db, String table, Charset charset, Encoding encoding, STableConfig stable) {
+        this.db = db;
+        this.table = table;
+        this.series = db + "." + table;
+        this.charset = charset;
+        this.encoding = encoding;
+        if (stable.isEnable()) {
+            this.subtables = new SubtableCache(db, table, stable.getSubtablePrefix(), stable.getCacheSize());
+            this.encoder = new SqlEncoder("insert into", " (%s,'%s')", charset, encoding);
+            this.rowOverhead = " (,'')".length() + TIMESTAMP_LENGTH;
+            // " db.prefix<md5> using db.stable tags ('topic') values" before the rows of a topic
+            this.clauseOverhead = String.format(" %s.%s using %s.%s tags ('') values", db, stable.getSubtablePrefix(), db, table).length() + MD5_LENGTH;
+        } else {
+            this.subtables = null;
+            this.encoder = new SqlEncoder(String.format("import into %s.%s values", db, table), " (%s,'%s','%s')", charset, encoding);
+            this.rowOverhead = " (,'','')".length() + TIMESTAMP_LENGTH;
+            this.clauseOverhead = 0;
+        }
+    }
+
+    public String getDb() {
+        return db;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public SqlEncoder getEncoder() {
+        return encoder;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return true if payloads are stored as raw bytes (hex or base64) and are never decoded
+     */
+    public boolean isRaw() {
+        return this.encoding != Encoding.TEXT;
+    }
+
+    /**
+     * @param payload payload, its position is not moved
+     * @return the payload as stored in the payload column
+     */
+    public String text(ByteBuffer payload) {
+        switch (this.encoding) {
+            case HEX:
+                return Util.hex(payload);
+            case BASE64:
+                final char[] chars = new char[Util.base64Length(payload.remaining())];
+                Util.base64(payload, chars, 0);
+                return new String(chars);
+            default:
+                return Util.getStringFromByteBuffer(payload, this.charset);
+        }
+    }
+
+    /**
+     * the size batches are cut by, so a hex batch is not twice as long as maxBytes and the statement stays within
+     * maxSQLLength of TDengine
+     *
+     * @param topic   主题
+     * @param payload payload, its position is not moved
+     * @param grouped true if the row follows one of the same topic, with stable enabled it shares the table clause
+     * @return approximate length of the row in the rendered insert statement, hex and base64 as encoded, text with
+     * its escapes, and with stable enabled the "using" clause of the subtable unless grouped
+     */
+    public int estimateSize(String topic, ByteBuffer payload, boolean grouped) {
+        int size = this.rowOverhead;
+        switch (this.encoding) {
+            case HEX:
+                size += payload.remaining() * 2;
+                break;
+            case BASE64:
+                size += Util.base64Length(payload.remaining());
+                break;
+            default:
+                // escaped ' and \ counted by byte, exact for UTF-8, a few too many for charsets like GBK
+                size += payload.remaining();
+                for (int i = payload.position(); i < payload.limit(); i++) {
+                    final byte b = payload.get(i);
+                    if (b == '\'' || b == '\\') {
+                        size++;
+                    }
+                }
+                break;
+        }
+        if (this.subtables == null) {
+            size += escapedLength(topic);
+        } else if (!grouped) {
+            size += this.clauseOverhead + escapedLength(topic);
+        }
+        return size;
+    }
+
+    private static int escapedLength(String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\'' || c == '\\') {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @param stored value of the payload column
+     * @return the payload bytes, the reverse of {@link #text(ByteBuffer)}
+     * @throws IllegalArgumentException the value is not valid hex or base64
+     */
+    public ByteBuffer payloadOf(String stored) {
+        switch (this.encoding) {
+            case HEX:
+                return ByteBuffer.wrap(Util.unhex(stored));
+            case BASE64:
+                return ByteBuffer.wrap(Base64.getDecoder().decode(stored));
+            default:
+                return ByteBuffer.wrap(stored.getBytes(this.charset));
+        }
+    }
+
+    /**
+     * one query for the recent rows of many topics, a select per topic joined with union all so every topic gets
+     * its own limit and a busy topic does not crowd out the others,
+     * filtered by tbname with stable enabled or by the topic column
+     *
+     * @param topicColumn   主题列名
+     * @param payloadColumn 消息内容列名
+     * @param topics        主题, TDengine takes {@link #MAX_UNION} at most
+     * @param since         oldest timestamp in database precision, Long.MIN_VALUE for no limit
+     * @param limit         rows per topic at most
+     * @return (ts, topic, payload) newest first per topic
+     */
+    public String historySql(String topicColumn, String payloadColumn, List<String> topics, long since, int limit) {
+        final StringBuilder sql = new StringBuilder();
+        for (String topic : topics) {
+            if (sql.length() > 0) {
+                sql.append(" union all ");
+            }
+            sql.append("select ts, ").append(topicColumn).append(", ").append(payloadColumn)
+                    .append(" from ").append(this.series).append(" where ")
+                    .append(this.subtables == null ? topicColumn : "tbname").append(" = '")
+                    // the name is derived, the subtable cache of the writes is not touched
+                    .append(this.subtables == null ? SqlEncoder.escape(topic) : this.subtables.name(topic))
+                    .append('\'');
+            if (since != Long.MIN_VALUE) {
+                sql.append(" and ts >= ").append(since);
+            }
+            sql.append(" order by ts desc limit ").append(limit);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * @return true if the table is a super table with one subtable per topic
+     */
+    public boolean isStable() {
+        return this.subtables != null;
+    }
+
+    /**
+     * @return "db.table" of the flat table, or "db.subtable" of the topic with stable enabled
+     */
+    public String tableOf(String topic) {
+        return this.subtables == null ? this.series : this.subtables.table(topic);
+    }
+
+    /**
+     * @return key of the {@link SeriesClock} series the rows of the topic belong to, the table or the subtable of the topic
+     */
+    public String series(String topic) {
+        return this.subtables == null ? this.series : topic;
+    }
+
+    /**
+     * @return the flat table (ts, topic, payload), or with stable enabled the super table (ts, payload) tagged by topic
+     */
+    public String createTableSql(String topicColumn, String payloadColumn, int maxlength) {
+        if (this.subtables != null) {
+            return String.format(
+                    "create stable if not exists %s.%s (ts timestamp, %s %s) tags (%s NCHAR(%d))",
+                    this.db,
+                    this.table,
+                    payloadColumn,
+                    this.payloadType(maxlength),
+                    topicColumn,
+                    maxlength);
+        }
+        return String.format(
+                "create table if not exists %s.%s (ts timestamp, %s NCHAR(%d), %s %s)",
+                this.db,
+                this.table,
+                topicColumn,
+                maxlength,
+                payloadColumn,
+                this.payloadType(maxlength));
+    }
+
+    private String payloadType(int maxlength) {
+        return (this.isRaw() ? "BINARY(" : "NCHAR(") + this.payloadLength(maxlength) + ")";
+    }
+
+    /**
+     * @param maxlength payload length, in bytes for hex and base64
+     * @return length of the payload column, hex and base64 take more characters than bytes
+     */
+    public int payloadLength(int maxlength) {
+        switch (this.encoding) {
+            case HEX:
+                return maxlength * 2;
+            case BASE64:
+                return Util.base64Length(maxlength);
+            default:
+                return maxlength;
+        }
+    }
+
+    public String renderRow(String timestamp, String topic, String payload) {
+        if (this.subtables == null) {
+            return this.encoder.encode(timestamp, topic, payload);
+        }
+        return this.encoder.encodeInto(this.subtables.clause(topic), timestamp, payload);
+    }
+
+    /**
+     * @param row the payload is encoded straight from its bytes, for hex and base64 tables
+     */
+    public String renderRow(Row row) {
+        return this.renderRows(Collections.singletonList(row));
+    }
+
+    public String renderRows(List<Row> rows) {
+        if (this.subtables == null) {
+            return this.encoder.encode(rows);
+        }
+        return this.encoder.encodeInto(rows, this.subtables::clause);
+    }
+
+    /**
+     * remember whether the subtable of the topic exists, so the "using" clause is only sent when needed
+     */
+    public void written(String topic, boolean success) {
+        if (this.subtables == null) {
+            return;
+        }
+        if (success) {
+            this.subtables.markCreated(topic);
+        } else {
+            this.subtables.invalidate(topic);
+        }
+    }
+}
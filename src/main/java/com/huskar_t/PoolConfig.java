@@ -0,0 +1,89 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementBoolean;
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+
+/**
+ * {@link PoolConfig}
+ * the "pool" section of tdengine.xml, only used with sdk
+ */
+public class PoolConfig {
+    private int size;
+    private long borrowTimeoutMs;
+    private long validateIdleMs;
+    private boolean stmt;
+
+    /**
+     * @param element pool 配置节点,为空时使用默认值
+     */
+    public PoolConfig(Element element) {
+        this.setSize(elementInt(element, "size", Runtime.getRuntime().availableProcessors()));
+        this.setBorrowTimeoutMs(elementLong(element, "borrowTimeoutMs", 5000));
+        this.setValidateIdleMs(elementLong(element, "validateIdleMs", 30000));
+        this.setStmt(elementBoolean(element, "stmt", false));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        if (size < 1) {
+            size = 1;
+        }
+        this.size = size;
+    }
+
+    public long getBorrowTimeoutMs() {
+        return borrowTimeoutMs;
+    }
+
+    public void setBorrowTimeoutMs(long borrowTimeoutMs) {
+        if (borrowTimeoutMs < 0) {
+            borrowTimeoutMs = 0;
+        }
+        this.borrowTimeoutMs = borrowTimeoutMs;
+    }
+
+    public long getValidateIdleMs() {
+        return validateIdleMs;
+    }
+
+    public void setValidateIdleMs(long validateIdleMs) {
+        if (validateIdleMs < 0) {
+            validateIdleMs = 0;
+        }
+        this.validateIdleMs = validateIdleMs;
+    }
+
+    /**
+     * @return write rows of payload tables with parameter binding instead of sql text
+     */
+    public boolean isStmt() {
+        return stmt;
+    }
+
+    public void setStmt(boolean stmt) {
+        this.stmt = stmt;
+    }
+}
@@ -0,0 +1,93 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link Row}
+ * one pending record waiting in the {@link BatchWriter} queue
+ * the rows of a {@link StagingBuffer} are views into its arena that are reused once the buffer was flushed
+ */
+public class Row {
+    /**
+     * length rows add to the rendered insert statement, batches stop at maxBytes of it
+     */
+    public interface Sizer {
+        /**
+         * raw payload bytes, for rows not written as a payload table
+         */
+        Sizer RAW = (topic, payload, grouped) -> estimateSize(topic, payload.remaining());
+
+        /**
+         * @param topic   主题
+         * @param payload 消息内容, its position is not moved
+         * @param grouped true if the row follows one of the same topic and shares its table clause
+         * @return approximate length of the row in the rendered insert statement
+         */
+        int size(String topic, ByteBuffer payload, boolean grouped);
+    }
+
+    /**
+     * fixed cost of the "(ts,'','')" wrapper of one row in the values clause
+     */
+    private static final int ROW_OVERHEAD = 24;
+    private long timestamp;
+    private String topic;
+    private final ByteBuffer payload;
+
+    /**
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   undecoded payload, it must not change while the row is queued
+     */
+    public Row(long timestamp, String topic, ByteBuffer payload) {
+        this.timestamp = timestamp;
+        this.topic = topic;
+        this.payload = payload;
+    }
+
+    /**
+     * point a view of {@link StagingBuffer} at another row, its payload is moved by the buffer
+     */
+    void reset(long timestamp, String topic) {
+        this.timestamp = timestamp;
+        this.topic = topic;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    /**
+     * @param topic  主题
+     * @param length payload 字节数
+     * @return approximate length of such a row, escaping and encodings left out, see {@link PayloadTable#estimateSize}
+     */
+    public static int estimateSize(String topic, int length) {
+        return ROW_OVERHEAD + topic.length() + length;
+    }
+}
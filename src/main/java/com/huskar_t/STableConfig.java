@@ -0,0 +1,76 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementBoolean;
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link STableConfig}
+ * the "stable" section of tdengine.xml
+ */
+public class STableConfig {
+    private boolean enable;
+    private String subtablePrefix;
+    private int cacheSize;
+
+    /**
+     * @param element stable 配置节点,为空时使用默认值
+     */
+    public STableConfig(Element element) {
+        this.setEnable(elementBoolean(element, "enable", false));
+        this.setSubtablePrefix(elementText(element, "subtablePrefix", "t_"));
+        this.setCacheSize(elementInt(element, "cacheSize", 10000));
+    }
+
+    /**
+     * @return true to write into one subtable per topic of the super table named by "table"
+     */
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public void setEnable(boolean enable) {
+        this.enable = enable;
+    }
+
+    public String getSubtablePrefix() {
+        return subtablePrefix;
+    }
+
+    public void setSubtablePrefix(String subtablePrefix) {
+        this.subtablePrefix = subtablePrefix;
+    }
+
+    /**
+     * @return number of topics whose subtable names are kept in memory
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize < 1) {
+            cacheSize = 1;
+        }
+        this.cacheSize = cacheSize;
+    }
+}
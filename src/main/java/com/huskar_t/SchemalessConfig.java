@@ -0,0 +1,167 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link SchemalessConfig}
+ * the "schemaless" section of tdengine.xml, only used with type schemaless
+ */
+public class SchemalessConfig {
+
+    /**
+     * how lines are sent to TDengine
+     */
+    public enum Transport {
+        /**
+         * REST /influxdb/v1/write of taosAdapter
+         */
+        HTTP,
+        /**
+         * SchemalessWriter of the jdbc driver
+         */
+        SDK;
+
+        public static Transport parse(String value) {
+            return "sdk".equalsIgnoreCase(value) ? SDK : HTTP;
+        }
+    }
+
+    /**
+     * a tag and the template of its value
+     */
+    public static final class Tag {
+        private final String name;
+        private final String value;
+
+        public Tag(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * a field and the JSON path of its value
+     */
+    public static final class Field {
+        private final String name;
+        private final String path;
+        private final JsonMapping.ColumnType type;
+
+        public Field(String name, String path, JsonMapping.ColumnType type) {
+            this.name = name;
+            this.path = path;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public JsonMapping.ColumnType getType() {
+            return type;
+        }
+    }
+
+    private Transport transport;
+    private String measurement;
+    private final List<Tag> tags = new ArrayList<>();
+    private final List<Field> fields = new ArrayList<>();
+
+    /**
+     * @param element      schemaless 配置节点,为空时使用默认值
+     * @param table        default measurement
+     * @param topicColumn  name of the default topic tag
+     * @throws Exception tag 或 field 缺少 name
+     */
+    public SchemalessConfig(Element element, String table, String topicColumn) throws Exception {
+        this.setTransport(Transport.parse(elementText(element, "transport", "http")));
+        this.setMeasurement(elementText(element, "measurement", table));
+        final Element tagsElement = element == null ? null : element.element("tags");
+        if (tagsElement != null) {
+            for (Element tag : tagsElement.elements("tag")) {
+                final String name = elementText(tag, "name", "");
+                if (name.equals("")) {
+                    throw new Exception("schemaless tag requires name");
+                }
+                this.tags.add(new Tag(name, elementText(tag, "value", "{topic}")));
+            }
+        }
+        if (this.tags.isEmpty()) {
+            this.tags.add(new Tag(topicColumn, "{topic}"));
+        }
+        final Element fieldsElement = element == null ? null : element.element("fields");
+        if (fieldsElement != null) {
+            for (Element field : fieldsElement.elements("field")) {
+                final String name = elementText(field, "name", "");
+                if (name.equals("")) {
+                    throw new Exception("schemaless field requires name");
+                }
+                this.fields.add(new Field(name, elementText(field, "path", name), JsonMapping.ColumnType.parse(elementText(field, "type", "DOUBLE"))));
+            }
+        }
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return template of the measurement, {topic} is the topic and {n} its level n counted from 0
+     */
+    public String getMeasurement() {
+        return measurement;
+    }
+
+    public void setMeasurement(String measurement) {
+        this.measurement = measurement;
+    }
+
+    public List<Tag> getTags() {
+        return tags;
+    }
+
+    /**
+     * @return fields taken from JSON payloads, empty to write the payload string as one field
+     */
+    public List<Field> getFields() {
+        return fields;
+    }
+}
@@ -0,0 +1,132 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SeriesClock}
+ * hands out strictly increasing timestamps per series (a table, or a subtable of a super table),
+ * a timestamp equal to or before the last one of its series is moved to the last one plus one unit,
+ * so rows arriving within the same millisecond don't overwrite each other
+ * a series never runs more than maxDrift ahead of the arrival time, beyond that rows share the timestamp and a warning
+ * is logged, with us or ns precision the moved rows stay within the millisecond they arrived in
+ * lock free, each series is an AtomicLong updated with compare and set; once there are more series than capacity
+ * one thread forgets the least recently used ones, those with the oldest last timestamp, until an eighth is free again
+ *
+ * @author huskar-t
+ */
+public class SeriesClock {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(SeriesClock.class);
+
+    /**
+     * the last timestamp of one series
+     */
+    private static final class Series {
+        private final AtomicLong last = new AtomicLong(Long.MIN_VALUE);
+        private volatile boolean drifted;
+    }
+
+    private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final int capacity;
+    private final long maxDrift;
+
+    /**
+     * @param capacity series kept, the least recently used ones are forgotten beyond
+     * @param maxDrift how far a series may be moved ahead of the arrival time, in database precision
+     */
+    public SeriesClock(int capacity, long maxDrift) {
+        this.capacity = capacity;
+        this.maxDrift = maxDrift;
+    }
+
+    /**
+     * @param key       series
+     * @param timestamp 时间戳
+     * @return the timestamp, or the last one of the series plus one if it is not after it, at most timestamp plus maxDrift
+     */
+    public long next(String key, long timestamp) {
+        Series series = this.series.get(key);
+        final boolean added = series == null;
+        if (added) {
+            series = this.series.computeIfAbsent(key, k -> new Series());
+        }
+        final long next = this.next(key, series, timestamp);
+        if (added && this.series.size() > this.capacity) {
+            this.evict();
+        }
+        return next;
+    }
+
+    private long next(String key, Series series, long timestamp) {
+        while (true) {
+            final long last = series.last.get();
+            if (timestamp > last) {
+                if (series.last.compareAndSet(last, timestamp)) {
+                    if (series.drifted) {
+                        series.drifted = false;
+                    }
+                    return timestamp;
+                }
+            } else if (last - timestamp < this.maxDrift) {
+                if (series.last.compareAndSet(last, last + 1)) {
+                    return last + 1;
+                }
+            } else {
+                if (!series.drifted) {
+                    series.drifted = true;
+                    log.warn("timestamps of series {} are {} units ahead of the arrival time, rows share timestamps until the rate drops, "
+                            + "a finer precision keeps them apart", key, this.maxDrift);
+                }
+                return timestamp + this.maxDrift;
+            }
+        }
+    }
+
+    /**
+     * forget the series with the oldest last timestamps, the others keep moving meanwhile
+     */
+    private void evict() {
+        if (!this.evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final long[] lasts = this.series.values().stream().mapToLong(series -> series.last.get()).sorted().toArray();
+            final int keep = this.capacity - this.capacity / 8;
+            if (lasts.length <= keep) {
+                return;
+            }
+            final long cutoff = lasts[lasts.length - keep - 1];
+            this.series.values().removeIf(series -> series.last.get() <= cutoff);
+        } finally {
+            this.evicting.set(false);
+        }
+    }
+
+    public int size() {
+        return this.series.size();
+    }
+}
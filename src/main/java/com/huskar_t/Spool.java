@@ -0,0 +1,365 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Spool}
+ * append-only on-disk log for rows that could not be written to TDengine,
+ * split into fixed size segments that are written and read through memory-mapped files
+ * record layout: int length | long timestamp | short topic length | topic (utf-8) | int payload length | payload
+ * the length is written last, a zero length marks the end of the written part of a segment
+ * there is one reader, rows it has read are only released by {@link #commit()}, fully read segments are deleted
+ * replay is at-least-once, rows keep their timestamp so TDengine ignores a row written twice
+ *
+ * @author huskar-t
+ */
+public class Spool {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(Spool.class);
+    private static final String SUFFIX = ".spool";
+    private static final int LENGTH_BYTES = 4;
+    private static final int FIXED_BYTES = 8 + 2 + 4;
+
+    private final File dir;
+    private final SpoolConfig config;
+    private final ConcurrentSkipListSet<Long> segments = new ConcurrentSkipListSet<>();
+    private final AtomicLong rejectedRows = new AtomicLong();
+
+    // writer, guarded by this
+    private long writeSegment = -1;
+    private FileChannel writeChannel;
+    private MappedByteBuffer writeBuffer;
+    private long lastForce;
+
+    // reader, only used by the replay thread
+    private long readSegment = -1;
+    private FileChannel readChannel;
+    private MappedByteBuffer readBuffer;
+    private int readPosition;
+    private int pendingPosition;
+
+    public Spool(File dir, SpoolConfig config) {
+        this.dir = dir;
+        this.config = config;
+    }
+
+    /**
+     * pick up segments left by an earlier run and start a new segment for writing
+     *
+     * @throws IOException 目录或文件无法创建
+     */
+    public synchronized void open() throws IOException {
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("can not create spool folder " + this.dir);
+        }
+        final File[] files = this.dir.listFiles((folder, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                try {
+                    final long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    this.segments.add(id);
+                    this.writeSegment = Math.max(this.writeSegment, id);
+                } catch (NumberFormatException e) {
+                    log.warn("ignore unknown file {} in spool folder", name);
+                }
+            }
+        }
+        if (!this.segments.isEmpty()) {
+            log.info("found {} spool segments to replay", this.segments.size());
+        }
+        this.startSegment(true);
+    }
+
+    public synchronized boolean append(Row row) {
+        final boolean appended = this.write(row);
+        this.afterAppend();
+        return appended;
+    }
+
+    /**
+     * @param rows 待写入的数据
+     * @return false if at least one row was rejected because of the disk quota
+     */
+    public synchronized boolean append(List<Row> rows) {
+        boolean appended = true;
+        for (Row row : rows) {
+            appended &= this.write(row);
+        }
+        this.afterAppend();
+        return appended;
+    }
+
+    private boolean write(Row row) {
+        if (this.writeBuffer == null) {
+            return false;
+        }
+        final byte[] topic = row.getTopic().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer payload = row.getPayload().duplicate();
+        final int length = FIXED_BYTES + topic.length + payload.remaining();
+        // keep room for the zero length that ends the segment
+        if (LENGTH_BYTES + length + LENGTH_BYTES > this.config.getSegmentBytes() || topic.length > 0xFFFF) {
+            log.error("row of topic {} is too large for the spool", row.getTopic());
+            return false;
+        }
+        if (this.writeBuffer.remaining() < LENGTH_BYTES + length + LENGTH_BYTES) {
+            try {
+                if (!this.startSegment(false)) {
+                    if (this.rejectedRows.incrementAndGet() % 1000 == 1) {
+                        log.warn("spool quota of {} bytes reached, {} rows rejected so far", this.config.getMaxBytes(), this.rejectedRows.get());
+                    }
+                    return false;
+                }
+            } catch (IOException e) {
+                log.error("create spool segment error", e);
+                return false;
+            }
+        }
+        final int start = this.writeBuffer.position();
+        this.writeBuffer.position(start + LENGTH_BYTES);
+        this.writeBuffer.putLong(row.getTimestamp());
+        this.writeBuffer.putShort((short) topic.length);
+        this.writeBuffer.put(topic);
+        this.writeBuffer.putInt(payload.remaining());
+        this.writeBuffer.put(payload);
+        this.writeBuffer.putInt(start, length);
+        return true;
+    }
+
+    private void afterAppend() {
+        if (this.writeBuffer == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        switch (this.config.getFsync()) {
+            case ALWAYS:
+                this.writeBuffer.force();
+                break;
+            case INTERVAL:
+                if (now - this.lastForce >= this.config.getFsyncIntervalMs()) {
+                    this.writeBuffer.force();
+                    this.lastForce = now;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @param force ignore the quota, used for the first segment after open
+     * @return false if the quota does not allow another segment
+     */
+    private boolean startSegment(boolean force) throws IOException {
+        if (!force && (long) (this.segments.size() + 1) * this.config.getSegmentBytes() > this.config.getMaxBytes()) {
+            return false;
+        }
+        this.closeWriteSegment();
+        final long id = this.writeSegment + 1;
+        this.writeChannel = FileChannel.open(this.file(id).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.writeBuffer = this.writeChannel.map(FileChannel.MapMode.READ_WRITE, 0, this.config.getSegmentBytes());
+        this.writeSegment = id;
+        this.segments.add(id);
+        return true;
+    }
+
+    private void closeWriteSegment() {
+        if (this.writeBuffer != null) {
+            this.writeBuffer.force();
+            unmap(this.writeBuffer);
+            this.writeBuffer = null;
+        }
+        if (this.writeChannel != null) {
+            try {
+                this.writeChannel.close();
+            } catch (IOException e) {
+                log.warn("close spool segment error", e);
+            }
+            this.writeChannel = null;
+        }
+    }
+
+    /**
+     * @return position up to which the segment is written, -1 if it is no longer written to
+     */
+    private synchronized long committedLimit(long segment) {
+        return segment == this.writeSegment && this.writeBuffer != null ? this.writeBuffer.position() : -1;
+    }
+
+    public synchronized boolean isEmpty() {
+        final Long first = this.segments.isEmpty() ? null : this.segments.first();
+        if (first == null) {
+            return true;
+        }
+        if (first != this.writeSegment) {
+            return false;
+        }
+        final int written = this.writeBuffer == null ? 0 : this.writeBuffer.position();
+        return this.readSegment == this.writeSegment ? this.readPosition >= written : written == 0;
+    }
+
+    /**
+     * @return number of segment files on disk, each takes segmentBytes
+     */
+    public int segmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * read rows after the last commit, calling it again without commit returns the same rows
+     *
+     * @param maxRows  最大行数
+     * @param maxBytes 最大字节数, at least one row is returned
+     * @return 数据
+     * @throws IOException 读取失败
+     */
+    public List<Row> read(int maxRows, int maxBytes) throws IOException {
+        return this.read(maxRows, maxBytes, Row.Sizer.RAW);
+    }
+
+    /**
+     * @param maxRows  最大行数
+     * @param maxBytes statement length as the sizer measures it, at least one row is returned
+     * @param sizer    statement length of a row
+     * @return 数据
+     * @throws IOException 读取失败
+     */
+    public List<Row> read(int maxRows, int maxBytes, Row.Sizer sizer) throws IOException {
+        final List<Row> rows = new ArrayList<>();
+        this.pendingPosition = this.readPosition;
+        int bytes = 0;
+        while (rows.size() < maxRows) {
+            if (this.readBuffer == null && !this.openReadSegment()) {
+                break;
+            }
+            final long limit = this.committedLimit(this.readSegment);
+            final int end = limit < 0 ? this.readBuffer.capacity() : (int) limit;
+            final int length = this.pendingPosition + LENGTH_BYTES > end ? 0 : this.readBuffer.getInt(this.pendingPosition);
+            if (length <= 0) {
+                if (limit >= 0 || !rows.isEmpty()) {
+                    // the writer is still on this segment, or rows of it are not committed yet
+                    break;
+                }
+                this.deleteReadSegment();
+                continue;
+            }
+            final ByteBuffer record = this.readBuffer.duplicate();
+            record.position(this.pendingPosition + LENGTH_BYTES);
+            final long timestamp = record.getLong();
+            final byte[] topic = new byte[record.getShort() & 0xFFFF];
+            record.get(topic);
+            final byte[] payload = new byte[record.getInt()];
+            record.get(payload);
+            final Row row = new Row(timestamp, new String(topic, StandardCharsets.UTF_8), ByteBuffer.wrap(payload));
+            final boolean grouped = !rows.isEmpty() && rows.get(rows.size() - 1).getTopic().equals(row.getTopic());
+            final int size = sizer.size(row.getTopic(), row.getPayload(), grouped);
+            if (!rows.isEmpty() && bytes + size > maxBytes) {
+                break;
+            }
+            rows.add(row);
+            bytes += size;
+            this.pendingPosition += LENGTH_BYTES + length;
+        }
+        return rows;
+    }
+
+    /**
+     * release the rows returned by the last {@link #read(int, int)}
+     */
+    public void commit() {
+        this.readPosition = this.pendingPosition;
+    }
+
+    private boolean openReadSegment() throws IOException {
+        final Long id = this.segments.ceiling(this.readSegment + 1);
+        if (id == null) {
+            return false;
+        }
+        this.readChannel = FileChannel.open(this.file(id).toPath(), StandardOpenOption.READ);
+        final long size = Math.min(this.readChannel.size(), this.config.getSegmentBytes());
+        this.readBuffer = this.readChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        this.readSegment = id;
+        this.readPosition = 0;
+        this.pendingPosition = 0;
+        return true;
+    }
+
+    private void closeReadSegment() {
+        if (this.readBuffer != null) {
+            unmap(this.readBuffer);
+            this.readBuffer = null;
+        }
+        if (this.readChannel != null) {
+            try {
+                this.readChannel.close();
+            } catch (IOException e) {
+                log.warn("close spool segment error", e);
+            }
+            this.readChannel = null;
+        }
+    }
+
+    private void deleteReadSegment() {
+        this.closeReadSegment();
+        this.segments.remove(this.readSegment);
+        final File file = this.file(this.readSegment);
+        if (!file.delete()) {
+            log.warn("delete spool segment {} error", file);
+        }
+    }
+
+    public synchronized void close() {
+        this.closeWriteSegment();
+        this.closeReadSegment();
+    }
+
+    private File file(long id) {
+        return new File(this.dir, String.format("%020d%s", id, SUFFIX));
+    }
+
+    /**
+     * release the mapping right away instead of waiting for GC, a mapped file can not be deleted on windows
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (Exception e) {
+            log.debug("unmap spool segment error, left to GC", e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementBoolean;
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link SpoolConfig}
+ * the "spool" section of tdengine.xml
+ */
+public class SpoolConfig {
+    /**
+     * when appended rows are forced to disk
+     */
+    public enum FsyncPolicy {
+        ALWAYS, INTERVAL, NEVER;
+
+        public static FsyncPolicy parse(String value) {
+            switch (value.toLowerCase()) {
+                case "always":
+                    return ALWAYS;
+                case "never":
+                    return NEVER;
+                default:
+                    return INTERVAL;
+            }
+        }
+    }
+
+    private boolean enable;
+    private String dir;
+    private int segmentBytes;
+    private long maxBytes;
+    private FsyncPolicy fsync;
+    private long fsyncIntervalMs;
+    private int replayRowsPerSecond;
+    private long retryIntervalMs;
+    private int maxReplayAttempts;
+
+    /**
+     * @param element spool 配置节点,为空时使用默认值
+     */
+    public SpoolConfig(Element element) {
+        this.setEnable(elementBoolean(element, "enable", false));
+        this.setDir(elementText(element, "dir", "spool"));
+        this.setSegmentBytes(elementInt(element, "segmentBytes", 64 << 20));
+        this.setMaxBytes(elementLong(element, "maxBytes", 1L << 30));
+        this.setFsync(FsyncPolicy.parse(elementText(element, "fsync", "interval")));
+        this.setFsyncIntervalMs(elementLong(element, "fsyncIntervalMs", 1000));
+        this.setReplayRowsPerSecond(elementInt(element, "replayRowsPerSecond", 10000));
+        this.setRetryIntervalMs(elementLong(element, "retryIntervalMs", 5000));
+        this.setMaxReplayAttempts(elementInt(element, "maxReplayAttempts", 10));
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public void setEnable(boolean enable) {
+        this.enable = enable;
+    }
+
+    /**
+     * @return spool folder, relative paths are resolved against the extension home folder
+     */
+    public String getDir() {
+        return dir;
+    }
+
+    public void setDir(String dir) {
+        this.dir = dir;
+    }
+
+    public int getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public void setSegmentBytes(int segmentBytes) {
+        if (segmentBytes < 4096) {
+            segmentBytes = 4096;
+        }
+        this.segmentBytes = segmentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public FsyncPolicy getFsync() {
+        return fsync;
+    }
+
+    public void setFsync(FsyncPolicy fsync) {
+        this.fsync = fsync;
+    }
+
+    public long getFsyncIntervalMs() {
+        return fsyncIntervalMs;
+    }
+
+    public void setFsyncIntervalMs(long fsyncIntervalMs) {
+        this.fsyncIntervalMs = fsyncIntervalMs;
+    }
+
+    public int getReplayRowsPerSecond() {
+        return replayRowsPerSecond;
+    }
+
+    public void setReplayRowsPerSecond(int replayRowsPerSecond) {
+        if (replayRowsPerSecond < 1) {
+            replayRowsPerSecond = 1;
+        }
+        this.replayRowsPerSecond = replayRowsPerSecond;
+    }
+
+    public long getRetryIntervalMs() {
+        return retryIntervalMs;
+    }
+
+    public void setRetryIntervalMs(long retryIntervalMs) {
+        this.retryIntervalMs = retryIntervalMs;
+    }
+
+    /**
+     * @return attempts before a replay batch TDengine keeps rejecting while reachable is dropped
+     */
+    public int getMaxReplayAttempts() {
+        return maxReplayAttempts;
+    }
+
+    public void setMaxReplayAttempts(int maxReplayAttempts) {
+        if (maxReplayAttempts < 1) {
+            maxReplayAttempts = 1;
+        }
+        this.maxReplayAttempts = maxReplayAttempts;
+    }
+}
@@ -0,0 +1,131 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * {@link SpoolReplayer}
+ * background thread that drains the {@link Spool} into TDengine with multi-row inserts once it is reachable again,
+ * rows are written no faster than replayRowsPerSecond so that a long outage does not flood the recovered database
+ * a batch TDengine keeps rejecting while reachable is dropped after maxReplayAttempts
+ *
+ * @author huskar-t
+ */
+public class SpoolReplayer {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(SpoolReplayer.class);
+    private static final long IDLE_MS = 200;
+    private static final long CLOSE_TIMEOUT_MS = 10000;
+
+    private final TDengine tdengine;
+    private final Spool spool;
+    private final SpoolConfig config;
+    private final int maxRows;
+    private final int maxBytes;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param maxRows  每批最大行数
+     * @param maxBytes 每批最大字节数
+     */
+    public SpoolReplayer(TDengine tdengine, Spool spool, SpoolConfig config, int maxRows, int maxBytes) {
+        this.tdengine = tdengine;
+        this.spool = spool;
+        this.config = config;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+    }
+
+    public void start() {
+        this.running = true;
+        this.thread = new Thread(this::run, "tdengine-spool-replayer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * stop replaying, rows not replayed yet stay in the spool for the next start
+     */
+    public void close() {
+        this.running = false;
+        if (this.thread == null) {
+            return;
+        }
+        this.thread.interrupt();
+        try {
+            this.thread.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        int attempts = 0;
+        while (this.running) {
+            try {
+                if (this.spool.isEmpty()) {
+                    Thread.sleep(IDLE_MS);
+                    continue;
+                }
+                if (!this.tdengine.isAvailable()) {
+                    Thread.sleep(this.config.getRetryIntervalMs());
+                    continue;
+                }
+                final long started = System.currentTimeMillis();
+                final List<Row> rows = this.spool.read(this.maxRows, this.maxBytes, this.tdengine::estimateSize);
+                if (rows.isEmpty()) {
+                    Thread.sleep(IDLE_MS);
+                    continue;
+                }
+                if (this.tdengine.saveBatch(rows)) {
+                    this.spool.commit();
+                    attempts = 0;
+                    log.debug("replayed {} spooled rows", rows.size());
+                } else if (this.tdengine.isAvailable() && ++attempts >= this.config.getMaxReplayAttempts()) {
+                    log.error("drop {} spooled rows, TDengine rejected them {} times", rows.size(), attempts);
+                    this.spool.commit();
+                    attempts = 0;
+                } else {
+                    Thread.sleep(this.config.getRetryIntervalMs());
+                    continue;
+                }
+                final long minimum = rows.size() * 1000L / this.config.getReplayRowsPerSecond();
+                final long elapsed = System.currentTimeMillis() - started;
+                if (minimum > elapsed) {
+                    Thread.sleep(minimum - elapsed);
+                }
+            } catch (InterruptedException e) {
+                if (this.running) {
+                    log.warn("tdengine spool replayer interrupted");
+                }
+            } catch (Exception e) {
+                log.error("tdengine spool replay error", e);
+                try {
+                    Thread.sleep(this.config.getRetryIntervalMs());
+                } catch (InterruptedException ignored) {
+                    // stopped
+                }
+            }
+        }
+    }
+}
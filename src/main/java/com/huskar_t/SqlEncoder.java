@@ -0,0 +1,395 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * {@link SqlEncoder}
+ * renders insert statements from a fixed prefix and a row template without String.format,
+ * the row template is split at its "%s" placeholders once, a placeholder right after a quote is a string
+ * literal and gets ' and \ escaped, any other placeholder is appended as is
+ * the statement is built in a per-thread char array that is reused between calls,
+ * payloads of queued {@link Row}s are decoded straight into that array without an intermediate String,
+ * or with a hex / base64 {@link PayloadTable.Encoding} written there from their bytes without decoding
+ *
+ * @author huskar-t
+ */
+public class SqlEncoder {
+    private static final String PLACEHOLDER = "%s";
+    /**
+     * buffers that grew beyond this are dropped instead of being kept by the thread
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private final String prefix;
+    private final String[] segments;
+    private final boolean[] quoted;
+    private final Charset payloadCharset;
+    private final PayloadTable.Encoding payloadEncoding;
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    /**
+     * @param prefix      语句开头, 如 "import into db.table values"
+     * @param rowTemplate 单行模板, 如 " (%s,'%s','%s')"
+     */
+    public SqlEncoder(String prefix, String rowTemplate) {
+        this(prefix, rowTemplate, Util.DEFAULT_CHARSET);
+    }
+
+    /**
+     * @param prefix         语句开头, 如 "import into db.table values"
+     * @param rowTemplate    单行模板, 如 " (%s,'%s','%s')"
+     * @param payloadCharset charset of the payload bytes of queued rows
+     */
+    public SqlEncoder(String prefix, String rowTemplate, Charset payloadCharset) {
+        this(prefix, rowTemplate, payloadCharset, PayloadTable.Encoding.TEXT);
+    }
+
+    /**
+     * @param prefix          语句开头, 如 "import into db.table values"
+     * @param rowTemplate     单行模板, 如 " (%s,'%s','%s')"
+     * @param payloadCharset  charset of the payload bytes of queued rows
+     * @param payloadEncoding how the payload bytes of queued rows are written
+     */
+    public SqlEncoder(String prefix, String rowTemplate, Charset payloadCharset, PayloadTable.Encoding payloadEncoding) {
+        this.prefix = prefix;
+        this.payloadCharset = payloadCharset;
+        this.payloadEncoding = payloadEncoding;
+        final List<String> parts = new ArrayList<>();
+        int from = 0;
+        int index;
+        while ((index = rowTemplate.indexOf(PLACEHOLDER, from)) >= 0) {
+            parts.add(rowTemplate.substring(from, index));
+            from = index + PLACEHOLDER.length();
+        }
+        parts.add(rowTemplate.substring(from));
+        this.segments = parts.toArray(new String[0]);
+        this.quoted = new boolean[this.segments.length - 1];
+        for (int i = 0; i < this.quoted.length; i++) {
+            this.quoted[i] = this.segments[i].endsWith("'");
+        }
+    }
+
+    /**
+     * @param values one value per placeholder of the row template
+     * @return prefix followed by a single row
+     */
+    public String encode(CharSequence... values) {
+        final Buffer buffer = this.begin();
+        this.appendValues(buffer, values);
+        return this.finish(buffer);
+    }
+
+    /**
+     * @param rows one value array per row, see {@link #encode(CharSequence...)}
+     * @return prefix followed by all rows
+     */
+    public String encodeAll(List<CharSequence[]> rows) {
+        final Buffer buffer = this.begin();
+        for (CharSequence[] values : rows) {
+            this.appendValues(buffer, values);
+        }
+        return this.finish(buffer);
+    }
+
+    /**
+     * @param table  table clause placed between prefix and "values", e.g. "db.t1 using db.st tags ('a')"
+     * @param values one value per placeholder of the row template
+     * @return prefix, table clause and a single row
+     */
+    public String encodeInto(String table, CharSequence... values) {
+        final Buffer buffer = this.begin();
+        buffer.append(" ");
+        buffer.append(table);
+        buffer.append(" values");
+        this.appendValues(buffer, values);
+        return this.finish(buffer);
+    }
+
+    /**
+     * the row template must have the placeholders (timestamp, topic, payload) in this order
+     *
+     * @param rows 待写入的数据
+     * @return prefix followed by one row per {@link Row}
+     */
+    public String encode(List<Row> rows) {
+        final Buffer buffer = this.begin();
+        for (Row row : rows) {
+            this.appendRow(buffer, row);
+        }
+        return this.finish(buffer);
+    }
+
+    /**
+     * rows are grouped by topic, every group gets its own table clause and values list,
+     * e.g. "insert into db.t1 using db.st tags ('a') values (1,'x') (2,'y') db.t2 values (3,'z')"
+     * the row template must have the placeholders (timestamp, payload) in this order
+     *
+     * @param rows   待写入的数据
+     * @param tables table clause of a topic
+     * @return prefix followed by one table clause per topic
+     */
+    public String encodeInto(List<Row> rows, Function<String, String> tables) {
+        final Map<String, List<Row>> groups = new LinkedHashMap<>();
+        for (Row row : rows) {
+            groups.computeIfAbsent(row.getTopic(), topic -> new ArrayList<>()).add(row);
+        }
+        final Buffer buffer = this.begin();
+        for (Map.Entry<String, List<Row>> group : groups.entrySet()) {
+            buffer.append(" ");
+            buffer.append(tables.apply(group.getKey()));
+            buffer.append(" values");
+            for (Row row : group.getValue()) {
+                this.appendRow(buffer, row);
+            }
+        }
+        return this.finish(buffer);
+    }
+
+    /**
+     * like {@link #encodeInto(List, Function)} for value arrays, rows of the same topic share a table clause
+     *
+     * @param rows   one value array per row, the topic followed by one value per placeholder of the row template
+     * @param tables table clause of a topic
+     * @return prefix followed by one table clause per topic
+     */
+    public String encodeAllInto(List<CharSequence[]> rows, Function<String, String> tables) {
+        final Map<String, List<CharSequence[]>> groups = new LinkedHashMap<>();
+        for (CharSequence[] values : rows) {
+            groups.computeIfAbsent(values[0].toString(), topic -> new ArrayList<>()).add(values);
+        }
+        final Buffer buffer = this.begin();
+        for (Map.Entry<String, List<CharSequence[]>> group : groups.entrySet()) {
+            buffer.append(" ");
+            buffer.append(tables.apply(group.getKey()));
+            buffer.append(" values");
+            for (CharSequence[] values : group.getValue()) {
+                this.appendValues(buffer, values, 1);
+            }
+        }
+        return this.finish(buffer);
+    }
+
+    private void appendValues(Buffer buffer, CharSequence[] values) {
+        this.appendValues(buffer, values, 0);
+    }
+
+    /**
+     * @param offset index of the value of the first placeholder
+     */
+    private void appendValues(Buffer buffer, CharSequence[] values, int offset) {
+        for (int i = 0; i < this.quoted.length; i++) {
+            buffer.append(this.segments[i]);
+            if (this.quoted[i]) {
+                buffer.appendEscaped(values[offset + i]);
+            } else {
+                buffer.append(values[offset + i]);
+            }
+        }
+        buffer.append(this.segments[this.quoted.length]);
+    }
+
+    private void appendRow(Buffer buffer, Row row) {
+        buffer.append(this.segments[0]);
+        buffer.append(row.getTimestamp());
+        buffer.append(this.segments[1]);
+        if (this.quoted.length > 2) {
+            buffer.appendEscaped(row.getTopic());
+            buffer.append(this.segments[2]);
+        }
+        switch (this.payloadEncoding) {
+            case HEX:
+                buffer.appendHex(row.getPayload());
+                break;
+            case BASE64:
+                buffer.appendBase64(row.getPayload());
+                break;
+            default:
+                buffer.appendEscaped(row.getPayload(), this.payloadCharset);
+                break;
+        }
+        buffer.append(this.segments[this.quoted.length]);
+    }
+
+    /**
+     * @param value 字符串
+     * @return value with ' and \ escaped for a quoted sql literal
+     */
+    public static String escape(String value) {
+        if (value.indexOf('\'') < 0 && value.indexOf('\\') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    private Buffer begin() {
+        final Buffer buffer = this.buffers.get();
+        buffer.length = 0;
+        buffer.append(this.prefix);
+        return buffer;
+    }
+
+    private String finish(Buffer buffer) {
+        final String sql = new String(buffer.chars, 0, buffer.length);
+        if (buffer.chars.length > MAX_RETAINED_CAPACITY) {
+            this.buffers.remove();
+        }
+        return sql;
+    }
+
+    /**
+     * growable char array, Strings are copied in bulk with getChars
+     */
+    private static final class Buffer {
+        private char[] chars = new char[256];
+        private int length;
+
+        private void ensure(int extra) {
+            if (this.length + extra > this.chars.length) {
+                this.chars = Arrays.copyOf(this.chars, Math.max(this.chars.length << 1, this.length + extra));
+            }
+        }
+
+        private void append(CharSequence value) {
+            if (value instanceof String) {
+                this.append((String) value, 0, value.length());
+                return;
+            }
+            final int size = value.length();
+            this.ensure(size);
+            for (int i = 0; i < size; i++) {
+                this.chars[this.length++] = value.charAt(i);
+            }
+        }
+
+        private void append(String value, int from, int to) {
+            this.ensure(to - from);
+            value.getChars(from, to, this.chars, this.length);
+            this.length += to - from;
+        }
+
+        private void append(long value) {
+            if (value < 0) {
+                this.append(Long.toString(value));
+                return;
+            }
+            this.ensure(20);
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            int position = this.length + digits;
+            this.length = position;
+            do {
+                this.chars[--position] = (char) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+        }
+
+        /**
+         * hex and base64 digits need no escaping
+         */
+        private void appendHex(ByteBuffer payload) {
+            this.ensure(payload.remaining() * 2);
+            this.length = Util.hex(payload, this.chars, this.length);
+        }
+
+        private void appendBase64(ByteBuffer payload) {
+            this.ensure(Util.base64Length(payload.remaining()));
+            this.length = Util.base64(payload, this.chars, this.length);
+        }
+
+        /**
+         * decode into the free tail of the array, then escape that region in place
+         */
+        private void appendEscaped(ByteBuffer payload, Charset charset) {
+            this.ensure((int) (payload.remaining() * (double) Util.maxCharsPerByte(charset)) + 1);
+            final int start = this.length;
+            final CharBuffer out = CharBuffer.wrap(this.chars, start, this.chars.length - start);
+            Util.decode(payload, charset, out);
+            int end = out.position();
+            int specials = 0;
+            for (int i = start; i < end; i++) {
+                final char c = this.chars[i];
+                if (c == '\'' || c == '\\') {
+                    specials++;
+                }
+            }
+            if (specials > 0) {
+                this.length = end;
+                this.ensure(specials);
+                // shift from the back so every char moves once
+                int target = end + specials;
+                for (int i = end - 1; target > i + 1; i--) {
+                    final char c = this.chars[i];
+                    this.chars[--target] = c;
+                    if (c == '\'' || c == '\\') {
+                        this.chars[--target] = '\\';
+                    }
+                }
+                end += specials;
+            }
+            this.length = end;
+        }
+
+        private void appendEscaped(CharSequence value) {
+            if (!(value instanceof String)) {
+                final int size = value.length();
+                this.ensure(size * 2);
+                for (int i = 0; i < size; i++) {
+                    final char c = value.charAt(i);
+                    if (c == '\'' || c == '\\') {
+                        this.chars[this.length++] = '\\';
+                    }
+                    this.chars[this.length++] = c;
+                }
+                return;
+            }
+            final String str = (String) value;
+            final int size = str.length();
+            int from = 0;
+            int quote = str.indexOf('\'');
+            int backslash = str.indexOf('\\');
+            while (quote >= 0 || backslash >= 0) {
+                final int next;
+                if (backslash < 0 || (quote >= 0 && quote < backslash)) {
+                    next = quote;
+                    quote = str.indexOf('\'', next + 1);
+                } else {
+                    next = backslash;
+                    backslash = str.indexOf('\\', next + 1);
+                }
+                this.append(str, from, next);
+                this.ensure(2);
+                this.chars[this.length++] = '\\';
+                this.chars[this.length++] = str.charAt(next);
+                from = next + 1;
+            }
+            this.append(str, from, size);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link StagingBuffer}
+ * one batch of rows queued by {@link BatchWriter}, kept in columns: timestamps in a long[], topics by reference and the
+ * payload bytes one after another in an arena with their offsets and lengths, so queueing a publish allocates nothing
+ * a buffer takes up to maxRows rows or maxBytes of statement as its {@link Row.Sizer} measures them,
+ * and is cleared and reused once flushed,
+ * the arena of the reused buffers is off-heap
+ * {@link #rows()} hands the rows out as {@link Row}s viewing the arena, they are reused and only valid until {@link #clear()}
+ * with group commit every row also keeps the parked output of its publish, see {@link BatchWriter.AckMode#COMMIT}
+ *
+ * @author huskar-t
+ */
+public class StagingBuffer {
+    private final long[] timestamps;
+    private final String[] topics;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final Async<?>[] acks;
+    private final ByteBuffer arena;
+    private final int maxBytes;
+    private final Row.Sizer sizer;
+    private final Row[] views;
+    private final List<Row> rows;
+    private int first;
+    private int count;
+    private int bytes;
+    private long started;
+
+    /**
+     * @param maxRows  最大行数
+     * @param maxBytes arena size and the statement size the rows may add up to
+     * @param direct   true for an off-heap arena, only worth it for buffers that are reused
+     */
+    public StagingBuffer(int maxRows, int maxBytes, boolean direct) {
+        this(maxRows, maxBytes, direct, Row.Sizer.RAW);
+    }
+
+    /**
+     * @param maxRows  最大行数
+     * @param maxBytes arena size and the statement size the rows may add up to
+     * @param direct   true for an off-heap arena, only worth it for buffers that are reused
+     * @param sizer    statement length of a row
+     */
+    public StagingBuffer(int maxRows, int maxBytes, boolean direct, Row.Sizer sizer) {
+        this.timestamps = new long[maxRows];
+        this.topics = new String[maxRows];
+        this.offsets = new int[maxRows];
+        this.lengths = new int[maxRows];
+        this.acks = new Async<?>[maxRows];
+        this.arena = direct ? ByteBuffer.allocateDirect(maxBytes) : ByteBuffer.allocate(maxBytes);
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+        this.views = new Row[maxRows];
+        this.rows = new ArrayList<>(maxRows);
+    }
+
+    /**
+     * copy a row in, an empty buffer takes any row whose payload fits the arena even beyond maxBytes
+     *
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   消息内容, its position is not moved
+     * @return false if the buffer has no room for the row
+     */
+    public boolean add(long timestamp, String topic, ByteBuffer payload) {
+        return this.add(timestamp, topic, payload, null);
+    }
+
+    /**
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   消息内容, its position is not moved
+     * @param ack       parked output resumed once the row was written, null if the publish already continued
+     * @return false if the buffer has no room for the row
+     */
+    public boolean add(long timestamp, String topic, ByteBuffer payload, @Nullable Async<PublishInboundOutput> ack) {
+        final int length = payload.remaining();
+        // rows of the same topic in a row share the table clause
+        final boolean grouped = this.count > this.first && topic.equals(this.topics[this.count - 1]);
+        final int size = this.sizer.size(topic, payload, grouped);
+        if (this.count == this.timestamps.length || length > this.arena.remaining()
+                || (this.count > this.first && this.bytes + size > this.maxBytes)) {
+            return false;
+        }
+        if (this.count == this.first) {
+            this.started = System.nanoTime();
+        }
+        this.timestamps[this.count] = timestamp;
+        this.topics[this.count] = topic;
+        this.offsets[this.count] = this.arena.position();
+        this.lengths[this.count] = length;
+        this.acks[this.count] = ack;
+        final int position = payload.position();
+        this.arena.put(payload);
+        payload.position(position);
+        this.bytes += size;
+        this.count++;
+        return true;
+    }
+
+    /**
+     * @return true if the buffer takes no further row
+     */
+    public boolean isFull() {
+        return this.count == this.timestamps.length || this.bytes >= this.maxBytes;
+    }
+
+    /**
+     * drop the oldest row
+     *
+     * @return parked output of the dropped row, null if it has none
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable Async<PublishInboundOutput> dropFirst() {
+        Async<PublishInboundOutput> ack = null;
+        if (this.first < this.count) {
+            ack = (Async<PublishInboundOutput>) this.acks[this.first];
+            this.topics[this.first] = null;
+            this.acks[this.first] = null;
+            this.first++;
+        }
+        if (this.first == this.count) {
+            this.clear();
+        }
+        return ack;
+    }
+
+    /**
+     * @param index row index from 0 to {@link #size()}, in the order of {@link #rows()}
+     * @return parked output of the row, null if it has none
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable Async<PublishInboundOutput> ack(int index) {
+        return (Async<PublishInboundOutput>) this.acks[this.first + index];
+    }
+
+    public int size() {
+        return this.count - this.first;
+    }
+
+    public boolean isEmpty() {
+        return this.count == this.first;
+    }
+
+    /**
+     * @return System.nanoTime() when the first row was added
+     */
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * @return true for an off-heap arena
+     */
+    public boolean isDirect() {
+        return this.arena.isDirect();
+    }
+
+    /**
+     * @return the rows in the order they were added, the list and its rows are reused
+     */
+    public List<Row> rows() {
+        this.rows.clear();
+        for (int i = this.first; i < this.count; i++) {
+            Row view = this.views[i];
+            if (view == null) {
+                view = new Row(0, null, this.arena.duplicate());
+                this.views[i] = view;
+            }
+            view.reset(this.timestamps[i], this.topics[i]);
+            final ByteBuffer payload = view.getPayload();
+            payload.clear();
+            payload.position(this.offsets[i]);
+            payload.limit(this.offsets[i] + this.lengths[i]);
+            this.rows.add(view);
+        }
+        return this.rows;
+    }
+
+    /**
+     * empty the buffer for reuse, the rows of {@link #rows()} are no longer valid
+     */
+    public void clear() {
+        for (int i = 0; i < this.count; i++) {
+            this.topics[i] = null;
+            this.acks[i] = null;
+            if (this.views[i] != null) {
+                this.views[i].reset(0, null);
+            }
+        }
+        this.rows.clear();
+        this.arena.clear();
+        this.first = 0;
+        this.count = 0;
+        this.bytes = 0;
+    }
+}
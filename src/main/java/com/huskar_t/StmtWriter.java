@@ -0,0 +1,149 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.taosdata.jdbc.TSDBPreparedStatement;
+
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link StmtWriter}
+ * writes rows of a {@link PayloadTable} with the parameter binding (stmt) interface of the sdk,
+ * rows are collected into column arrays per table or subtable and sent with columnDataAddBatch/columnDataExecuteBatch
+ * TDengine does not parse the values, so payloads need no escaping and never fail with a syntax error
+ * subtables of a super table are created from the bound tag when they don't exist
+ * hex and base64 payloads are bound as BINARY, text payloads as NCHAR
+ *
+ * @author huskar-t
+ */
+public class StmtWriter {
+
+    /**
+     * the columns of one table or subtable
+     */
+    static final class Columns {
+        private final String table;
+        private final String topic;
+        private final ArrayList<Long> timestamps = new ArrayList<>();
+        private final ArrayList<String> topics;
+        private final ArrayList<String> payloads = new ArrayList<>();
+
+        private Columns(String table, String topic, boolean flat) {
+            this.table = table;
+            this.topic = topic;
+            this.topics = flat ? new ArrayList<>() : null;
+        }
+
+        String getTable() {
+            return table;
+        }
+
+        ArrayList<Long> getTimestamps() {
+            return timestamps;
+        }
+
+        ArrayList<String> getTopics() {
+            return topics;
+        }
+
+        ArrayList<String> getPayloads() {
+            return payloads;
+        }
+    }
+
+    private final PayloadTable table;
+    private final Charset charset;
+    private final int maxlength;
+    private final String sql;
+
+    /**
+     * @param table     表
+     * @param charset   payload 编码
+     * @param maxlength NCHAR 列长度
+     */
+    public StmtWriter(PayloadTable table, Charset charset, int maxlength) {
+        this.table = table;
+        this.charset = charset;
+        this.maxlength = maxlength;
+        this.sql = table.isStable()
+                ? String.format("insert into ? using %s.%s tags (?) values (?, ?)", table.getDb(), table.getTable())
+                : "insert into ? values (?, ?, ?)";
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @param rows 待写入的数据
+     * @return columns per table in the order the tables first appear
+     */
+    Collection<Columns> columns(List<Row> rows) {
+        final boolean flat = !this.table.isStable();
+        final Map<String, Columns> tables = new LinkedHashMap<>();
+        for (Row row : rows) {
+            final Columns columns = tables.computeIfAbsent(
+                    flat ? "" : row.getTopic(),
+                    key -> new Columns(this.table.tableOf(row.getTopic()), row.getTopic(), flat));
+            columns.timestamps.add(row.getTimestamp());
+            if (flat) {
+                columns.topics.add(row.getTopic());
+            }
+            columns.payloads.add(this.table.isRaw()
+                    ? this.table.text(row.getPayload())
+                    : Util.getStringFromByteBuffer(row.getPayload(), this.charset));
+        }
+        return tables.values();
+    }
+
+    /**
+     * @param connection sdk 连接
+     * @param rows       待写入的数据
+     * @throws SQLException all rows are rejected
+     */
+    public void write(Connection connection, List<Row> rows) throws SQLException {
+        // close clears and closes the column batch as well
+        try (TSDBPreparedStatement statement = (TSDBPreparedStatement) connection.prepareStatement(this.sql)) {
+            for (Columns columns : this.columns(rows)) {
+                statement.setTableName(columns.table);
+                int index = 0;
+                if (columns.topics == null) {
+                    statement.setTagNString(0, columns.topic);
+                }
+                statement.setTimestamp(index++, columns.timestamps);
+                if (columns.topics != null) {
+                    statement.setNString(index++, columns.topics, this.maxlength);
+                }
+                if (this.table.isRaw()) {
+                    statement.setString(index, columns.payloads, this.table.payloadLength(this.maxlength));
+                } else {
+                    statement.setNString(index, columns.payloads, this.maxlength);
+                }
+                statement.columnDataAddBatch();
+            }
+            statement.columnDataExecuteBatch();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link StripedReservoir}
+ * log-linear histogram for the Dropwizard {@link com.codahale.metrics.Histogram} and {@link com.codahale.metrics.Timer}
+ * HiveMQ reports, every power of two is split into 16 buckets so quantiles are within about 3%
+ * an update only increments a {@link LongAdder}, unlike the default decaying reservoir it allocates nothing
+ * and threads recording at the same time don't contend on a lock
+ * counts are kept since start, the snapshot is built when a reporter asks for it
+ *
+ * @author huskar-t
+ */
+public class StripedReservoir implements Reservoir {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    public StripedReservoir() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return smallest value of the bucket
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        return (1L << exponent) | ((long) (bucket % SUB_BUCKETS) << (exponent - SUB_BITS));
+    }
+
+    /**
+     * @return value reported for the bucket, the middle of its range
+     */
+    static long representative(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        return lowerBound(bucket) + (1L << (exponent - SUB_BITS)) / 2;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, this.count.sum());
+    }
+
+    @Override
+    public void update(long value) {
+        this.buckets[bucket(value)].increment();
+        this.count.increment();
+        this.sum.add(value);
+        this.min.accumulate(value);
+        this.max.accumulate(value);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return new BucketSnapshot(counts, this.sum.sum(), this.min.get(), this.max.get());
+    }
+
+    private static final class BucketSnapshot extends Snapshot {
+        private final long[] counts;
+        private final long total;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private BucketSnapshot(long[] counts, long sum, long min, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.total = total;
+            this.sum = sum;
+            this.min = total == 0 ? 0 : min;
+            this.max = total == 0 ? 0 : max;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+            if (this.total == 0) {
+                return 0.0;
+            }
+            final double rank = quantile * this.total;
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank && this.counts[i] > 0) {
+                    return Math.max(this.min, Math.min(this.max, representative(i)));
+                }
+            }
+            return this.max;
+        }
+
+        /**
+         * @return one value per non-empty bucket, the recorded values themselves are not kept
+         */
+        @Override
+        public long[] getValues() {
+            int size = 0;
+            for (long count : this.counts) {
+                if (count > 0) {
+                    size++;
+                }
+            }
+            final long[] values = new long[size];
+            int index = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                if (this.counts[i] > 0) {
+                    values[index++] = representative(i);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(Integer.MAX_VALUE, this.total);
+        }
+
+        @Override
+        public long getMax() {
+            return this.max;
+        }
+
+        @Override
+        public double getMean() {
+            return this.total == 0 ? 0.0 : (double) this.sum / this.total;
+        }
+
+        @Override
+        public long getMin() {
+            return this.min;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (this.total <= 1) {
+                return 0.0;
+            }
+            final double mean = this.getMean();
+            double variance = 0.0;
+            for (int i = 0; i < this.counts.length; i++) {
+                if (this.counts[i] > 0) {
+                    final double diff = representative(i) - mean;
+                    variance += diff * diff * this.counts[i];
+                }
+            }
+            return Math.sqrt(variance / (this.total - 1));
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (int i = 0; i < this.counts.length; i++) {
+                    if (this.counts[i] > 0) {
+                        out.printf("%d %d%n", lowerBound(i), this.counts[i]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link SubtableCache}
+ * bounded LRU map from topic to the subtable that stores its rows,
+ * the subtable name is the prefix followed by the md5 of the topic so that any topic maps to a valid, unique name
+ * until a write to the subtable succeeded its rows are written with "using stable tags (topic)",
+ * which creates the subtable on first use, afterwards only the plain name is used
+ *
+ * @author huskar-t
+ */
+public class SubtableCache {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * the table clauses of one topic
+     */
+    public static final class Entry {
+        private final String table;
+        private final String using;
+        private volatile boolean created;
+
+        private Entry(String table, String using) {
+            this.table = table;
+            this.using = using;
+        }
+
+        /**
+         * @return "db.subtable" once the subtable exists, "db.subtable using db.stable tags ('topic')" before
+         */
+        public String getClause() {
+            return this.created ? this.table : this.using;
+        }
+    }
+
+    private final String db;
+    private final String stable;
+    private final String prefix;
+    private final Map<String, Entry> entries;
+
+    /**
+     * @param db       数据库名
+     * @param stable   超级表名
+     * @param prefix   子表名前缀
+     * @param capacity 缓存的主题数
+     */
+    public SubtableCache(String db, String stable, String prefix, int capacity) {
+        this.db = db;
+        this.stable = stable;
+        this.prefix = prefix;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            // inside the map Entry is Map.Entry
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SubtableCache.Entry> eldest) {
+                return this.size() > capacity;
+            }
+        };
+    }
+
+    public synchronized Entry get(String topic) {
+        Entry entry = this.entries.get(topic);
+        if (entry == null) {
+            final String table = this.db + "." + this.prefix + md5(topic);
+            entry = new Entry(table, table + " using " + this.db + "." + this.stable + " tags ('" + SqlEncoder.escape(topic) + "')");
+            this.entries.put(topic, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @param topic 主题
+     * @return "db.subtable" of the topic
+     */
+    public String table(String topic) {
+        return this.get(topic).table;
+    }
+
+    /**
+     * @param topic 主题
+     * @return name of the subtable of the topic without the database, as tbname answers it, the cache is not touched
+     */
+    public String name(String topic) {
+        return this.prefix + md5(topic);
+    }
+
+    /**
+     * @param topic 主题
+     * @return table clause to write rows of the topic with
+     */
+    public String clause(String topic) {
+        return this.get(topic).getClause();
+    }
+
+    /**
+     * a write to the subtable succeeded, later writes can skip the "using" clause
+     */
+    public void markCreated(String topic) {
+        this.get(topic).created = true;
+    }
+
+    /**
+     * a write failed, go back to the "using" clause in case the subtable was dropped
+     */
+    public synchronized void invalidate(String topic) {
+        final Entry entry = this.entries.get(topic);
+        if (entry != null) {
+            entry.created = false;
+        }
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    private static String md5(String topic) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(topic.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -17,14 +17,26 @@
 
 package com.huskar_t;
 
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.codahale.metrics.MetricRegistry;
+import com.taosdata.jdbc.SchemalessWriter;
+import com.taosdata.jdbc.enums.SchemalessProtocolType;
+import com.taosdata.jdbc.enums.SchemalessTimestampType;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.EntityUtils;
 import org.dom4j.Element;
 import org.dom4j.io.SAXReader;
@@ -33,14 +45,21 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * {@link TDengine}
@@ -51,24 +70,56 @@ import java.util.concurrent.locks.ReentrantLock;
 public class TDengine {
     private static final @NotNull Logger log = LoggerFactory.getLogger(TDengine.class);
     private static final int SUCCESS_CODE = 200;
+    private static final ContentType TEXT = ContentType.create("text/plain", StandardCharsets.UTF_8);
     private String ip;
     private String port;
     private String username;
     private String password;
     private String type;
     private Integer maxlength;
-    private Connection conn;
     private String token;
-    private String url;
-    private Statement stmt = null;
     private String db;
     private String table;
     private String topicColumn;
     private String PayloadColumn;
-    private String insertTemplate;
+    private PayloadTable payloadTable;
+    private Charset charset;
     private final CloseableHttpClient client;
+    private final CloseableHttpAsyncClient asyncClient;
+    private Executor executor = Runnable::run;
     private boolean httpLock;
-    private final Lock lock = new ReentrantLock();
+    private int lanes;
+    private LaneExecutor laneExecutor;
+    private final ExecutorConfig executorConfig;
+    private final DedupConfig dedupConfig;
+    private final ChangeFilter changeFilter;
+    private WriteExecutor writeExecutor;
+    private final BatchConfig batchConfig;
+    private final PoolConfig poolConfig;
+    private final HttpConfig httpConfig;
+    private final SpoolConfig spoolConfig;
+    private final STableConfig stableConfig;
+    private final SchemalessConfig schemalessConfig;
+    private LineEncoder lineEncoder;
+    private final ClusterConfig clusterConfig;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private EndpointRing ring;
+    private final OverloadConfig overloadConfig;
+    private final ConcurrencyLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final TimestampConfig timestampConfig;
+    private final SeriesClock clock;
+    private final JsonExtractor timestampExtractor;
+    private final TopicRules rules = new TopicRules();
+    private final List<PayloadTable> routeTables = new ArrayList<>();
+    private final List<JsonMapping> mappings = new ArrayList<>();
+    private final List<WindowAggregate> aggregates = new ArrayList<>();
+    private Aggregator aggregator;
+    private final HistoryConfig historyConfig;
+    private final LastValueCache history;
+    private final Map<PayloadTable, StmtWriter> stmtWriters = new HashMap<>();
+    private Spool spool;
+    private TDengineMetrics metrics = new TDengineMetrics(new MetricRegistry());
 
     /**
      * @param configPath 配置文件路径
@@ -89,21 +140,139 @@ public class TDengine {
         this.setTopicColumn(root.elementTextTrim("topicColumn"));
         this.setPayloadColumn(root.elementTextTrim("PayloadColumn"));
         this.setMaxlength(Integer.valueOf(root.elementTextTrim("maxlength")));
-        this.setInsertTemplate(String.format("import into %s.%s values (now,'%%s','%%s')", this.getDb(), this.getTable()));
+        this.setCharset(Util.elementText(root, "charset", Util.DEFAULT_CHARSET.name()));
+        this.stableConfig = new STableConfig(root.element("stable"));
+        this.timestampConfig = new TimestampConfig(root.element("timestamp"));
+        final TimestampConfig.Precision precision = this.timestampConfig.getPrecision();
+        this.clock = new SeriesClock(this.stableConfig.getCacheSize(), precision.fromMillis(this.timestampConfig.getMaxDriftMs()));
+        this.timestampExtractor = new JsonExtractor(
+                Collections.singletonList(this.timestampConfig.getField()),
+                Collections.singletonList(JsonMapping.ColumnType.BIGINT));
+        final PayloadTable.Encoding encoding = PayloadTable.Encoding.parse(Util.elementText(root, "encoding", "text"));
+        this.payloadTable = new PayloadTable(this.getDb(), this.getTable(), this.getCharset(), encoding, this.stableConfig);
         this.setHttpLock(Boolean.parseBoolean(root.elementTextTrim("httpLock")));
-        this.client = HttpClients.createDefault();
+        this.setLanes(Util.elementInt(root, "lanes", 0));
+        if (this.lanes == 0 && this.isHttpLock()) {
+            // one write at a time as the old global lock did, but without blocking the threads of HiveMQ
+            this.setLanes(1);
+        }
+        final Element mappingsElement = root.element("mappings");
+        if (mappingsElement != null) {
+            for (Element element : mappingsElement.elements("mapping")) {
+                final JsonMapping mapping = new JsonMapping(element, this.getDb(), precision);
+                this.mappings.add(mapping);
+                this.rules.addMapping(mapping);
+            }
+        }
+        final Element aggregatesElement = root.element("aggregates");
+        if (aggregatesElement != null) {
+            for (Element element : aggregatesElement.elements("aggregate")) {
+                this.aggregates.add(new WindowAggregate(element, this.getDb(), this.stableConfig));
+            }
+        }
+        final Element rulesElement = root.element("rules");
+        if (rulesElement != null) {
+            for (Element include : rulesElement.elements("include")) {
+                this.rules.addInclude(include.getTextTrim());
+            }
+            for (Element exclude : rulesElement.elements("exclude")) {
+                this.rules.addExclude(exclude.getTextTrim());
+            }
+            for (Element route : rulesElement.elements("route")) {
+                final String filter = Util.elementText(route, "topic", "");
+                if (filter.equals("")) {
+                    throw new Exception("route requires topic");
+                }
+                final String charset = Util.elementText(route, "charset", "");
+                final PayloadTable table = new PayloadTable(
+                        Util.elementText(route, "db", this.getDb()),
+                        Util.elementText(route, "table", this.getTable()),
+                        charset.equals("") ? this.getCharset() : Charset.forName(charset),
+                        PayloadTable.Encoding.parse(Util.elementText(route, "encoding", encoding.name())),
+                        this.stableConfig);
+                this.routeTables.add(table);
+                this.rules.addRoute(filter, table);
+            }
+        }
+        this.schemalessConfig = new SchemalessConfig(root.element("schemaless"), this.getTable(), this.getTopicColumn());
+        if ("schemaless".equals(this.getType())
+                && this.schemalessConfig.getTransport() == SchemalessConfig.Transport.SDK
+                && "".equals(root.elementTextTrim("port"))) {
+            this.port = "6030";
+        }
+        this.batchConfig = new BatchConfig(root.element("batch"));
+        this.poolConfig = new PoolConfig(root.element("pool"));
+        this.httpConfig = new HttpConfig(root.element("http"));
+        this.spoolConfig = new SpoolConfig(root.element("spool"));
+        this.clusterConfig = new ClusterConfig(root.element("cluster"));
+        this.overloadConfig = new OverloadConfig(root.element("overload"));
+        this.executorConfig = new ExecutorConfig(root.element("executor"));
+        this.dedupConfig = new DedupConfig(root.element("dedup"));
+        this.changeFilter = this.dedupConfig.isEnable() ? new ChangeFilter(this.dedupConfig, this.getCharset()) : null;
+        this.historyConfig = new HistoryConfig(root.element("history"));
+        this.history = this.historyConfig.isEnable() ? new LastValueCache(this.historyConfig) : null;
+        this.limiter = this.overloadConfig.isLimiter() ? new ConcurrencyLimiter(this.overloadConfig) : null;
+        this.breaker = this.overloadConfig.isBreaker() ? new CircuitBreaker(this.overloadConfig) : null;
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(this.httpConfig.getConnectTimeoutMs())
+                .setSocketTimeout(this.httpConfig.getSocketTimeoutMs())
+                .setConnectionRequestTimeout(this.httpConfig.getRequestTimeoutMs())
+                .build();
+        if ("http".equals(this.getType()) && this.httpConfig.isAsync()) {
+            this.client = null;
+            this.asyncClient = HttpAsyncClients.custom()
+                    .setMaxConnTotal(this.httpConfig.getMaxConnections())
+                    .setMaxConnPerRoute(this.httpConfig.getMaxPerRoute())
+                    .setKeepAliveStrategy((response, context) -> this.httpConfig.getKeepAliveMs())
+                    .setDefaultRequestConfig(requestConfig)
+                    .build();
+            this.asyncClient.start();
+        } else {
+            this.asyncClient = null;
+            this.client = HttpClients.custom()
+                    .setMaxConnTotal(this.httpConfig.getMaxConnections())
+                    .setMaxConnPerRoute(this.httpConfig.getMaxPerRoute())
+                    .setKeepAliveStrategy((response, context) -> this.httpConfig.getKeepAliveMs())
+                    .setDefaultRequestConfig(requestConfig)
+                    .build();
+        }
     }
 
     public boolean connect() {
+        this.initEndpoints();
+        if (this.lanes > 0 && this.laneExecutor == null) {
+            if (this.executorConfig.getType() != WriteExecutor.Type.HIVEMQ) {
+                log.warn("executor {} is ignored, blocking writes run on {} lanes{}", this.executorConfig.getType().name().toLowerCase(),
+                        this.lanes, this.isHttpLock() ? " because of httpLock" : "");
+            }
+            this.laneExecutor = new LaneExecutor(this.lanes);
+        } else if (this.executorConfig.getType() != WriteExecutor.Type.HIVEMQ && this.writeExecutor == null) {
+            this.writeExecutor = new WriteExecutor(this.executorConfig);
+            this.executor = this.writeExecutor;
+        }
+        final boolean connected = this.doConnect();
+        if (connected && !this.aggregates.isEmpty() && this.aggregator == null) {
+            if (this.lineEncoder != null) {
+                log.warn("aggregates are not supported by schemaless, publishes are written as they are");
+            } else {
+                this.aggregator = new Aggregator(this, this.aggregates, this.timestampConfig.getPrecision());
+                this.aggregator.start();
+            }
+        }
+        if (connected && this.history != null && this.lineEncoder != null) {
+            log.warn("history of schemaless topics is only replayed from the cache");
+        }
+        return connected;
+    }
+
+    private boolean doConnect() {
         switch (getType()) {
             case "http":
-                this.url = String.format("http://%s:%s/rest/sql", this.getIp(), this.getPort());
-                final Base64.Encoder encoder = Base64.getEncoder();
-                final byte[] textByte = String.format("%s:%s", this.getUsername(), this.getPassword()).getBytes(StandardCharsets.UTF_8);
-                this.token = "Basic " + encoder.encodeToString(textByte);
                 return this.doConnectHttp();
             case "sdk":
                 return this.doConnectSDK();
+            case "schemaless":
+                return this.doConnectSchemaless();
             default:
                 this.setType("http");
                 log.error("tdengine connect type unsupported using http");
@@ -111,81 +280,145 @@ public class TDengine {
         }
     }
 
+    /**
+     * ip/port is the first endpoint, it also runs the create statements
+     */
+    private void initEndpoints() {
+        this.endpoints.clear();
+        this.endpoints.add(new Endpoint(this.getIp(), this.getPort(), this.clusterConfig));
+        for (String address : this.clusterConfig.getEndpoints()) {
+            final String host = address.startsWith("http://") ? address.substring(7) : address;
+            final int colon = host.lastIndexOf(':');
+            this.endpoints.add(colon < 0
+                    ? new Endpoint(host, this.getPort(), this.clusterConfig)
+                    : new Endpoint(host.substring(0, colon), host.substring(colon + 1), this.clusterConfig));
+        }
+        this.ring = new EndpointRing(this.endpoints, this.clusterConfig.getVirtualNodes());
+        if (this.endpoints.size() > 1) {
+            log.info("tdengine cluster endpoints {}", this.endpoints);
+        }
+    }
+
+    private Endpoint first() {
+        return this.endpoints.get(0);
+    }
+
+    private void initHttp() {
+        for (Endpoint endpoint : this.endpoints) {
+            endpoint.setUrl(String.format("http://%s:%s/rest/sql", endpoint.getHost(), endpoint.getPort()));
+        }
+        final Base64.Encoder encoder = Base64.getEncoder();
+        final byte[] textByte = String.format("%s:%s", this.getUsername(), this.getPassword()).getBytes(StandardCharsets.UTF_8);
+        this.token = "Basic " + encoder.encodeToString(textByte);
+    }
+
     private boolean doConnectHttp() {
-        return httpCreateDBAndTable();
+        this.initHttp();
+        return httpCreateDBAndTable() && createRouteAndMappingTables();
     }
 
-    private boolean doConnectSDK() {
+    private boolean openPool() {
         try {
             Class.forName("com.taosdata.jdbc.TSDBDriver");
         } catch (ClassNotFoundException e) {
             log.error("get tdengine class error", e);
             return false;
         }
-        String connectStr = String.format("jdbc:TAOS://%s:%s/?user=%s&password=%s", this.getIp(), this.getPort(), this.getUsername(), this.getPassword());
-        try {
-            this.conn = DriverManager.getConnection(connectStr);
-        } catch (SQLException e) {
-            log.error("connect to tdengine false", e);
+        for (Endpoint endpoint : this.endpoints) {
+            String connectStr = String.format("jdbc:TAOS://%s:%s/?user=%s&password=%s", endpoint.getHost(), endpoint.getPort(), this.getUsername(), this.getPassword());
+            endpoint.setPool(new ConnectionPool(connectStr, this.getPoolConfig()));
+            try {
+                endpoint.getPool().open();
+            } catch (SQLException e) {
+                log.error("connect to tdengine {} false", endpoint, e);
+                return false;
+            }
         }
-        return sdkCreateDBAndTable();
+        return true;
     }
 
-    private boolean sdkCreateDBAndTable() {
-        if (this.conn != null) {
+    /**
+     * schemaless only needs the database, TDengine creates super tables and subtables from the lines
+     * rules decide which topics are written, route tables and json mappings are not used
+     */
+    private boolean doConnectSchemaless() {
+        this.lineEncoder = new LineEncoder(this.schemalessConfig, this.getPayloadColumn(), this.getCharset(),
+                this.timestampConfig.getPrecision());
+        if (this.schemalessConfig.getTransport() == SchemalessConfig.Transport.SDK) {
+            if (!this.openPool()) {
+                return false;
+            }
             try {
-                this.stmt = this.conn.createStatement();
+                final ConnectionPool.Slot slot = this.first().getPool().borrow();
+                try {
+                    slot.getStatement().executeUpdate(this.createDatabaseSql(this.getDb()));
+                } finally {
+                    this.first().getPool().release(slot, false);
+                }
             } catch (SQLException e) {
-                log.error("tdengine create statement error", e);
+                log.error("tdengine create database error", e);
                 return false;
             }
-            if (this.stmt == null) {
-                log.error("tdengine statement is null");
-                return false;
+            return true;
+        }
+        this.initHttp();
+        final TimestampConfig.Precision precision = this.timestampConfig.getPrecision();
+        for (Endpoint endpoint : this.endpoints) {
+            endpoint.setLineUrl(String.format("http://%s:%s/influxdb/v1/write?db=%s&precision=%s", endpoint.getHost(), endpoint.getPort(), this.getDb(),
+                    precision == TimestampConfig.Precision.US ? "u" : precision.name().toLowerCase()));
+        }
+        return isSuccess(this.doPost(this.first(), this.createDatabaseSql(this.getDb())));
+    }
+
+    private boolean doConnectSDK() {
+        if (!this.openPool()) {
+            return false;
+        }
+        if (this.getPoolConfig().isStmt()) {
+            this.stmtWriters.put(this.payloadTable, new StmtWriter(this.payloadTable, this.payloadTable.getCharset(), this.getMaxlength()));
+            for (PayloadTable table : this.routeTables) {
+                this.stmtWriters.put(table, new StmtWriter(table, table.getCharset(), this.getMaxlength()));
             }
+        }
+        return sdkCreateDBAndTable() && createRouteAndMappingTables();
+    }
+
+    private boolean sdkCreateDBAndTable() {
+        final ConnectionPool.Slot slot;
+        try {
+            slot = this.first().getPool().borrow();
+        } catch (SQLException e) {
+            log.error("tdengine create statement error", e);
+            return false;
+        }
+        try {
             // create database
             try {
-                this.stmt.executeUpdate(String.format("create database if not exists %s", this.getDb()));
+                slot.getStatement().executeUpdate(this.createDatabaseSql(this.getDb()));
             } catch (SQLException e) {
                 log.error("tdengine create database error", e);
                 return false;
             }
             // create table
             try {
-                this.stmt.executeUpdate(
-                        String.format(
-                                "create table if not exists %s.%s (ts timestamp, %s NCHAR(%d), %s NCHAR(%d))",
-                                this.getDb(),
-                                this.getTable(),
-                                this.getTopicColumn(),
-                                this.getMaxlength(),
-                                this.getPayloadColumn(),
-                                this.getMaxlength())
-                );
+                slot.getStatement().executeUpdate(this.payloadTable.createTableSql(this.getTopicColumn(), this.getPayloadColumn(), this.getMaxlength()));
             } catch (SQLException e) {
                 log.error("tdengine create table error", e);
                 return false;
             }
+        } finally {
+            this.first().getPool().release(slot, false);
         }
         return true;
     }
 
     private boolean httpCreateDBAndTable() {
-        JSONObject createDBResult = doPost(String.format("create database if not exists %s", this.getDb()));
+        JSONObject createDBResult = doPost(this.first(), this.createDatabaseSql(this.getDb()));
         if (createDBResult == null) {
             log.error("http create db error");
             return false;
         }
-        JSONObject createTableResult = doPost(
-                String.format(
-                        "create table if not exists %s.%s (ts timestamp, %s NCHAR(%d), %s NCHAR(%d))",
-                        this.getDb(),
-                        this.getTable(),
-                        this.getTopicColumn(),
-                        this.getMaxlength(),
-                        this.getPayloadColumn(),
-                        this.getMaxlength())
-        );
+        JSONObject createTableResult = doPost(this.first(), this.payloadTable.createTableSql(this.getTopicColumn(), this.getPayloadColumn(), this.getMaxlength()));
         if (createTableResult == null) {
             log.error("http create table error");
             return false;
@@ -193,21 +426,190 @@ public class TDengine {
         return true;
     }
 
-    public void close() {
-        if (this.stmt != null) {
-            try {
-                this.stmt.close();
-            } catch (SQLException e) {
-                log.warn("close tdengine statement error", e);
+    /**
+     * the precision only applies to new databases, TDengine can not change it for an existing one
+     */
+    private String createDatabaseSql(String db) {
+        final TimestampConfig.Precision precision = this.timestampConfig.getPrecision();
+        if (precision == TimestampConfig.Precision.MS) {
+            return String.format("create database if not exists %s", db);
+        }
+        return String.format("create database if not exists %s precision '%s'", db, precision.name().toLowerCase());
+    }
+
+    /**
+     * route tables may live in databases of their own
+     */
+    private boolean createRouteAndMappingTables() {
+        for (PayloadTable table : this.routeTables) {
+            if (!this.execute(this.first(), this.createDatabaseSql(table.getDb()))
+                    || !this.execute(this.first(), table.createTableSql(this.getTopicColumn(), this.getPayloadColumn(), this.getMaxlength()))) {
+                log.error("create route table {}.{} error", table.getDb(), table.getTable());
+                return false;
             }
         }
-        if (this.conn != null) {
-            try {
-                this.conn.close();
-            } catch (SQLException e) {
-                log.warn("close tdengine connect error", e);
+        for (JsonMapping mapping : this.mappings) {
+            if (!this.execute(this.first(), mapping.createTableSql(this.getDb(), this.getTopicColumn(), this.getMaxlength()))) {
+                log.error("create table {} of mapping {} error", mapping.getTable(), mapping.getTopicFilter());
+                return false;
+            }
+        }
+        for (WindowAggregate aggregate : this.aggregates) {
+            if (!this.execute(this.first(), aggregate.createTableSql(this.getDb(), this.getTopicColumn(), this.getMaxlength()))) {
+                log.error("create table {} of aggregate {} error", aggregate.getTable(), aggregate.getTopicFilter());
+                return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * @param topic 主题
+     * @return false if publishes of the topic are not stored according to the include/exclude rules
+     */
+    public boolean accepts(String topic) {
+        return this.rules.accepts(topic);
+    }
+
+    /**
+     * @return number of endpoints, ip/port and those of the cluster section
+     */
+    public int getEndpointCount() {
+        return this.clusterConfig.getEndpoints().size() + 1;
+    }
+
+    /**
+     * @param topic 主题
+     * @return index of the endpoint the topic belongs to on the hash ring, whether it is up or not
+     */
+    public int laneOf(String topic) {
+        return this.ring == null ? 0 : this.ring.primary(topic);
+    }
+
+    /**
+     * @return table the rows of the topic go to
+     */
+    private PayloadTable tableFor(String topic) {
+        final PayloadTable route = this.rules.route(topic);
+        return route == null ? this.payloadTable : route;
+    }
+
+    /**
+     * @return true if the payload of the topic is stored as hex or base64 and is never decoded,
+     * see {@link #saveData(long, String, ByteBuffer)}
+     */
+    public boolean isRaw(String topic) {
+        return this.lineEncoder == null && this.rules.mapping(topic) == null && this.tableFor(topic).isRaw();
+    }
+
+    /**
+     * {@link Row.Sizer} of the batches, rows of a payload table are sized as rendered for it, mapped and schemaless
+     * rows by their raw payload
+     */
+    public int estimateSize(String topic, ByteBuffer payload, boolean grouped) {
+        if (this.lineEncoder != null || this.rules.mapping(topic) != null) {
+            return Row.Sizer.RAW.size(topic, payload, grouped);
+        }
+        return this.tableFor(topic).estimateSize(topic, payload, grouped);
+    }
+
+    /**
+     * @return charset payloads of the topic are decoded with, the one of its route or the charset of tdengine.xml
+     */
+    public Charset charsetOf(String topic) {
+        return this.lineEncoder == null && this.rules.mapping(topic) == null ? this.tableFor(topic).getCharset() : this.getCharset();
+    }
+
+    /**
+     * timestamp of the row written for a publish, in database precision
+     * with the payload or property source the timestamp of the device is used as it is, so late data lands where it belongs,
+     * publishes without one fall back to the arrival time
+     * arrival times go through a per-series clock and never collide within a table or subtable
+     *
+     * @param packet  publish
+     * @param payload decoded payload, null to decode it here if the payload source needs it
+     * @return 时间戳
+     */
+    public long timestampOf(PublishPacket packet, @Nullable String payload) {
+        final long device = this.deviceTimestamp(packet, payload);
+        return device != Long.MIN_VALUE ? device : this.arrival(packet.getTopic(), packet.getTimestamp());
+    }
+
+    /**
+     * time of a publish that is not written as a row of its own, e.g. folded into a window by the {@link Aggregator},
+     * like {@link #timestampOf} but the arrival time does not go through the series clock
+     *
+     * @param packet  publish
+     * @param payload decoded payload, null to decode it here if the payload source needs it
+     * @return 时间戳, in database precision
+     */
+    public long eventTimeOf(PublishPacket packet, @Nullable String payload) {
+        final long device = this.deviceTimestamp(packet, payload);
+        return device != Long.MIN_VALUE ? device : this.timestampConfig.getPrecision().fromMillis(packet.getTimestamp());
+    }
+
+    /**
+     * @return timestamp of the payload or property source in database precision, Long.MIN_VALUE if there is none
+     */
+    private long deviceTimestamp(PublishPacket packet, @Nullable String payload) {
+        final TimestampConfig.Precision precision = this.timestampConfig.getPrecision();
+        switch (this.timestampConfig.getSource()) {
+            case PROPERTY:
+                final Optional<String> property = packet.getUserProperties().getFirst(this.timestampConfig.getProperty());
+                if (property.isPresent()) {
+                    try {
+                        return precision.fromMillis(Long.parseLong(property.get().trim()));
+                    } catch (NumberFormatException e) {
+                        log.debug("timestamp property {} of topic {} is not a number", property.get(), packet.getTopic());
+                    }
+                }
+                break;
+            case PAYLOAD:
+                if (payload == null && packet.getPayload().isPresent()) {
+                    // decoded like the write path does, with the charset of the table of the topic
+                    payload = Util.getStringFromByteBuffer(packet.getPayload().get(), this.charsetOf(packet.getTopic()));
+                }
+                final String[] literals = new String[1];
+                if (payload != null && this.timestampExtractor.extract(payload, literals) && !"null".equals(literals[0])) {
+                    try {
+                        return precision.fromMillis(Long.parseLong(literals[0]));
+                    } catch (NumberFormatException e) {
+                        log.debug("timestamp field {} of topic {} is not a number", literals[0], packet.getTopic());
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * @param topic    主题
+     * @param received 毫秒时间戳
+     * @return the receive time in database precision, moved past the last one of the series the topic is written to
+     */
+    public long arrival(String topic, long received) {
+        final JsonMapping mapping = this.rules.mapping(topic);
+        final String series = mapping == null ? this.tableFor(topic).series(topic) : mapping.getSeries();
+        return this.clock.next(series, this.timestampConfig.getPrecision().fromMillis(received));
+    }
+
+    public void close() {
+        if (this.aggregator != null) {
+            // open windows are written before the writers go away
+            this.aggregator.close();
+            this.aggregator = null;
+        }
+        if (this.laneExecutor != null) {
+            this.laneExecutor.close();
+        }
+        if (this.writeExecutor != null) {
+            this.writeExecutor.close();
+        }
+        for (Endpoint endpoint : this.endpoints) {
+            endpoint.close();
+        }
         if (this.client != null) {
             try {
                 this.client.close();
@@ -215,33 +617,109 @@ public class TDengine {
                 log.error("close client error", e);
             }
         }
+        if (this.asyncClient != null) {
+            try {
+                this.asyncClient.close();
+            } catch (IOException e) {
+                log.error("close async client error", e);
+            }
+        }
     }
 
-    private JSONObject doPost(String sql) {
-        JSONObject jsonObject;
-        CloseableHttpResponse response = null;
-        try {
-            HttpPost post = new HttpPost(this.url);
-            StringEntity entity = new StringEntity(sql, "UTF-8");
-            post.setEntity(entity);
-            post.setHeader(new BasicHeader("Content-Type", "application/json"));
-            post.setHeader(new BasicHeader("Authorization", this.token));
-            post.setHeader(new BasicHeader("Accept", "text/plain;charset=utf-8"));
-            response = this.client.execute(post);
-            int statusCode = response.getStatusLine().getStatusCode();
-            String result = EntityUtils.toString(response.getEntity(), "UTF-8");
-            if (SUCCESS_CODE == statusCode) {
+    private HttpPost newPost(String url, String sql) {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(this.newEntity(sql));
+        post.setHeader(new BasicHeader("Authorization", this.token));
+        post.setHeader(new BasicHeader("Accept", "text/plain;charset=utf-8"));
+        return post;
+    }
+
+    /**
+     * both the rest sql and the line protocol body are plain UTF-8 text
+     */
+    private TextEntity newEntity(String body) {
+        final boolean gzip = this.httpConfig.isGzip() && body.length() >= this.httpConfig.getGzipThreshold();
+        return new TextEntity(body, TEXT, gzip ? this.httpConfig.getGzipLevel() : -1);
+    }
+
+    private static JSONObject parseResponse(HttpResponse response) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        String result = EntityUtils.toString(response.getEntity(), "UTF-8");
+        if (SUCCESS_CODE == statusCode) {
+            try {
+                return JSONObject.parseObject(result);
+            } catch (Exception e) {
+                log.error("parse json error", e);
+                return null;
+            }
+        } else {
+            log.error("HttpClientService errorMsg：{}", result);
+            return null;
+        }
+    }
+
+    /**
+     * @param sql 语句
+     * @return completes with null on any error, never exceptionally
+     */
+    private CompletableFuture<JSONObject> doPostAsync(Endpoint endpoint, String sql) {
+        return this.doPostAsync(endpoint, endpoint.getUrl(), sql);
+    }
+
+    /**
+     * @param url /rest/sql of the endpoint or one of its variants
+     */
+    private CompletableFuture<JSONObject> doPostAsync(Endpoint endpoint, String url, String sql) {
+        final CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        final long started = System.nanoTime();
+        this.asyncClient.execute(newPost(url, sql), new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                metrics.httpRoundTrip(started);
+                healthy(endpoint, started);
                 try {
-                    jsonObject = JSONObject.parseObject(result);
-                    return jsonObject;
+                    future.complete(parseResponse(response));
                 } catch (Exception e) {
-                    log.error("parse json error", e);
-                    return null;
+                    log.error("Http Exception：", e);
+                    future.complete(null);
                 }
-            } else {
-                log.error("HttpClientService errorMsg：{}", result);
-                return null;
             }
+
+            @Override
+            public void failed(Exception e) {
+                metrics.httpRoundTrip(started);
+                unhealthy(endpoint);
+                log.error("Http Exception：", e);
+                future.complete(null);
+            }
+
+            @Override
+            public void cancelled() {
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    private JSONObject doPost(Endpoint endpoint, String sql) {
+        return this.doPost(endpoint, endpoint.getUrl(), sql);
+    }
+
+    private JSONObject doPost(Endpoint endpoint, String url, String sql) {
+        if (this.asyncClient != null) {
+            return this.doPostAsync(endpoint, url, sql).join();
+        }
+        CloseableHttpResponse response = null;
+        final long started = System.nanoTime();
+        try {
+            response = this.client.execute(newPost(url, sql));
+            this.metrics.httpRoundTrip(started);
+            this.healthy(endpoint, started);
+            return parseResponse(response);
+        } catch (IOException e) {
+            this.unhealthy(endpoint);
+            log.error("Http Exception：", e);
+            return null;
         } catch (Exception e) {
             log.error("Http Exception：", e);
             return null;
@@ -259,79 +737,659 @@ public class TDengine {
 
     /**
      * save topic and payload to table "hivemq.mqtt_payload"
+     * with the async http client no thread waits for the response,
+     * otherwise the blocking write runs on the executor set by {@link #setExecutor(Executor)} or the one of the executor section,
+     * or on the lane of the topic when lanes is set, which keeps the rows of a topic in order
+     * a row that could not be written goes to the spool if one is set
+     * JSON payloads of topics with a mapping are written to the typed columns of the mapping table
+     * the row goes to the endpoint of the topic on the hash ring, or the next one that is up
+     * payloads of hex and base64 tables are encoded back with the charset of the table
+     *
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   消息内容
+     * @return completes with false if the row was not written
+     */
+    public CompletableFuture<Boolean> saveData(long timestamp, String topic, String payload) {
+        if (this.isRaw(topic)) {
+            return this.saveData(timestamp, topic, ByteBuffer.wrap(payload.getBytes(this.tableFor(topic).getCharset())));
+        }
+        final String ts = String.valueOf(timestamp);
+        final JsonMapping mapping = this.lineEncoder == null ? this.rules.mapping(topic) : null;
+        final CharSequence[] values = mapping == null ? null : mapping.values(ts, topic, payload);
+        final Endpoint endpoint = this.ring.pick(topic);
+        final Executor executor = this.laneExecutor == null ? this.executor : this.laneExecutor.lane(topic);
+        final CompletableFuture<Boolean> future;
+        if (this.lineEncoder != null) {
+            final String line = this.lineEncoder.encode(timestamp, topic, payload);
+            future = this.asyncClient != null && endpoint.getLineUrl() != null
+                    ? this.postLinesAsync(endpoint, line)
+                    : CompletableFuture.supplyAsync(() -> this.writeLines(endpoint, Collections.singletonList(line)), executor);
+        } else if (values != null) {
+            final String sql = mapping.getEncoder().encode(values);
+            future = this.asyncClient == null
+                    ? CompletableFuture.supplyAsync(() -> this.execute(endpoint, sql), executor)
+                    : this.doPostAsync(endpoint, sql).thenApply(TDengine::isSuccess);
+        } else {
+            final PayloadTable table = this.tableFor(topic);
+            final StmtWriter writer = this.stmtWriters.get(table);
+            if (writer != null) {
+                final Row row = new Row(timestamp, topic, ByteBuffer.wrap(payload.getBytes(table.getCharset())));
+                future = CompletableFuture.supplyAsync(() -> this.bindRows(endpoint, writer, Collections.singletonList(row)), executor);
+            } else {
+                future = this.asyncClient == null
+                        ? CompletableFuture.supplyAsync(() -> this.saveRow(endpoint, table, ts, topic, payload), executor)
+                        : this.saveDataAsync(endpoint, table, ts, topic, payload);
+            }
+        }
+        final Spool spool = this.spool;
+        return future.thenApply(success -> {
+            this.metrics.rows(1, success);
+            if (!success && spool != null) {
+                spool.append(new Row(timestamp, topic, ByteBuffer.wrap(payload.getBytes(this.charsetOf(topic)))));
+            }
+            return success;
+        });
+    }
+
+    /**
+     * save the payload of a topic whose table stores hex or base64 ({@link #isRaw(String)}),
+     * the bytes go from the publish into the statement without being decoded, and as the statement always parses
+     * there is no base64 retry, otherwise like {@link #saveData(long, String, String)}
      *
-     * @param topic   主题
-     * @param payload 消息内容
-     * @return boolen
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   消息内容, not copied, it must not change until the returned future completes
+     * @return completes with false if the row was not written
+     */
+    public CompletableFuture<Boolean> saveData(long timestamp, String topic, ByteBuffer payload) {
+        final PayloadTable table = this.tableFor(topic);
+        final Endpoint endpoint = this.ring.pick(topic);
+        final Executor executor = this.laneExecutor == null ? this.executor : this.laneExecutor.lane(topic);
+        final Row row = new Row(timestamp, topic, payload);
+        final StmtWriter writer = this.stmtWriters.get(table);
+        final CompletableFuture<Boolean> future;
+        if (writer != null) {
+            future = CompletableFuture.supplyAsync(() -> this.bindRows(endpoint, writer, Collections.singletonList(row)), executor);
+        } else {
+            final String sql = table.renderRow(row);
+            future = this.asyncClient == null
+                    ? CompletableFuture.supplyAsync(() -> this.execute(endpoint, sql), executor)
+                    : this.doPostAsync(endpoint, sql).thenApply(TDengine::isSuccess);
+        }
+        final Spool spool = this.spool;
+        return future.thenApply(success -> {
+            table.written(topic, success);
+            this.metrics.rows(1, success);
+            if (!success && spool != null) {
+                spool.append(new Row(timestamp, topic, Util.copyOf(payload)));
+            }
+            return success;
+        });
+    }
+
+    private CompletableFuture<Boolean> saveDataAsync(Endpoint endpoint, PayloadTable table, String timestamp, String topic, String payload) {
+        return this.doPostAsync(endpoint, table.renderRow(timestamp, topic, payload)).thenCompose(result -> {
+            if (result == null) {
+                log.info("saveData to TDengine error, try to use base64");
+                table.written(topic, false);
+                this.metrics.base64Retried();
+                return this.doPostAsync(endpoint, table.renderRow(
+                        timestamp,
+                        topic,
+                        Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8))
+                )).thenApply(retryResult -> retryResult != null && "succ".equals(retryResult.getString("status")));
+            }
+            return CompletableFuture.completedFuture("succ".equals(result.getString("status")));
+        }).thenApply(success -> {
+            table.written(topic, success);
+            return success;
+        });
+    }
+
+    /**
+     * save rows with a single multi-row insert statement,
+     * if TDengine rejects the statement the rows are retried one by one so that a single bad payload
+     * does not take the rest of the batch with it
+     * with a cluster the rows are split by the endpoint of their topic first
+     *
+     * @param rows 待写入的数据
+     * @return true if every row was written
+     */
+    public boolean saveBatch(List<Row> rows) {
+        if (this.ring.size() == 1) {
+            return this.saveBatch(this.first(), rows);
+        }
+        final Map<Endpoint, List<Row>> shards = new LinkedHashMap<>();
+        for (Row row : rows) {
+            shards.computeIfAbsent(this.ring.pick(row.getTopic()), key -> new ArrayList<>()).add(row);
+        }
+        boolean success = true;
+        for (Map.Entry<Endpoint, List<Row>> entry : shards.entrySet()) {
+            success &= this.saveBatch(entry.getKey(), entry.getValue());
+        }
+        return success;
+    }
+
+    private boolean saveBatch(Endpoint endpoint, List<Row> rows) {
+        if (this.lineEncoder != null) {
+            final boolean success = this.writeLines(endpoint, this.lineEncoder.encode(rows));
+            this.metrics.rows(rows.size(), success);
+            return success;
+        }
+        if (this.mappings.isEmpty() && this.routeTables.isEmpty()) {
+            return this.saveTableBatch(endpoint, this.payloadTable, rows);
+        }
+        final Map<PayloadTable, List<Row>> tables = new LinkedHashMap<>();
+        final Map<JsonMapping, List<CharSequence[]>> mapped = new LinkedHashMap<>();
+        for (Row row : rows) {
+            final JsonMapping mapping = this.rules.mapping(row.getTopic());
+            final CharSequence[] values = mapping == null ? null : mapping.values(
+                    String.valueOf(row.getTimestamp()), row.getTopic(), Util.getStringFromByteBuffer(row.getPayload(), this.getCharset()));
+            if (values == null) {
+                tables.computeIfAbsent(this.tableFor(row.getTopic()), key -> new ArrayList<>()).add(row);
+            } else {
+                mapped.computeIfAbsent(mapping, key -> new ArrayList<>()).add(values);
+            }
+        }
+        boolean success = true;
+        for (Map.Entry<JsonMapping, List<CharSequence[]>> entry : mapped.entrySet()) {
+            if (this.execute(endpoint, entry.getKey().getEncoder().encodeAll(entry.getValue()))) {
+                this.metrics.rows(entry.getValue().size(), true);
+                continue;
+            }
+            log.info("save mapped batch to TDengine error, retry {} rows one by one", entry.getValue().size());
+            for (CharSequence[] values : entry.getValue()) {
+                final boolean written = this.execute(endpoint, entry.getKey().getEncoder().encode(values));
+                this.metrics.rows(1, written);
+                success &= written;
+            }
+        }
+        for (Map.Entry<PayloadTable, List<Row>> entry : tables.entrySet()) {
+            success &= this.saveTableBatch(endpoint, entry.getKey(), entry.getValue());
+        }
+        return success;
+    }
+
+    private boolean saveTableBatch(Endpoint endpoint, PayloadTable table, List<Row> rows) {
+        final StmtWriter writer = this.stmtWriters.get(table);
+        if (writer != null) {
+            return this.bindTableBatch(endpoint, writer, rows);
+        }
+        if (rows.size() == 1) {
+            return this.countRow(endpoint, table, rows.get(0));
+        }
+        if (this.execute(endpoint, table.renderRows(rows))) {
+            for (Row row : rows) {
+                table.written(row.getTopic(), true);
+            }
+            this.metrics.rows(rows.size(), true);
+            return true;
+        }
+        log.info("saveBatch to TDengine error, retry {} rows one by one", rows.size());
+        for (Row row : rows) {
+            table.written(row.getTopic(), false);
+        }
+        boolean success = true;
+        for (Row row : rows) {
+            success &= this.countRow(endpoint, table, row);
+        }
+        return success;
+    }
+
+    /**
+     * @param lines line protocol, written in one call
+     * @return true if TDengine accepted the lines
+     */
+    private boolean writeLines(Endpoint endpoint, List<String> lines) {
+        if (endpoint.getLineUrl() != null) {
+            if (this.asyncClient != null) {
+                return this.postLinesAsync(endpoint, String.join("\n", lines)).join();
+            }
+            CloseableHttpResponse response = null;
+            final long started = System.nanoTime();
+            try {
+                response = this.client.execute(this.newLinePost(endpoint, String.join("\n", lines)));
+                this.metrics.httpRoundTrip(started);
+                this.healthy(endpoint, started);
+                return isLineSuccess(response);
+            } catch (IOException e) {
+                this.unhealthy(endpoint);
+                log.error("Http Exception：", e);
+                return false;
+            } catch (Exception e) {
+                log.error("Http Exception：", e);
+                return false;
+            } finally {
+                if (response != null) {
+                    try {
+                        response.close();
+                    } catch (IOException e) {
+                        log.error("close response error", e);
+                    }
+                }
+            }
+        }
+        final ConnectionPool.Slot slot = this.borrow(endpoint);
+        if (slot == null) {
+            return false;
+        }
+        boolean failed = false;
+        final long started = System.nanoTime();
+        try {
+            new SchemalessWriter(slot.getConnection()).write(lines, SchemalessProtocolType.LINE, this.schemalessTimestampType());
+            this.metrics.jdbcRoundTrip(started);
+            this.healthy(endpoint, started);
+            return true;
+        } catch (SQLException e) {
+            failed = true;
+            this.unhealthy(endpoint);
+            log.warn("schemaless write error", e);
+            return false;
+        } finally {
+            endpoint.getPool().release(slot, failed);
+        }
+    }
+
+    private SchemalessTimestampType schemalessTimestampType() {
+        switch (this.timestampConfig.getPrecision()) {
+            case US:
+                return SchemalessTimestampType.MICRO_SECONDS;
+            case NS:
+                return SchemalessTimestampType.NANO_SECONDS;
+            default:
+                return SchemalessTimestampType.MILLI_SECONDS;
+        }
+    }
+
+    private HttpPost newLinePost(Endpoint endpoint, String body) {
+        HttpPost post = new HttpPost(endpoint.getLineUrl());
+        post.setEntity(this.newEntity(body));
+        post.setHeader(new BasicHeader("Authorization", this.token));
+        return post;
+    }
+
+    private static boolean isLineSuccess(HttpResponse response) throws IOException {
+        final int statusCode = response.getStatusLine().getStatusCode();
+        final String result = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), "UTF-8");
+        if (statusCode / 100 == 2) {
+            return true;
+        }
+        log.error("schemaless write error {}：{}", statusCode, result);
+        return false;
+    }
+
+    /**
+     * @return completes with false on any error, never exceptionally
+     */
+    private CompletableFuture<Boolean> postLinesAsync(Endpoint endpoint, String body) {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        final long started = System.nanoTime();
+        this.asyncClient.execute(this.newLinePost(endpoint, body), new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                metrics.httpRoundTrip(started);
+                healthy(endpoint, started);
+                try {
+                    future.complete(isLineSuccess(response));
+                } catch (Exception e) {
+                    log.error("Http Exception：", e);
+                    future.complete(false);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                metrics.httpRoundTrip(started);
+                unhealthy(endpoint);
+                log.error("Http Exception：", e);
+                future.complete(false);
+            }
+
+            @Override
+            public void cancelled() {
+                future.complete(false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * parameter binding has no syntax errors and needs no base64 retry,
+     * a rejected batch is only retried row by row to keep a single bad row from failing the others
+     */
+    private boolean bindTableBatch(Endpoint endpoint, StmtWriter writer, List<Row> rows) {
+        if (this.bindRows(endpoint, writer, rows)) {
+            this.metrics.rows(rows.size(), true);
+            return true;
+        }
+        if (rows.size() == 1) {
+            this.metrics.rows(1, false);
+            return false;
+        }
+        log.info("bind batch to TDengine error, retry {} rows one by one", rows.size());
+        boolean success = true;
+        for (Row row : rows) {
+            final boolean written = this.bindRows(endpoint, writer, Collections.singletonList(row));
+            this.metrics.rows(1, written);
+            success &= written;
+        }
+        return success;
+    }
+
+    private boolean bindRows(Endpoint endpoint, StmtWriter writer, List<Row> rows) {
+        final ConnectionPool.Slot slot = this.borrow(endpoint);
+        if (slot == null) {
+            return false;
+        }
+        boolean failed = false;
+        final long started = System.nanoTime();
+        try {
+            writer.write(slot.getConnection(), rows);
+            this.metrics.jdbcRoundTrip(started);
+            this.healthy(endpoint, started);
+            return true;
+        } catch (SQLException e) {
+            failed = true;
+            this.unhealthy(endpoint);
+            log.warn("bind rows error", e);
+            return false;
+        } finally {
+            endpoint.getPool().release(slot, failed);
+        }
+    }
+
+    /**
+     * @param started System.nanoTime() when the request was sent
      */
-    public boolean saveData(String topic, String payload) {
-        final String sql = String.format(
-                this.getInsertTemplate(),
-                topic,
-                payload
-        );
+    private void healthy(Endpoint endpoint, long started) {
+        endpoint.succeeded(System.nanoTime() - started);
+        if (this.breaker != null) {
+            this.breaker.succeeded();
+        }
+    }
+
+    /**
+     * the request did not reach TDengine or TDengine could not handle it, rejected statements do not count
+     */
+    private void unhealthy(Endpoint endpoint) {
+        endpoint.failed();
+        if (this.breaker != null) {
+            this.breaker.failed();
+        }
+    }
 
+    /**
+     * @return null if no connection of the endpoint could be had, which counts against its health
+     */
+    private ConnectionPool.Slot borrow(Endpoint endpoint) {
+        try {
+            return endpoint.getPool().borrow();
+        } catch (SQLException e) {
+            this.unhealthy(endpoint);
+            log.error("get tdengine connection of {} error", endpoint, e);
+            return null;
+        }
+    }
+
+    private boolean execute(Endpoint endpoint, String sql) {
         switch (this.getType()) {
             case "http":
-                if (this.isHttpLock()) {
-                    lock.lock();
+                return isSuccess(this.doPost(endpoint, sql));
+            case "sdk":
+                final ConnectionPool.Slot slot = this.borrow(endpoint);
+                if (slot == null) {
+                    return false;
                 }
+                boolean failed = false;
+                final long started = System.nanoTime();
                 try {
-                    JSONObject result = this.doPost(sql);
-                    if (result == null) {
-                        log.info("saveData to TDengine error, try to use base64");
-                        final String retrySql = String.format(
-                                this.getInsertTemplate(),
-                                topic,
-                                Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8))
-                        );
-                        JSONObject retryResult = this.doPost(retrySql);
-                        if (retryResult == null) {
-                            return false;
-                        }
-                        String status = retryResult.getString("status");
-                        return status.equals("succ");
+                    slot.getStatement().executeUpdate(sql);
+                    this.metrics.jdbcRoundTrip(started);
+                    this.healthy(endpoint, started);
+                    return true;
+                } catch (SQLException e) {
+                    failed = !isSyntaxError(e);
+                    if (failed) {
+                        this.unhealthy(endpoint);
                     }
-                    String status = result.getString("status");
-                    return status.equals("succ");
+                    log.warn("save batch error", e);
+                    return false;
                 } finally {
-                    if (this.isHttpLock()) {
-                        lock.lock();
-                    }
+                    endpoint.getPool().release(slot, failed);
                 }
-            case "sdk":
-                lock.lock();
-                try {
-                    if (this.stmt != null) {
+            default:
+                return false;
+        }
+    }
 
-                        this.stmt.executeUpdate(sql);
-                    } else {
+    /**
+     * write closed windows of an aggregate, called by the ticker of {@link Aggregator}
+     * the rows go out as one statement to the endpoint of the aggregate table and are not spooled
+     *
+     * @param aggregate aggregate
+     * @param rows      values for {@link WindowAggregate#renderRows(List)}
+     * @return false if the rows were not written
+     */
+    public boolean saveAggregates(WindowAggregate aggregate, List<CharSequence[]> rows) {
+        final boolean success = this.execute(this.ring.pick(aggregate.getTable()), aggregate.renderRows(rows));
+        aggregate.written(rows, success);
+        if (!success) {
+            log.error("save {} windows of aggregate {} error", rows.size(), aggregate.getTopicFilter());
+        }
+        this.metrics.rows(rows.size(), success);
+        return success;
+    }
+
+    /**
+     * the recent rows of many topics for {@link HistoryLoader}, one query per payload table the topics are written to
+     * and {@link PayloadTable#MAX_UNION} topics
+     * topics of json mappings have no payload to replay and are left out, as is everything with schemaless
+     *
+     * @param topics 主题
+     * @param since  oldest timestamp in epoch milliseconds, Long.MIN_VALUE for no limit
+     * @param count  rows per topic at most
+     * @return rows per topic oldest first with timestamps in epoch milliseconds, topics without rows are missing,
+     * null if a query failed
+     */
+    public @Nullable Map<String, List<Row>> queryHistory(List<String> topics, long since, int count) {
+        final Map<String, List<Row>> history = new HashMap<>();
+        if (this.lineEncoder != null) {
+            return history;
+        }
+        final Map<PayloadTable, List<String>> tables = new LinkedHashMap<>();
+        for (String topic : topics) {
+            if (this.rules.mapping(topic) == null) {
+                tables.computeIfAbsent(this.tableFor(topic), key -> new ArrayList<>()).add(topic);
+            }
+        }
+        final TimestampConfig.Precision precision = this.timestampConfig.getPrecision();
+        for (Map.Entry<PayloadTable, List<String>> entry : tables.entrySet()) {
+            final PayloadTable table = entry.getKey();
+            final List<String> all = entry.getValue();
+            for (int from = 0; from < all.size(); from += PayloadTable.MAX_UNION) {
+                final List<String> chunk = all.subList(from, Math.min(all.size(), from + PayloadTable.MAX_UNION));
+                final String sql = table.historySql(this.getTopicColumn(), this.getPayloadColumn(), chunk,
+                        since == Long.MIN_VALUE ? since : precision.fromMillis(since), count);
+                final List<Object[]> rows = this.query(this.ring.pick(table.getTable()), sql);
+                if (rows == null) {
+                    log.error("query history of {} topics error", chunk.size());
+                    return null;
+                }
+                for (Object[] row : rows) {
+                    final String topic = (String) row[1];
+                    final List<Row> values = history.computeIfAbsent(topic, key -> new ArrayList<>());
+                    if (values.size() < count && row[2] != null) {
                         try {
-                            this.stmt = this.conn.createStatement();
-                        } catch (SQLException e) {
-                            log.error("recreate statement error", e);
+                            values.add(new Row((Long) row[0], topic, table.payloadOf((String) row[2])));
+                        } catch (IllegalArgumentException e) {
+                            log.warn("payload of topic {} is not {}", topic, table.getEncoding());
                         }
                     }
+                }
+            }
+        }
+        for (List<Row> values : history.values()) {
+            Collections.reverse(values);
+        }
+        return history;
+    }
+
+    /**
+     * a row was written or spooled, the {@link LastValueCache} keeps it and the {@link ChangeFilter} compares
+     * later publishes of the topic with it
+     *
+     * @param timestamp 时间戳, in database precision
+     * @param topic     主题
+     * @param payload   消息内容, copied, its position is not moved
+     */
+    public void remember(long timestamp, String topic, ByteBuffer payload) {
+        if (this.changeFilter != null) {
+            this.changeFilter.written(topic, payload, System.currentTimeMillis());
+        }
+        if (this.history != null && payload.hasRemaining()) {
+            this.history.add(topic, this.timestampConfig.getPrecision().toMillis(timestamp), payload);
+        }
+    }
+
+    /**
+     * @param sql select whose first column is the timestamp
+     * @return the rows with the timestamp in epoch milliseconds and the other columns as strings, null on any error
+     */
+    private @Nullable List<Object[]> query(Endpoint endpoint, String sql) {
+        final List<Object[]> rows = new ArrayList<>();
+        switch (this.getType()) {
+            case "http":
+                // /rest/sqlt answers timestamps as numbers in database precision
+                final JSONObject result = this.doPost(endpoint, endpoint.getUrl() + "t", sql);
+                if (!isSuccess(result)) {
+                    return null;
+                }
+                final JSONArray data = result.getJSONArray("data");
+                final TimestampConfig.Precision precision = this.timestampConfig.getPrecision();
+                for (int i = 0; data != null && i < data.size(); i++) {
+                    final JSONArray row = data.getJSONArray(i);
+                    final Object[] values = new Object[row.size()];
+                    values[0] = precision.toMillis(row.getLongValue(0));
+                    for (int column = 1; column < values.length; column++) {
+                        values[column] = row.getString(column);
+                    }
+                    rows.add(values);
+                }
+                return rows;
+            case "sdk":
+                final ConnectionPool.Slot slot = this.borrow(endpoint);
+                if (slot == null) {
+                    return null;
+                }
+                boolean failed = false;
+                final long started = System.nanoTime();
+                try (ResultSet resultSet = slot.getStatement().executeQuery(sql)) {
+                    final int columns = resultSet.getMetaData().getColumnCount();
+                    while (resultSet.next()) {
+                        final Object[] values = new Object[columns];
+                        values[0] = resultSet.getTimestamp(1).getTime();
+                        for (int column = 1; column < columns; column++) {
+                            values[column] = resultSet.getString(column + 1);
+                        }
+                        rows.add(values);
+                    }
+                    this.metrics.jdbcRoundTrip(started);
+                    this.healthy(endpoint, started);
+                    return rows;
+                } catch (SQLException e) {
+                    failed = !isSyntaxError(e);
+                    if (failed) {
+                        this.unhealthy(endpoint);
+                    }
+                    log.warn("query error", e);
+                    return null;
+                } finally {
+                    endpoint.getPool().release(slot, failed);
+                }
+            default:
+                return null;
+        }
+    }
+
+    private boolean countRow(Endpoint endpoint, PayloadTable table, Row row) {
+        final boolean success;
+        if (table.isRaw()) {
+            success = this.execute(endpoint, table.renderRow(row));
+            table.written(row.getTopic(), success);
+        } else {
+            success = this.saveRow(endpoint, table, String.valueOf(row.getTimestamp()), row.getTopic(),
+                    Util.getStringFromByteBuffer(row.getPayload(), table.getCharset()));
+        }
+        this.metrics.rows(1, success);
+        return success;
+    }
+
+    private boolean saveRow(Endpoint endpoint, PayloadTable table, String timestamp, String topic, String payload) {
+        final boolean success = this.writeRow(endpoint, table, timestamp, topic, payload);
+        table.written(topic, success);
+        return success;
+    }
+
+    private boolean writeRow(Endpoint endpoint, PayloadTable table, String timestamp, String topic, String payload) {
+        final String sql = table.renderRow(timestamp, topic, payload);
+
+        switch (this.getType()) {
+            case "http":
+                JSONObject result = this.doPost(endpoint, sql);
+                if (result == null) {
+                    log.info("saveData to TDengine error, try to use base64");
+                    table.written(topic, false);
+                    this.metrics.base64Retried();
+                    final String retrySql = table.renderRow(
+                            timestamp,
+                            topic,
+                            Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8))
+                    );
+                    JSONObject retryResult = this.doPost(endpoint, retrySql);
+                    if (retryResult == null) {
+                        return false;
+                    }
+                    String status = retryResult.getString("status");
+                    return status.equals("succ");
+                }
+                String status = result.getString("status");
+                return status.equals("succ");
+            case "sdk":
+                final ConnectionPool.Slot slot = this.borrow(endpoint);
+                if (slot == null) {
+                    return false;
+                }
+                boolean failed = false;
+                final long started = System.nanoTime();
+                try {
+                    slot.getStatement().executeUpdate(sql);
+                    this.metrics.jdbcRoundTrip(started);
+                    this.healthy(endpoint, started);
                 } catch (SQLException e) {
-                    if (e.getMessage().startsWith("TDengine Error: syntax error")) {
+                    if (isSyntaxError(e)) {
 //                        maybe the codec error,try to use base64
-                        final String retrySql = String.format(
-                                this.getInsertTemplate(),
+                        table.written(topic, false);
+                        this.metrics.base64Retried();
+                        final String retrySql = table.renderRow(
+                                timestamp,
                                 topic,
                                 Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8))
                         );
                         try {
-                            this.stmt.executeUpdate(retrySql);
+                            slot.getStatement().executeUpdate(retrySql);
                         } catch (SQLException e2) {
                             log.error("save data error", e2);
                             return false;
                         }
                     } else {
+                        failed = true;
+                        this.unhealthy(endpoint);
                         log.error("retry save data error", e);
                         return false;
                     }
                 } finally {
-                    lock.unlock();
+                    endpoint.getPool().release(slot, failed);
                 }
                 return true;
             default:
@@ -339,6 +1397,42 @@ public class TDengine {
         }
     }
 
+    /**
+     * @return true if any endpoint answers "select server_status()"
+     */
+    public boolean isAvailable() {
+        for (Endpoint endpoint : this.endpoints) {
+            if (this.isAvailable(endpoint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isAvailable(Endpoint endpoint) {
+        switch (this.getType()) {
+            case "http":
+                final JSONObject result = this.doPost(endpoint, "select server_status()");
+                return result != null && "succ".equals(result.getString("status"));
+            case "sdk":
+                return endpoint.getPool() != null && endpoint.getPool().isAvailable();
+            case "schemaless":
+                return endpoint.getLineUrl() == null
+                        ? endpoint.getPool() != null && endpoint.getPool().isAvailable()
+                        : isSuccess(this.doPost(endpoint, "select server_status()"));
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isSuccess(JSONObject result) {
+        return result != null && "succ".equals(result.getString("status"));
+    }
+
+    private static boolean isSyntaxError(SQLException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("TDengine Error: syntax error");
+    }
+
     public String getIp() {
         return ip;
     }
@@ -457,12 +1551,19 @@ public class TDengine {
         PayloadColumn = payloadColumn;
     }
 
-    public String getInsertTemplate() {
-        return insertTemplate;
+    public Charset getCharset() {
+        return charset;
     }
 
-    public void setInsertTemplate(String insertTemplate) {
-        this.insertTemplate = insertTemplate;
+    public void setCharset(String charset) {
+        this.charset = Charset.forName(charset);
+    }
+
+    /**
+     * @return the table of topics that are not routed elsewhere
+     */
+    public PayloadTable getPayloadTable() {
+        return payloadTable;
     }
 
     public boolean isHttpLock() {
@@ -472,4 +1573,126 @@ public class TDengine {
     public void setHttpLock(boolean httpLock) {
         this.httpLock = httpLock;
     }
+
+    /**
+     * @return number of single-threaded lanes the blocking writes of saveData run on, 0 for the executor of HiveMQ
+     */
+    public int getLanes() {
+        return lanes;
+    }
+
+    public void setLanes(int lanes) {
+        if (lanes < 0) {
+            lanes = 0;
+        }
+        this.lanes = lanes;
+    }
+
+    public BatchConfig getBatchConfig() {
+        return batchConfig;
+    }
+
+    public PoolConfig getPoolConfig() {
+        return poolConfig;
+    }
+
+    public HttpConfig getHttpConfig() {
+        return httpConfig;
+    }
+
+    public STableConfig getStableConfig() {
+        return stableConfig;
+    }
+
+    public TimestampConfig getTimestampConfig() {
+        return timestampConfig;
+    }
+
+    public ClusterConfig getClusterConfig() {
+        return clusterConfig;
+    }
+
+    public OverloadConfig getOverloadConfig() {
+        return overloadConfig;
+    }
+
+    /**
+     * @return null unless the limiter of the overload section is on
+     */
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @return null unless the breaker of the overload section is on
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public DedupConfig getDedupConfig() {
+        return dedupConfig;
+    }
+
+    /**
+     * @return null unless dedup is enabled
+     */
+    public ChangeFilter getChangeFilter() {
+        return changeFilter;
+    }
+
+    /**
+     * @return folds the publishes of the aggregate topics into windows, null without aggregates or before connect
+     */
+    public Aggregator getAggregator() {
+        return aggregator;
+    }
+
+    public HistoryConfig getHistoryConfig() {
+        return historyConfig;
+    }
+
+    /**
+     * @return the last values of the history topics, null unless history is enabled
+     */
+    public LastValueCache getHistory() {
+        return history;
+    }
+
+    public ExecutorConfig getExecutorConfig() {
+        return executorConfig;
+    }
+
+    public SpoolConfig getSpoolConfig() {
+        return spoolConfig;
+    }
+
+    public Spool getSpool() {
+        return spool;
+    }
+
+    /**
+     * @param spool failed writes are appended here and replayed by {@link SpoolReplayer}
+     */
+    public void setSpool(Spool spool) {
+        this.spool = spool;
+    }
+
+    public TDengineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics metrics registered in the registry of HiveMQ, by default they are kept in a registry of their own
+     */
+    public void setMetrics(TDengineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param executor runs the blocking writes of {@link #saveData(long, String, String)}, unless the executor section sets one
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
 }
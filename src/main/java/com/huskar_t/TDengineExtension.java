@@ -17,6 +17,7 @@
 
 package com.huskar_t;
 
+import com.codahale.metrics.Gauge;
 import com.hivemq.extension.sdk.api.ExtensionMain;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
 import com.hivemq.extension.sdk.api.parameter.*;
@@ -26,6 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * This is the main class of the extension,
@@ -37,6 +39,10 @@ import java.io.File;
  */
 public class TDengineExtension implements ExtensionMain {
     private TDengine tdengine;
+    private BatchWriter batchWriter;
+    private Spool spool;
+    private SpoolReplayer spoolReplayer;
+    private HistoryLoader historyLoader;
     private static final @NotNull Logger log = LoggerFactory.getLogger(TDengineExtension.class);
 
     @Override
@@ -44,10 +50,22 @@ public class TDengineExtension implements ExtensionMain {
         try {
             final File path = extensionStartInput.getExtensionInformation().getExtensionHomeFolder();
             tdengine = new TDengine(path.getAbsolutePath() + File.separator + "tdengine.xml");
+            tdengine.setExecutor(Services.extensionExecutorService());
+            tdengine.setMetrics(new TDengineMetrics(Services.metricRegistry()));
             boolean success = tdengine.connect();
             if (!success) {
                 throw new Exception("connect to tdengine error");
             }
+            startSpool(path);
+            final ConcurrencyLimiter limiter = tdengine.getLimiter();
+            if (limiter != null) {
+                tdengine.getMetrics().gauge("limiter.limit", (Gauge<Integer>) () -> (int) limiter.getLimit());
+                tdengine.getMetrics().gauge("limiter.inflight", (Gauge<Integer>) limiter::getInflight);
+            }
+            final CircuitBreaker breaker = tdengine.getBreaker();
+            if (breaker != null) {
+                tdengine.getMetrics().gauge("breaker.open", (Gauge<Boolean>) breaker::isOpen);
+            }
             addPublishModifier();
 
             final ExtensionInformation extensionInformation = extensionStartInput.getExtensionInformation();
@@ -63,17 +81,65 @@ public class TDengineExtension implements ExtensionMain {
     public void extensionStop(final @NotNull ExtensionStopInput extensionStopInput, final @NotNull ExtensionStopOutput extensionStopOutput) {
         final ExtensionInformation extensionInformation = extensionStopInput.getExtensionInformation();
         log.info("Stopped " + extensionInformation.getName() + ":" + extensionInformation.getVersion());
+        if (this.batchWriter != null) {
+            this.batchWriter.close();
+        }
+        if (this.historyLoader != null) {
+            this.historyLoader.close();
+        }
+        if (this.spoolReplayer != null) {
+            this.spoolReplayer.close();
+        }
+        if (this.spool != null) {
+            this.spool.close();
+        }
         if (this.tdengine != null) {
+            this.tdengine.getMetrics().remove();
             this.tdengine.close();
         }
     }
 
+    private void startSpool(File home) throws IOException {
+        final SpoolConfig config = this.tdengine.getSpoolConfig();
+        if (!config.isEnable()) {
+            return;
+        }
+        File dir = new File(config.getDir());
+        if (!dir.isAbsolute()) {
+            dir = new File(home, config.getDir());
+        }
+        this.spool = new Spool(dir, config);
+        this.spool.open();
+        this.tdengine.setSpool(this.spool);
+        this.tdengine.getMetrics().gauge("spool.segments", (Gauge<Integer>) this.spool::segmentCount);
+        final BatchConfig batchConfig = this.tdengine.getBatchConfig();
+        this.spoolReplayer = new SpoolReplayer(this.tdengine, this.spool, config, batchConfig.getMaxRows(), batchConfig.getMaxBytes());
+        this.spoolReplayer.start();
+    }
+
     private void addPublishModifier() {
         final InitializerRegistry initializerRegistry = Services.initializerRegistry();
 
-        final TDengineInterceptor TDengineInterceptor = new TDengineInterceptor(this.tdengine);
-
-        initializerRegistry.setClientInitializer((initializerInput, clientContext) -> clientContext.addPublishInboundInterceptor(TDengineInterceptor));
+        if (this.tdengine.getBatchConfig().isEnable()) {
+            this.batchWriter = new BatchWriter(this.tdengine, this.tdengine.getBatchConfig());
+            this.batchWriter.start();
+            this.tdengine.getMetrics().gauge("batch.queue", (Gauge<Integer>) this.batchWriter::queueSize);
+        }
+        final TDengineInterceptor TDengineInterceptor = new TDengineInterceptor(this.tdengine, this.batchWriter);
+        final LastValueCache history = this.tdengine.getHistory();
+        if (history == null) {
+            initializerRegistry.setClientInitializer((initializerInput, clientContext) -> clientContext.addPublishInboundInterceptor(TDengineInterceptor));
+            return;
+        }
+        this.historyLoader = new HistoryLoader(this.tdengine, history, this.tdengine.getHistoryConfig());
+        this.historyLoader.start();
+        this.tdengine.getMetrics().gauge("history.topics", (Gauge<Integer>) history::size);
+        final HistoryInterceptor historyInterceptor = new HistoryInterceptor(this.tdengine, this.historyLoader);
+        initializerRegistry.setClientInitializer((initializerInput, clientContext) -> {
+            clientContext.addPublishInboundInterceptor(TDengineInterceptor);
+            clientContext.addSubscribeInboundInterceptor(historyInterceptor);
+            clientContext.addSubackOutboundInterceptor(historyInterceptor);
+        });
     }
 
 }
@@ -18,13 +18,16 @@
 package com.huskar_t;
 
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
 import com.hivemq.extension.sdk.api.async.Async;
 import com.hivemq.extension.sdk.api.async.TimeoutFallback;
 import com.hivemq.extension.sdk.api.interceptor.publish.PublishInboundInterceptor;
 import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
 import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.packets.publish.AckReasonCode;
 import com.hivemq.extension.sdk.api.packets.publish.ModifiablePublishPacket;
-import com.hivemq.extension.sdk.api.services.Services;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,44 +41,209 @@ import static com.huskar_t.Util.getStringFromByteBuffer;
 /**
  * {@link PublishInboundInterceptor},
  * it save the payload of every incoming PUBLISH with any topic to tdengine'.
+ * When a {@link BatchWriter} is given the row is only queued and the publish continues right away,
+ * or with ack commit a QoS 1/2 publish waits until the batch of its row was written.
+ * Topics excluded by the rules of tdengine.xml pass through untouched, as do numbers the {@link Aggregator} folded into
+ * a window and publishes the dedup filter finds unchanged, the aggregator comes first so its windows see every value.
+ * With history enabled a publish goes to the {@link LastValueCache} replayed to new subscribers once its row was written
+ * or spooled, see {@link TDengine#remember}.
+ * Payloads of topics stored as hex or base64 are handed over as bytes, others are decoded with the charset of their table.
+ * A publish waits at most timeoutMs of the overload section for its write, while the circuit breaker is open
+ * or the concurrency limiter has no permit the fallback applies right away instead.
  *
  * @author huskar-t
  * @since 0.0.1
  */
 public class TDengineInterceptor implements PublishInboundInterceptor {
-    private final TDengine tdengine;
     private static final @NotNull Logger log = LoggerFactory.getLogger(TDengine.class);
 
+    /**
+     * what happens to a publish whose write can not be done in time
+     */
+    public enum Fallback {
+        /**
+         * the publish is not delivered
+         */
+        DROP,
+        /**
+         * the publish is delivered without its row, a write still in flight may complete later
+         */
+        PASS,
+        /**
+         * the publish is delivered and its row goes to the spool, like drop without a spool
+         */
+        SPOOL;
+
+        public static Fallback parse(String value) {
+            switch (value.toLowerCase()) {
+                case "pass":
+                case "passthrough":
+                case "pass_through":
+                    return PASS;
+                case "spool":
+                    return SPOOL;
+                case "drop":
+                case "fail":
+                    return DROP;
+                default:
+                    log.error("overload fallback {} unsupported using drop", value);
+                    return DROP;
+            }
+        }
+    }
+
+    private final TDengine tdengine;
+    private final BatchWriter batchWriter;
+    private final OverloadConfig overloadConfig;
+    private final Duration timeout;
+    private final TimeoutFallback timeoutFallback;
+    private final boolean groupCommit;
+
     public TDengineInterceptor(TDengine tdengine) {
+        this(tdengine, null);
+    }
+
+    public TDengineInterceptor(TDengine tdengine, @Nullable BatchWriter batchWriter) {
         this.tdengine = tdengine;
+        this.batchWriter = batchWriter;
+        this.overloadConfig = tdengine.getOverloadConfig();
+        this.timeout = Duration.ofMillis(this.overloadConfig.getTimeoutMs());
+        // a write that timed out and fails later is spooled by TDengine#saveData
+        this.timeoutFallback = this.overloadConfig.getFallback() == Fallback.DROP ? TimeoutFallback.FAILURE : TimeoutFallback.SUCCESS;
+        this.groupCommit = batchWriter != null && tdengine.getBatchConfig().getAck() == BatchWriter.AckMode.COMMIT;
     }
 
     @Override
     public void onInboundPublish(final @NotNull PublishInboundInput publishInboundInput, final @NotNull PublishInboundOutput publishInboundOutput) {
-        final Async<PublishInboundOutput> asyncOutput = publishInboundOutput.async(Duration.ofSeconds(10), TimeoutFallback.FAILURE);
-        final CompletableFuture<?> taskFuture = Services.extensionExecutorService().submit(() -> {
-            final ModifiablePublishPacket publishPacket = publishInboundOutput.getPublishPacket();
-            try {
-                @NotNull Optional<ByteBuffer> payload = publishPacket.getPayload();
-                if (payload.isPresent()) {
-                    final String payloadStr = getStringFromByteBuffer(payload.orElse(null));
-                    if (payloadStr.equals("")) {
-                        return;
-                    }
-                    tdengine.saveData(publishPacket.getTopic(), payloadStr.replace("'", "\\'"));
-                }
-            } catch (Exception e) {
-                log.error("save data to tdengine error", e);
+        // filtered topics don't touch the executor or the async output
+        if (!this.tdengine.accepts(publishInboundInput.getPublishPacket().getTopic())) {
+            return;
+        }
+        final Aggregator aggregator = this.tdengine.getAggregator();
+        if (aggregator != null && !aggregator.accept(publishInboundInput.getPublishPacket())) {
+            return;
+        }
+        // only raw rows are deduplicated
+        final ChangeFilter changeFilter = this.tdengine.getChangeFilter();
+        if (changeFilter != null) {
+            final PublishPacket packet = publishInboundInput.getPublishPacket();
+            final Optional<ByteBuffer> payload = packet.getPayload();
+            if (payload.isPresent() && !changeFilter.accept(packet.getTopic(), payload.get(), packet.getTimestamp())) {
+                this.tdengine.getMetrics().unchanged();
+                return;
             }
-        });
+        }
+        final long started = System.nanoTime();
+        if (this.batchWriter != null) {
+            enqueue(publishInboundOutput);
+            this.tdengine.getMetrics().interceptor(started);
+            return;
+        }
+        final ModifiablePublishPacket publishPacket = publishInboundOutput.getPublishPacket();
+        final CompletableFuture<Boolean> taskFuture;
+        final Runnable remember;
+        final ConcurrencyLimiter limiter = this.tdengine.getLimiter();
+        boolean acquired = false;
+        try {
+            @NotNull Optional<ByteBuffer> payload = publishPacket.getPayload();
+            if (!payload.isPresent()) {
+                return;
+            }
+            final String topic = publishPacket.getTopic();
+            final boolean raw = this.tdengine.isRaw(topic);
+            final String payloadStr = raw ? null : getStringFromByteBuffer(payload.get(), this.tdengine.charsetOf(topic));
+            if (raw ? !payload.get().hasRemaining() : payloadStr.equals("")) {
+                return;
+            }
+            final CircuitBreaker breaker = this.tdengine.getBreaker();
+            if (breaker != null && !breaker.allow()) {
+                fallback(publishInboundOutput, payload.get(), "tdengine circuit breaker is open");
+                return;
+            }
+            final long timestamp = this.tdengine.timestampOf(publishPacket, payloadStr);
+            if (limiter != null && !limiter.tryAcquire()) {
+                fallback(publishInboundOutput, payload.get(), "too many tdengine writes in flight");
+                return;
+            }
+            acquired = limiter != null;
+            final ByteBuffer bytes = payload.get();
+            remember = () -> this.tdengine.remember(timestamp, topic, bytes);
+            taskFuture = raw
+                    ? this.tdengine.saveData(timestamp, topic, payload.get())
+                    : this.tdengine.saveData(timestamp, topic, payloadStr);
+        } catch (Exception e) {
+            log.error("save data to tdengine error", e);
+            if (acquired) {
+                // the write never started, e.g. its executor is shutting down
+                limiter.cancel();
+            }
+            return;
+        }
+        final Async<PublishInboundOutput> asyncOutput = publishInboundOutput.async(this.timeout, this.timeoutFallback);
         // add a callback for completion of the task
-        taskFuture.whenComplete((ignored, throwable) -> {
+        taskFuture.whenComplete((success, throwable) -> {
             if (throwable != null) {
                 log.error("tdengine save data error", throwable);
+            } else if (success) {
+                remember.run();
+            }
+            if (limiter != null) {
+                limiter.release(started, throwable == null && success);
             }
+            this.tdengine.getMetrics().interceptor(started);
             // resume output to tell HiveMQ that asynchronous precessing is done
             asyncOutput.resume();
         });
     }
 
+    /**
+     * answers in microseconds, TDengine is not touched
+     */
+    private void fallback(final @NotNull PublishInboundOutput publishInboundOutput, final ByteBuffer payload, final String reason) {
+        this.tdengine.getMetrics().shed();
+        switch (this.overloadConfig.getFallback()) {
+            case PASS:
+                return;
+            case SPOOL:
+                final Spool spool = this.tdengine.getSpool();
+                final ModifiablePublishPacket publishPacket = publishInboundOutput.getPublishPacket();
+                final long timestamp = this.tdengine.timestampOf(publishPacket, null);
+                if (spool != null && spool.append(new Row(timestamp, publishPacket.getTopic(), Util.copyOf(payload)))) {
+                    this.tdengine.remember(timestamp, publishPacket.getTopic(), payload);
+                    return;
+                }
+                publishInboundOutput.preventPublishDelivery(AckReasonCode.QUOTA_EXCEEDED, reason);
+                return;
+            case DROP:
+            default:
+                publishInboundOutput.preventPublishDelivery(AckReasonCode.QUOTA_EXCEEDED, reason);
+        }
+    }
+
+    private void enqueue(final @NotNull PublishInboundOutput publishInboundOutput) {
+        final ModifiablePublishPacket publishPacket = publishInboundOutput.getPublishPacket();
+        try {
+            final Optional<ByteBuffer> payload = publishPacket.getPayload();
+            if (!payload.isPresent() || !payload.get().hasRemaining()) {
+                return;
+            }
+            final long timestamp = this.tdengine.timestampOf(publishPacket, null);
+            if (this.groupCommit && publishPacket.getQos() != Qos.AT_MOST_ONCE) {
+                // the batch writer resumes it once the batch is written
+                final Async<PublishInboundOutput> asyncOutput = publishInboundOutput.async(this.timeout, this.timeoutFallback);
+                if (!this.batchWriter.offer(timestamp, publishPacket.getTopic(), payload.get(), asyncOutput)) {
+                    publishInboundOutput.preventPublishDelivery(AckReasonCode.QUOTA_EXCEEDED, "tdengine write queue is full");
+                    asyncOutput.resume();
+                }
+                return;
+            }
+            // copied into the queue as bytes, decoded later by the flusher straight into the statement
+            if (!this.batchWriter.offer(timestamp, publishPacket.getTopic(), payload.get())) {
+                publishInboundOutput.preventPublishDelivery(AckReasonCode.QUOTA_EXCEEDED, "tdengine write queue is full");
+            }
+        } catch (Exception e) {
+            log.error("queue data for tdengine error", e);
+        }
+    }
+
 }
\ No newline at end of file
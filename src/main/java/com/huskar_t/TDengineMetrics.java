@@ -0,0 +1,248 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TDengineMetrics}
+ * metrics of the write path, registered in the {@link MetricRegistry} of HiveMQ ( Services.metricRegistry() )
+ * so they are reported next to the metrics of HiveMQ, all names start with {@link #PREFIX}
+ * counters are LongAdder based and histograms use {@link StripedReservoir}, recording allocates nothing
+ *
+ * @author huskar-t
+ */
+public class TDengineMetrics {
+    public static final String PREFIX = "com.huskar_t.tdengine.";
+
+    private final MetricRegistry registry;
+    private final Timer interceptorLatency;
+    private final Timer httpRoundTrip;
+    private final Timer jdbcRoundTrip;
+    private final Histogram batchRows;
+    private final Counter rowsWritten;
+    private final Counter rowsFailed;
+    private final Counter rowsBase64Retried;
+    private final Counter rowsShed;
+    private final Counter rowsUnchanged;
+    private final Counter rowsAggregated;
+    private final Counter rowsLate;
+    private final Counter historyHits;
+    private final Counter historyLoaded;
+    private final Counter historyQueries;
+    private final Counter historyReplayed;
+
+    /**
+     * @param registry metrics already registered by an earlier start of the extension are reused
+     */
+    public TDengineMetrics(MetricRegistry registry) {
+        this.registry = registry;
+        this.interceptorLatency = this.timer("interceptor.latency");
+        this.httpRoundTrip = this.timer("http.round-trip");
+        this.jdbcRoundTrip = this.timer("jdbc.round-trip");
+        this.batchRows = registry.histogram(PREFIX + "batch.rows", () -> new Histogram(new StripedReservoir()));
+        this.rowsWritten = registry.counter(PREFIX + "rows.written");
+        this.rowsFailed = registry.counter(PREFIX + "rows.failed");
+        this.rowsBase64Retried = registry.counter(PREFIX + "rows.base64-retried");
+        this.rowsShed = registry.counter(PREFIX + "rows.shed");
+        this.rowsUnchanged = registry.counter(PREFIX + "rows.unchanged");
+        this.rowsAggregated = registry.counter(PREFIX + "rows.aggregated");
+        this.rowsLate = registry.counter(PREFIX + "rows.late");
+        this.historyHits = registry.counter(PREFIX + "history.hits");
+        this.historyLoaded = registry.counter(PREFIX + "history.loaded");
+        this.historyQueries = registry.counter(PREFIX + "history.queries");
+        this.historyReplayed = registry.counter(PREFIX + "history.replayed");
+    }
+
+    private Timer timer(String name) {
+        return this.registry.timer(PREFIX + name, () -> new Timer(new StripedReservoir()));
+    }
+
+    /**
+     * @param name  name after the prefix
+     * @param gauge replaces a gauge of the same name
+     */
+    public void gauge(String name, Gauge<?> gauge) {
+        this.registry.remove(PREFIX + name);
+        this.registry.register(PREFIX + name, gauge);
+    }
+
+    /**
+     * remove all metrics of the extension
+     */
+    public void remove() {
+        this.registry.removeMatching((name, metric) -> name.startsWith(PREFIX));
+    }
+
+    /**
+     * @param started System.nanoTime() when the interceptor was called
+     */
+    public void interceptor(long started) {
+        this.interceptorLatency.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param started System.nanoTime() when the request was sent
+     */
+    public void httpRoundTrip(long started) {
+        this.httpRoundTrip.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param started System.nanoTime() when the statement was executed
+     */
+    public void jdbcRoundTrip(long started) {
+        this.jdbcRoundTrip.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    public void batch(int rows) {
+        this.batchRows.update(rows);
+    }
+
+    /**
+     * @param rows    行数
+     * @param success 是否写入成功
+     */
+    public void rows(int rows, boolean success) {
+        if (success) {
+            this.rowsWritten.inc(rows);
+        } else {
+            this.rowsFailed.inc(rows);
+        }
+    }
+
+    public void base64Retried() {
+        this.rowsBase64Retried.inc();
+    }
+
+    /**
+     * a publish handled by the fallback because the breaker was open or the limiter had no permit
+     */
+    public void shed() {
+        this.rowsShed.inc();
+    }
+
+    /**
+     * a publish not written because it did not change, see {@link ChangeFilter}
+     */
+    public void unchanged() {
+        this.rowsUnchanged.inc();
+    }
+
+    /**
+     * a publish folded into a window, see {@link Aggregator}
+     */
+    public void aggregated() {
+        this.rowsAggregated.inc();
+    }
+
+    /**
+     * an aggregated publish dropped because its window was already written
+     */
+    public void late() {
+        this.rowsLate.inc();
+    }
+
+    /**
+     * a topic replayed from the {@link LastValueCache} without the database
+     */
+    public void historyHit() {
+        this.historyHits.inc();
+    }
+
+    /**
+     * @param topics topics loaded from the database by one query
+     */
+    public void historyQuery(int topics) {
+        this.historyQueries.inc();
+        this.historyLoaded.inc(topics);
+    }
+
+    /**
+     * @param publishes publishes sent to a new subscriber
+     */
+    public void replayed(int publishes) {
+        this.historyReplayed.inc(publishes);
+    }
+
+    public Timer getInterceptorLatency() {
+        return interceptorLatency;
+    }
+
+    public Histogram getBatchRows() {
+        return batchRows;
+    }
+
+    public Counter getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public Counter getRowsFailed() {
+        return rowsFailed;
+    }
+
+    public Counter getRowsBase64Retried() {
+        return rowsBase64Retried;
+    }
+
+    public Counter getRowsShed() {
+        return rowsShed;
+    }
+
+    public Counter getRowsUnchanged() {
+        return rowsUnchanged;
+    }
+
+    public Counter getRowsAggregated() {
+        return rowsAggregated;
+    }
+
+    public Counter getRowsLate() {
+        return rowsLate;
+    }
+
+    public Counter getHistoryHits() {
+        return historyHits;
+    }
+
+    public Counter getHistoryLoaded() {
+        return historyLoaded;
+    }
+
+    public Counter getHistoryQueries() {
+        return historyQueries;
+    }
+
+    public Counter getHistoryReplayed() {
+        return historyReplayed;
+    }
+
+    public Timer getHttpRoundTrip() {
+        return httpRoundTrip;
+    }
+
+    public Timer getJdbcRoundTrip() {
+        return jdbcRoundTrip;
+    }
+}
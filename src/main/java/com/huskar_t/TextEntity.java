@@ -0,0 +1,223 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * {@link TextEntity}
+ * request body of a statement or line protocol, encoded as UTF-8 straight into the connection
+ * in chunks through per-thread buffers instead of one byte array of the whole body, optionally gzip compressed
+ * the deflater, encoder and buffers are reused by all requests of a thread
+ * HttpAsyncClient reads the body through {@link #getContent()}, which still builds it in memory
+ *
+ * @author huskar-t
+ */
+public class TextEntity extends AbstractHttpEntity {
+    private static final int CHUNK = 65536;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private static final class Buffers {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK);
+        private final CharBuffer chars = CharBuffer.allocate(CHUNK / 2);
+        private final CRC32 crc = new CRC32();
+        private Deflater deflater;
+
+        Deflater deflater(int level) {
+            if (this.deflater == null) {
+                this.deflater = new Deflater(level, true);
+            } else {
+                this.deflater.reset();
+                this.deflater.setLevel(level);
+            }
+            return this.deflater;
+        }
+
+        /**
+         * @return number of bytes written
+         */
+        long encode(CharSequence text, OutputStream out, CRC32 crc) throws IOException {
+            // an array backed buffer takes the fast path of the encoder, a wrapped String does not
+            final CharBuffer in = this.chars;
+            in.clear();
+            this.encoder.reset();
+            final int length = text.length();
+            int offset = 0;
+            long size = 0;
+            CoderResult result;
+            while (true) {
+                final int count = Math.min(in.remaining(), length - offset);
+                getChars(text, offset, offset + count, in.array(), in.position());
+                in.position(in.position() + count);
+                offset += count;
+                in.flip();
+                final boolean end = offset == length;
+                do {
+                    result = this.encoder.encode(in, this.bytes, end);
+                    size += this.drain(out, crc);
+                } while (result.isOverflow());
+                // keeps a high surrogate split from its low one for the next chunk
+                in.compact();
+                if (end) {
+                    break;
+                }
+            }
+            do {
+                result = this.encoder.flush(this.bytes);
+                size += this.drain(out, crc);
+            } while (result.isOverflow());
+            return size;
+        }
+
+        private static void getChars(CharSequence text, int start, int end, char[] chars, int offset) {
+            if (text instanceof String) {
+                ((String) text).getChars(start, end, chars, offset);
+            } else if (text instanceof StringBuilder) {
+                ((StringBuilder) text).getChars(start, end, chars, offset);
+            } else {
+                for (int i = start; i < end; i++) {
+                    chars[offset++] = text.charAt(i);
+                }
+            }
+        }
+
+        private int drain(OutputStream out, CRC32 crc) throws IOException {
+            final int length = this.bytes.position();
+            if (length > 0) {
+                out.write(this.bytes.array(), 0, length);
+                if (crc != null) {
+                    crc.update(this.bytes.array(), 0, length);
+                }
+                this.bytes.clear();
+            }
+            return length;
+        }
+    }
+
+    private final CharSequence text;
+    private final int level;
+
+    /**
+     * @param text        body
+     * @param contentType 内容类型
+     * @param gzipLevel   deflate level 0-9, -1 to send the body uncompressed
+     */
+    public TextEntity(CharSequence text, ContentType contentType, int gzipLevel) {
+        this.text = text;
+        this.level = gzipLevel;
+        this.setContentType(contentType.toString());
+        if (gzipLevel >= 0) {
+            this.setContentEncoding("gzip");
+        }
+    }
+
+    public boolean isGzip() {
+        return this.level >= 0;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * @return -1 when compressed, the body is sent chunked then
+     */
+    @Override
+    public long getContentLength() {
+        return this.level >= 0 ? -1 : utf8Length(this.text);
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(this.level >= 0 ? this.text.length() / 4 : this.text.length());
+        this.writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final Buffers buffers = BUFFERS.get();
+        if (this.level < 0) {
+            buffers.encode(this.text, out, null);
+            return;
+        }
+        out.write(GZIP_HEADER);
+        buffers.crc.reset();
+        final DeflaterOutputStream deflate = new DeflaterOutputStream(out, buffers.deflater(this.level), CHUNK);
+        final long size = buffers.encode(this.text, deflate, buffers.crc);
+        deflate.finish();
+        writeIntLE(out, (int) buffers.crc.getValue());
+        writeIntLE(out, (int) size);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private static void writeIntLE(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+    /**
+     * lone surrogates count as the single '?' they are replaced with
+     */
+    static long utf8Length(CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
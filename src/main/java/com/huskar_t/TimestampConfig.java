@@ -0,0 +1,164 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+
+import static com.huskar_t.Util.elementLong;
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link TimestampConfig}
+ * the "timestamp" section of tdengine.xml
+ */
+public class TimestampConfig {
+
+    /**
+     * database precision, timestamps of rows are in this unit
+     */
+    public enum Precision {
+        MS(1), US(1000), NS(1000000);
+
+        private final long perMilli;
+
+        Precision(long perMilli) {
+            this.perMilli = perMilli;
+        }
+
+        public long fromMillis(long millis) {
+            return millis * this.perMilli;
+        }
+
+        /**
+         * @param timestamp in this precision
+         * @return epoch milliseconds
+         */
+        public long toMillis(long timestamp) {
+            return Math.floorDiv(timestamp, this.perMilli);
+        }
+
+        public static Precision parse(String value) {
+            switch (value.toLowerCase()) {
+                case "us":
+                    return US;
+                case "ns":
+                    return NS;
+                default:
+                    return MS;
+            }
+        }
+    }
+
+    /**
+     * where the timestamp of a row comes from
+     */
+    public enum Source {
+        /**
+         * the time HiveMQ received the publish
+         */
+        ARRIVAL,
+        /**
+         * epoch milliseconds in a field of a JSON payload
+         */
+        PAYLOAD,
+        /**
+         * epoch milliseconds in an MQTT 5 user property
+         */
+        PROPERTY;
+
+        public static Source parse(String value) {
+            switch (value.toLowerCase()) {
+                case "payload":
+                    return PAYLOAD;
+                case "property":
+                    return PROPERTY;
+                default:
+                    return ARRIVAL;
+            }
+        }
+    }
+
+    private Precision precision;
+    private Source source;
+    private String field;
+    private String property;
+    private long maxDriftMs;
+
+    /**
+     * @param element timestamp 配置节点,为空时使用默认值
+     */
+    public TimestampConfig(Element element) {
+        this.setPrecision(Precision.parse(elementText(element, "precision", "ms")));
+        this.setSource(Source.parse(elementText(element, "source", "arrival")));
+        this.setField(elementText(element, "field", "ts"));
+        this.setProperty(elementText(element, "property", "ts"));
+        this.setMaxDriftMs(elementLong(element, "maxDriftMs", 1000));
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public void setSource(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * @return JSON path of the timestamp when the source is payload
+     */
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    /**
+     * @return user property name of the timestamp when the source is property
+     */
+    public String getProperty() {
+        return property;
+    }
+
+    public void setProperty(String property) {
+        this.property = property;
+    }
+
+    /**
+     * @return how far the arrival times of a series may be moved ahead to keep them apart, beyond rows share a timestamp
+     */
+    public long getMaxDriftMs() {
+        return maxDriftMs;
+    }
+
+    public void setMaxDriftMs(long maxDriftMs) {
+        if (maxDriftMs < 1) {
+            maxDriftMs = 1;
+        }
+        this.maxDriftMs = maxDriftMs;
+    }
+}
@@ -0,0 +1,71 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+/**
+ * {@link TopicRules}
+ * the include/exclude filters, routes and JSON mappings of tdengine.xml compiled into {@link TopicTrie}s,
+ * a topic is stored when it matches an include filter (or there are none) and no exclude filter
+ * routes and mappings are looked up by topic, the first one declared wins
+ *
+ * @author huskar-t
+ */
+public class TopicRules {
+    private final TopicTrie<String> includes = new TopicTrie<>();
+    private final TopicTrie<String> excludes = new TopicTrie<>();
+    private final TopicTrie<PayloadTable> routes = new TopicTrie<>();
+    private final TopicTrie<JsonMapping> mappings = new TopicTrie<>();
+
+    public void addInclude(String filter) {
+        this.includes.add(filter, filter);
+    }
+
+    public void addExclude(String filter) {
+        this.excludes.add(filter, filter);
+    }
+
+    public void addRoute(String filter, PayloadTable table) {
+        this.routes.add(filter, table);
+    }
+
+    public void addMapping(JsonMapping mapping) {
+        this.mappings.add(mapping.getTopicFilter(), mapping);
+    }
+
+    /**
+     * @param topic 主题
+     * @return false if publishes of the topic are not stored
+     */
+    public boolean accepts(String topic) {
+        return (this.includes.isEmpty() || this.includes.matches(topic)) && !this.excludes.matches(topic);
+    }
+
+    /**
+     * @return table the topic is routed to, null for the default table
+     */
+    public PayloadTable route(String topic) {
+        return this.routes.match(topic);
+    }
+
+    /**
+     * @return JSON mapping of the topic, null if it has none
+     */
+    public JsonMapping mapping(String topic) {
+        return this.mappings.match(topic);
+    }
+}
@@ -0,0 +1,167 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link TopicTrie}
+ * MQTT topic filters compiled into a tree with one level per node, "+" and "#" are children of their own,
+ * matching walks the levels of the topic once so it costs O(topic levels) however many filters there are
+ * when several filters match, the value of the filter added first wins
+ *
+ * @param <T> value bound to a filter
+ * @author huskar-t
+ */
+public class TopicTrie<T> {
+
+    private static final class Entry<T> {
+        private final int order;
+        private final T value;
+
+        private Entry(int order, T value) {
+            this.order = order;
+            this.value = value;
+        }
+    }
+
+    private static final class Node<T> {
+        private Map<String, Node<T>> children;
+        private Node<T> plus;
+        /**
+         * filter ends at this level
+         */
+        private Entry<T> end;
+        /**
+         * filter ends with "#" after this level
+         */
+        private Entry<T> hash;
+
+        private Node<T> child(String level) {
+            if ("+".equals(level)) {
+                if (this.plus == null) {
+                    this.plus = new Node<>();
+                }
+                return this.plus;
+            }
+            if (this.children == null) {
+                this.children = new HashMap<>();
+            }
+            return this.children.computeIfAbsent(level, key -> new Node<>());
+        }
+    }
+
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    /**
+     * @param filter 订阅过滤器
+     * @param value  匹配时返回的值
+     */
+    public void add(String filter, T value) {
+        final Entry<T> entry = new Entry<>(this.size++, value);
+        Node<T> node = this.root;
+        int start = 0;
+        while (true) {
+            int end = filter.indexOf('/', start);
+            if (end < 0) {
+                end = filter.length();
+            }
+            final String level = filter.substring(start, end);
+            if ("#".equals(level)) {
+                if (node.hash == null) {
+                    node.hash = entry;
+                }
+                return;
+            }
+            node = node.child(level);
+            if (end == filter.length()) {
+                if (node.end == null) {
+                    node.end = entry;
+                }
+                return;
+            }
+            start = end + 1;
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @param topic 主题
+     * @return value of the first added filter matching the topic, null if none does
+     */
+    public T match(String topic) {
+        if (this.size == 0) {
+            return null;
+        }
+        final Entry<T> entry;
+        if (topic.startsWith("$")) {
+            // wildcards at the first level don't match topics starting with "$"
+            final Node<T> child = this.root.children == null ? null : this.root.children.get(level(topic, 0));
+            entry = child == null ? null : match(child, topic, next(topic, 0), null);
+        } else {
+            entry = match(this.root, topic, 0, null);
+        }
+        return entry == null ? null : entry.value;
+    }
+
+    public boolean matches(String topic) {
+        return this.match(topic) != null;
+    }
+
+    /**
+     * @param start index of the next level, beyond the end of the topic when all levels were consumed
+     */
+    private static <T> Entry<T> match(Node<T> node, String topic, int start, Entry<T> best) {
+        best = first(best, node.hash);
+        if (start > topic.length()) {
+            return first(best, node.end);
+        }
+        if (node.children != null) {
+            final Node<T> child = node.children.get(level(topic, start));
+            if (child != null) {
+                best = match(child, topic, next(topic, start), best);
+            }
+        }
+        if (node.plus != null) {
+            best = match(node.plus, topic, next(topic, start), best);
+        }
+        return best;
+    }
+
+    private static String level(String topic, int start) {
+        final int end = topic.indexOf('/', start);
+        return topic.substring(start, end < 0 ? topic.length() : end);
+    }
+
+    private static int next(String topic, int start) {
+        final int end = topic.indexOf('/', start);
+        return end < 0 ? topic.length() + 1 : end + 1;
+    }
+
+    private static <T> Entry<T> first(Entry<T> a, Entry<T> b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.order < b.order ? a : b;
+    }
+}
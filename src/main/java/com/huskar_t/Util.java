@@ -1,4 +1,5 @@
 
+
 /*
  * Copyright 2018-present HiveMQ GmbH
  *
@@ -18,24 +19,349 @@
 package com.huskar_t;
 
 import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.dom4j.Element;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 public class Util {
+    public static final Charset DEFAULT_CHARSET = Charset.forName("GBK");
+    /**
+     * per-thread scratch buffers larger than this are not kept after use
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    private static final ThreadLocal<CharsetDecoder> DECODERS = new ThreadLocal<>();
+    private static final ThreadLocal<ByteBuffer> BYTES = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+    private static final ThreadLocal<CharBuffer> CHARS = ThreadLocal.withInitial(() -> CharBuffer.allocate(256));
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
     @Nullable
     public static String getStringFromByteBuffer(final @Nullable ByteBuffer buffer) {
+        return getStringFromByteBuffer(buffer, DEFAULT_CHARSET);
+    }
+
+    /**
+     * decode the remaining bytes without moving the position of the buffer
+     *
+     * @param buffer  payload
+     * @param charset payload 编码
+     * @return String
+     */
+    @Nullable
+    public static String getStringFromByteBuffer(final @Nullable ByteBuffer buffer, final Charset charset) {
         if (buffer == null) {
             return null;
         }
+        final CharsetDecoder decoder = decoder(charset);
+        final int capacity = (int) (buffer.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+        CharBuffer chars = CHARS.get();
+        if (chars.capacity() < capacity) {
+            chars = CharBuffer.allocate(capacity);
+            CHARS.set(chars);
+        }
+        chars.clear();
+        decode(buffer, decoder, chars);
+        chars.flip();
+        final String result = chars.toString();
+        if (chars.capacity() > MAX_RETAINED_CAPACITY) {
+            CHARS.remove();
+        }
+        return result;
+    }
+
+    /**
+     * decode the remaining bytes into the given CharBuffer without moving the position of the source,
+     * heap buffers are read through their backing array, others are copied once with a bulk get
+     *
+     * @param buffer  payload
+     * @param charset payload 编码
+     * @param out     needs room for remaining * maxCharsPerByte chars
+     */
+    public static void decode(final ByteBuffer buffer, final Charset charset, final CharBuffer out) {
+        decode(buffer, decoder(charset), out);
+    }
+
+    public static float maxCharsPerByte(final Charset charset) {
+        return decoder(charset).maxCharsPerByte();
+    }
+
+    /**
+     * @param buffer payload, its position is not moved
+     * @return a heap copy of the remaining bytes that does not depend on the publish any more
+     */
+    public static ByteBuffer copyOf(final ByteBuffer buffer) {
         final byte[] bytes = new byte[buffer.remaining()];
-        for (int i = 0; i < buffer.remaining(); i++) {
-            bytes[i] = buffer.get(i);
+        buffer.duplicate().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * @param buffer payload, its position is not moved
+     * @return two lower case hex digits per byte
+     */
+    public static String hex(final ByteBuffer buffer) {
+        final char[] chars = new char[buffer.remaining() * 2];
+        hex(buffer, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * @param buffer payload, its position is not moved
+     * @param out    needs room for remaining * 2 chars
+     * @param offset 写入位置
+     * @return offset after the last digit
+     */
+    public static int hex(final ByteBuffer buffer, final char[] out, int offset) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            final int b = buffer.get(i) & 0xff;
+            out[offset++] = HEX_DIGITS[b >>> 4];
+            out[offset++] = HEX_DIGITS[b & 0xf];
+        }
+        return offset;
+    }
+
+    /**
+     * @param hex two hex digits per byte, as written by {@link #hex(ByteBuffer)}
+     * @return the bytes
+     * @throws IllegalArgumentException 非十六进制字符
+     */
+    public static byte[] unhex(final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(hex.charAt(i * 2), 16);
+            final int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("not hex: " + hex);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return length of the padded base64 of that many bytes
+     */
+    public static int base64Length(final int bytes) {
+        return (bytes + 2) / 3 * 4;
+    }
+
+    /**
+     * padded base64 with the standard alphabet, the same as {@link java.util.Base64#getEncoder()}
+     *
+     * @param buffer payload, its position is not moved
+     * @param out    needs room for base64Length(remaining) chars
+     * @param offset 写入位置
+     * @return offset after the last char
+     */
+    public static int base64(final ByteBuffer buffer, final char[] out, int offset) {
+        final int limit = buffer.limit();
+        int i = buffer.position();
+        for (; i + 2 < limit; i += 3) {
+            final int bits = (buffer.get(i) & 0xff) << 16 | (buffer.get(i + 1) & 0xff) << 8 | (buffer.get(i + 2) & 0xff);
+            out[offset++] = BASE64_DIGITS[bits >>> 18];
+            out[offset++] = BASE64_DIGITS[(bits >>> 12) & 0x3f];
+            out[offset++] = BASE64_DIGITS[(bits >>> 6) & 0x3f];
+            out[offset++] = BASE64_DIGITS[bits & 0x3f];
+        }
+        if (i < limit) {
+            final boolean two = i + 1 < limit;
+            final int bits = (buffer.get(i) & 0xff) << 16 | (two ? (buffer.get(i + 1) & 0xff) << 8 : 0);
+            out[offset++] = BASE64_DIGITS[bits >>> 18];
+            out[offset++] = BASE64_DIGITS[(bits >>> 12) & 0x3f];
+            out[offset++] = two ? BASE64_DIGITS[(bits >>> 6) & 0x3f] : '=';
+            out[offset++] = '=';
+        }
+        return offset;
+    }
+
+    /**
+     * parse a plain decimal number such as "-12.5" or "1e3" without allocating,
+     * up to 15 significant digits and a power of ten within 22 are exact (one correctly rounded operation),
+     * longer numbers go through Double.parseDouble
+     *
+     * @param buffer payload, its position is not moved
+     * @return NaN if the bytes, without surrounding white space, are not a number
+     */
+    public static double parseDouble(final ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        // bytes are signed, those of multi-byte characters are no white space
+        while (start < end && (buffer.get(start) & 0xff) <= ' ') {
+            start++;
         }
-        Charset charset = Charset.forName("GBK");
-        ByteBuffer buf = ByteBuffer.wrap(bytes);
-        CharBuffer cBuf = charset.decode(buf);
-        return cBuf.toString();
+        while (end > start && (buffer.get(end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+        int i = start;
+        final boolean negative = i < end && buffer.get(i) == '-';
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        boolean any = false;
+        for (; i < end; i++) {
+            final byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa != 0 || b != '0') {
+                    mantissa = digits < 18 ? mantissa * 10 + (b - '0') : mantissa;
+                    digits++;
+                }
+                if (dot) {
+                    scale++;
+                }
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (!any) {
+            return Double.NaN;
+        }
+        int exponent = 0;
+        if (i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            final boolean negativeExponent = i < end && buffer.get(i) == '-';
+            if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                i++;
+            }
+            final int from = i;
+            for (; i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9' && exponent < 10000; i++) {
+                exponent = exponent * 10 + (buffer.get(i) - '0');
+            }
+            if (i == from) {
+                return Double.NaN;
+            }
+            exponent = negativeExponent ? -exponent : exponent;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+        final int power = exponent - scale;
+        if (digits <= 15 && power >= -22 && power <= 22) {
+            final double value = power < 0 ? mantissa / POWERS_OF_TEN[-power] : mantissa * POWERS_OF_TEN[power];
+            return negative ? -value : value;
+        }
+        final byte[] bytes = new byte[end - start];
+        for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = buffer.get(start + j);
+        }
+        return Double.parseDouble(new String(bytes, StandardCharsets.ISO_8859_1));
+    }
+
+    private static void decode(final ByteBuffer buffer, final CharsetDecoder decoder, final CharBuffer out) {
+        ByteBuffer in = buffer.duplicate();
+        final boolean copied = !in.hasArray();
+        if (copied) {
+            // read-only and direct buffers have no accessible array, the decoder would go byte by byte
+            ByteBuffer bytes = BYTES.get();
+            if (bytes.capacity() < in.remaining()) {
+                bytes = ByteBuffer.allocate(in.remaining());
+                BYTES.set(bytes);
+            }
+            bytes.clear();
+            bytes.put(in);
+            bytes.flip();
+            in = bytes;
+        }
+        decoder.reset();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        if (copied && in.capacity() > MAX_RETAINED_CAPACITY) {
+            BYTES.remove();
+        }
+    }
+
+    private static CharsetDecoder decoder(final Charset charset) {
+        CharsetDecoder decoder = DECODERS.get();
+        if (decoder == null || !decoder.charset().equals(charset)) {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            DECODERS.set(decoder);
+        }
+        return decoder;
+    }
+
+    /**
+     * MQTT topic filter matching, "+" matches one level and "#" the rest including the parent level,
+     * wildcards at the first level don't match topics starting with "$"
+     *
+     * @param filter 订阅过滤器
+     * @param topic  主题
+     * @return true if the topic matches the filter
+     */
+    public static boolean matchesTopicFilter(final String filter, final String topic) {
+        if (topic.startsWith("$") && (filter.startsWith("+") || filter.startsWith("#"))) {
+            return false;
+        }
+        final int filterLength = filter.length();
+        final int topicLength = topic.length();
+        int f = 0;
+        int t = 0;
+        while (f < filterLength) {
+            final char c = filter.charAt(f);
+            if (c == '#') {
+                return true;
+            }
+            if (c == '+') {
+                while (t < topicLength && topic.charAt(t) != '/') {
+                    t++;
+                }
+                f++;
+                continue;
+            }
+            if (t < topicLength && topic.charAt(t) == c) {
+                f++;
+                t++;
+                continue;
+            }
+            // "a/#" also matches "a"
+            return t == topicLength && c == '/' && f + 2 == filterLength && filter.charAt(f + 1) == '#';
+        }
+        return t == topicLength;
+    }
+
+    /**
+     * read the trimmed text of a child element, missing or empty elements fall back to the default value
+     *
+     * @param parent       配置节点,可为空
+     * @param name         子节点名称
+     * @param defaultValue 默认值
+     * @return String
+     */
+    public static String elementText(final @Nullable Element parent, final String name, final String defaultValue) {
+        if (parent == null) {
+            return defaultValue;
+        }
+        final String text = parent.elementTextTrim(name);
+        if (text == null || text.equals("")) {
+            return defaultValue;
+        }
+        return text;
+    }
+
+    public static int elementInt(final @Nullable Element parent, final String name, final int defaultValue) {
+        return Integer.parseInt(elementText(parent, name, String.valueOf(defaultValue)));
+    }
+
+    public static long elementLong(final @Nullable Element parent, final String name, final long defaultValue) {
+        return Long.parseLong(elementText(parent, name, String.valueOf(defaultValue)));
+    }
+
+    public static boolean elementBoolean(final @Nullable Element parent, final String name, final boolean defaultValue) {
+        return Boolean.parseBoolean(elementText(parent, name, String.valueOf(defaultValue)));
     }
 }
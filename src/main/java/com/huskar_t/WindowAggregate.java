@@ -0,0 +1,204 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.huskar_t.Util.elementInt;
+import static com.huskar_t.Util.elementLong;
+import static com.huskar_t.Util.elementText;
+
+/**
+ * {@link WindowAggregate}
+ * one "aggregate" of tdengine.xml, numbers published on topics matching the filter are folded into tumbling windows
+ * of windowMs per topic, every closed window is one row (window start, cnt, min, max, avg, last per field)
+ * instead of one row per publish, see {@link Aggregator}
+ * the table is a super table tagged by topic with one subtable per topic, windows are aligned to the epoch so the
+ * windows of all topics share their timestamps and would overwrite each other in one flat table,
+ * the subtables are named like those of the stable section with the table name after its prefix
+ * the numbers are the JSON paths of the fields, or without fields the payload itself as one field named "value"
+ *
+ * @author huskar-t
+ */
+public class WindowAggregate {
+    private static final Logger log = LoggerFactory.getLogger(WindowAggregate.class);
+    private static final String VALUE_FIELD = "value";
+    private static final String[] FUNCTIONS = {"min", "max", "avg", "last"};
+
+    private final String topicFilter;
+    private final String table;
+    private final long windowMs;
+    private final long graceMs;
+    private final int sample;
+    private final List<String> fields = new ArrayList<>();
+    private final JsonExtractor extractor;
+    private final SqlEncoder encoder;
+    private final SubtableCache subtables;
+    private final ThreadLocal<String[]> literals;
+
+    /**
+     * @param element aggregate 配置节点
+     * @param db      数据库名
+     * @param stable  超级表配置, for the subtable prefix and the cache size
+     * @throws Exception 缺少 topic/table
+     */
+    public WindowAggregate(Element element, String db, STableConfig stable) throws Exception {
+        this.topicFilter = elementText(element, "topic", "");
+        this.table = elementText(element, "table", "");
+        if (this.topicFilter.equals("") || this.table.equals("")) {
+            throw new Exception("aggregate requires topic and table");
+        }
+        this.windowMs = Math.max(1, elementLong(element, "windowMs", 1000));
+        this.graceMs = Math.max(0, elementLong(element, "graceMs", 1000));
+        this.sample = Math.max(0, elementInt(element, "sample", 0));
+        final List<String> paths = new ArrayList<>();
+        final Element fieldsElement = element.element("fields");
+        if (fieldsElement != null) {
+            for (Element field : fieldsElement.elements("field")) {
+                final String name = elementText(field, "name", "");
+                if (name.equals("")) {
+                    throw new Exception("aggregate field of table " + this.table + " requires name");
+                }
+                this.fields.add(name);
+                paths.add(elementText(field, "path", name));
+            }
+        }
+        if (this.fields.isEmpty()) {
+            this.fields.add(VALUE_FIELD);
+            this.extractor = null;
+            this.literals = null;
+        } else {
+            this.extractor = new JsonExtractor(paths, Collections.nCopies(paths.size(), JsonMapping.ColumnType.DOUBLE), false);
+            this.literals = ThreadLocal.withInitial(() -> new String[this.fields.size()]);
+        }
+        final StringBuilder template = new StringBuilder(" (%s,%s");
+        for (int i = 0; i < this.fields.size() * FUNCTIONS.length; i++) {
+            template.append(",%s");
+        }
+        template.append(')');
+        this.encoder = new SqlEncoder("insert into", template.toString());
+        this.subtables = new SubtableCache(db, this.table, stable.getSubtablePrefix() + this.table + "_", stable.getCacheSize());
+        log.info("numbers of topic {} aggregated over {} ms into table {} fields {}", this.topicFilter, this.windowMs, this.table, this.fields);
+    }
+
+    public String getTopicFilter() {
+        return topicFilter;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    /**
+     * @return how long after its end a window still takes late publishes
+     */
+    public long getGraceMs() {
+        return graceMs;
+    }
+
+    /**
+     * @return every sample-th publish is written as a raw row as well, 0 for none
+     */
+    public int getSample() {
+        return sample;
+    }
+
+    public int getFieldCount() {
+        return this.fields.size();
+    }
+
+    /**
+     * @param rows the topic followed by (ts, cnt, field_min, field_max, field_avg, field_last...) per window
+     * @return one insert into the subtables of the topics
+     */
+    public String renderRows(List<CharSequence[]> rows) {
+        return this.encoder.encodeAllInto(rows, this.subtables::clause);
+    }
+
+    /**
+     * remember whether the subtables of the rows exist, so the "using" clause is only sent when needed
+     *
+     * @param rows see {@link #renderRows(List)}
+     */
+    public void written(List<CharSequence[]> rows, boolean success) {
+        for (CharSequence[] row : rows) {
+            final String topic = row[0].toString();
+            if (success) {
+                this.subtables.markCreated(topic);
+            } else {
+                this.subtables.invalidate(topic);
+            }
+        }
+    }
+
+    /**
+     * @return the super table (ts, cnt, field_min, field_max, field_avg, field_last...) tagged by topic
+     */
+    public String createTableSql(String db, String topicColumn, int maxlength) {
+        final StringBuilder sql = new StringBuilder(String.format(
+                "create stable if not exists %s.%s (ts timestamp, cnt BIGINT", db, this.table));
+        for (String field : this.fields) {
+            for (String function : FUNCTIONS) {
+                sql.append(", ").append(field).append('_').append(function).append(" DOUBLE");
+            }
+        }
+        return sql.append(String.format(") tags (%s NCHAR(%d))", topicColumn, maxlength)).toString();
+    }
+
+    /**
+     * @param payload 消息内容, its position is not moved
+     * @param charset payload 编码, for JSON fields
+     * @param values  receives one number per field, NaN where the payload has none
+     * @return false if the payload has no number at all
+     */
+    public boolean values(ByteBuffer payload, Charset charset, double[] values) {
+        if (this.extractor == null) {
+            values[0] = Util.parseDouble(payload);
+            return !Double.isNaN(values[0]);
+        }
+        final String[] literals = this.literals.get();
+        if (!this.extractor.extract(Util.getStringFromByteBuffer(payload, charset), literals)) {
+            return false;
+        }
+        boolean found = false;
+        for (int i = 0; i < literals.length; i++) {
+            values[i] = Double.NaN;
+            if (literals[i] != null) {
+                try {
+                    values[i] = Double.parseDouble(literals[i]);
+                    found = true;
+                } catch (NumberFormatException ignored) {
+                    // not a number, left out of the window
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,146 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link WriteExecutor}
+ * runs the blocking writes of single publishes away from the extension executor of HiveMQ,
+ * which is small and shared with other extensions
+ * on JDK 21+ every write gets a virtual thread and a semaphore caps the TDengine calls at maxConcurrency,
+ * waiting writes park their virtual thread only; older JDKs get a pool of maxConcurrency platform threads
+ * the extension is built for Java 11, so the virtual thread executor is looked up at runtime
+ *
+ * @author huskar-t
+ */
+public class WriteExecutor implements Executor {
+    private static final @NotNull Logger log = LoggerFactory.getLogger(WriteExecutor.class);
+    private static final long CLOSE_TIMEOUT_MS = 10000;
+
+    /**
+     * where writes run
+     */
+    public enum Type {
+        /**
+         * extension executor of HiveMQ
+         */
+        HIVEMQ,
+        /**
+         * a virtual thread per write, platform threads before JDK 21
+         */
+        VIRTUAL,
+        /**
+         * a pool of platform threads
+         */
+        PLATFORM;
+
+        public static Type parse(String value) {
+            switch (value.toLowerCase()) {
+                case "virtual":
+                    return VIRTUAL;
+                case "platform":
+                    return PLATFORM;
+                case "hivemq":
+                    return HIVEMQ;
+                default:
+                    log.error("executor type {} unsupported using hivemq", value);
+                    return HIVEMQ;
+            }
+        }
+    }
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+
+    /**
+     * @param config executor 配置, type virtual or platform
+     */
+    public WriteExecutor(ExecutorConfig config) {
+        final ExecutorService virtual = config.getType() == Type.VIRTUAL ? newVirtualThreadPerTaskExecutor() : null;
+        if (virtual != null) {
+            this.delegate = virtual;
+            this.permits = new Semaphore(config.getMaxConcurrency());
+            log.info("tdengine writes run on virtual threads, at most {} at a time", config.getMaxConcurrency());
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            this.delegate = Executors.newFixedThreadPool(config.getMaxConcurrency(), runnable -> {
+                final Thread thread = new Thread(runnable, "tdengine-write-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.permits = null;
+        }
+    }
+
+    /**
+     * @return null before JDK 21
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.info("virtual threads are not available on java {}, using platform threads", System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    /**
+     * @return true if writes run on virtual threads
+     */
+    public boolean isVirtual() {
+        return this.permits != null;
+    }
+
+    @Override
+    public void execute(@NotNull Runnable command) {
+        if (this.permits == null) {
+            this.delegate.execute(command);
+            return;
+        }
+        this.delegate.execute(() -> {
+            this.permits.acquireUninterruptibly();
+            try {
+                command.run();
+            } finally {
+                this.permits.release();
+            }
+        });
+    }
+
+    /**
+     * finish the writes already handed in
+     */
+    public void close() {
+        this.delegate.shutdown();
+        try {
+            this.delegate.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
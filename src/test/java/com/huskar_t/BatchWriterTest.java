@@ -0,0 +1,245 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the batching of {@link BatchWriter} against a {@link TDengine} that only records the batches.
+ */
+class BatchWriterTest {
+
+    @TempDir
+    Path folder;
+
+    private final List<List<Row>> batches = new CopyOnWriteArrayList<>();
+
+    private String writeConfig(String batch) throws Exception {
+        final File config = folder.resolve("tdengine.xml").toFile();
+        Files.write(config.toPath(), ("<tdengine><type>http</type><ip>127.0.0.1</ip><port>6041</port>" +
+                "<username>root</username><password>taosdata</password><db>hivemq</db><table>mqtt_payload</table>" +
+                "<topicColumn>topic</topicColumn><PayloadColumn>payload</PayloadColumn><maxlength>64</maxlength>" +
+                "<httpLock>false</httpLock><batch>" + batch + "</batch></tdengine>").getBytes(StandardCharsets.UTF_8));
+        return config.getAbsolutePath();
+    }
+
+    private TDengine recordingTDengine(String batch) throws Exception {
+        return new TDengine(writeConfig(batch)) {
+            @Override
+            public boolean saveBatch(List<Row> rows) {
+                batches.add(new ArrayList<>(rows));
+                return true;
+            }
+        };
+    }
+
+    private static ByteBuffer payload(String payload) {
+        return ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void test_flush_on_max_rows() throws Exception {
+        final TDengine tdengine = recordingTDengine("<maxRows>10</maxRows><lingerMs>5000</lingerMs>");
+        final BatchWriter writer = new BatchWriter(tdengine, tdengine.getBatchConfig());
+        writer.start();
+        for (int i = 0; i < 25; i++) {
+            assertTrue(writer.offer(new Row(System.currentTimeMillis(), "test/hivemq", payload("payload" + i))));
+        }
+        while (batches.size() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, batches.get(0).size());
+        assertEquals(10, batches.get(1).size());
+        writer.close();
+        assertEquals(3, batches.size());
+        assertEquals(5, batches.get(2).size());
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void test_fail_when_queue_full() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final TDengine tdengine = new TDengine(writeConfig("<queueSize>2</queueSize><maxRows>1</maxRows><overflow>fail</overflow>")) {
+            @Override
+            public boolean saveBatch(List<Row> rows) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+        final BatchWriter writer = new BatchWriter(tdengine, tdengine.getBatchConfig());
+        writer.start();
+        // the flusher takes the first row and blocks, two more fill the queue
+        assertTrue(writer.offer(new Row(System.currentTimeMillis(), "test/hivemq", payload("1"))));
+        while (writer.queueSize() > 0) {
+            Thread.sleep(1);
+        }
+        assertTrue(writer.offer(new Row(System.currentTimeMillis(), "test/hivemq", payload("2"))));
+        assertTrue(writer.offer(new Row(System.currentTimeMillis(), "test/hivemq", payload("3"))));
+        assertFalse(writer.offer(new Row(System.currentTimeMillis(), "test/hivemq", payload("4"))));
+        release.countDown();
+        writer.close();
+    }
+
+    /**
+     * the parked output of one publish, records how the batch writer resumed it
+     */
+    private static final class Parked implements InvocationHandler {
+        private final CountDownLatch resumed = new CountDownLatch(1);
+        private volatile boolean prevented;
+        @SuppressWarnings("unchecked")
+        private final Async<PublishInboundOutput> async = (Async<PublishInboundOutput>) Proxy.newProxyInstance(
+                Parked.class.getClassLoader(), new Class<?>[]{Async.class, PublishInboundOutput.class}, this);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getOutput":
+                    return proxy;
+                case "preventPublishDelivery":
+                    this.prevented = true;
+                    return null;
+                case "resume":
+                    this.resumed.countDown();
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void test_group_commit() throws Exception {
+        final AtomicBoolean succ = new AtomicBoolean(true);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TDengine tdengine = new TDengine(writeConfig("<maxRows>3</maxRows><lingerMs>5000</lingerMs><ack>commit</ack>")) {
+            @Override
+            public boolean saveBatch(List<Row> rows) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                batches.add(new ArrayList<>(rows));
+                return succ.get();
+            }
+        };
+        assertEquals(BatchWriter.AckMode.COMMIT, tdengine.getBatchConfig().getAck());
+        final BatchWriter writer = new BatchWriter(tdengine, tdengine.getBatchConfig());
+        writer.start();
+        final List<Parked> parked = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            parked.add(new Parked());
+            assertTrue(writer.offer(i, "test/hivemq", payload("payload" + i), parked.get(i).async));
+        }
+        // an idle flusher writes without lingerMs, but no publish continues before its batch was written
+        Thread.sleep(50);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, parked.get(i).resumed.getCount());
+        }
+        release.countDown();
+        for (int i = 0; i < 3; i++) {
+            parked.get(i).resumed.await();
+            assertFalse(parked.get(i).prevented);
+        }
+        int rows = 0;
+        for (List<Row> batch : batches) {
+            rows += batch.size();
+        }
+        assertEquals(3, rows);
+
+        // a failed batch without a spool fails its publishes with the drop fallback
+        succ.set(false);
+        for (int i = 3; i < 6; i++) {
+            parked.add(new Parked());
+            assertTrue(writer.offer(i, "test/hivemq", payload("payload" + i), parked.get(i).async));
+        }
+        for (int i = 3; i < 6; i++) {
+            parked.get(i).resumed.await();
+            assertTrue(parked.get(i).prevented);
+        }
+        writer.close();
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void test_drop_oldest_and_payload_copied() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> written = new CopyOnWriteArrayList<>();
+        final TDengine tdengine = new TDengine(writeConfig("<queueSize>3</queueSize><maxRows>2</maxRows><lingerMs>0</lingerMs>" +
+                "<overflow>drop_oldest</overflow>")) {
+            @Override
+            public boolean saveBatch(List<Row> rows) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // the rows are only valid during the call
+                for (Row row : rows) {
+                    written.add(row.getTimestamp() + " " + row.getTopic() + " " + Util.getStringFromByteBuffer(row.getPayload(), StandardCharsets.UTF_8));
+                }
+                return true;
+            }
+        };
+        final BatchWriter writer = new BatchWriter(tdengine, tdengine.getBatchConfig());
+        writer.start();
+        final ByteBuffer payload = payload("0");
+        assertTrue(writer.offer(0, "test/0", payload));
+        while (writer.queueSize() > 0) {
+            Thread.sleep(1);
+        }
+        for (int i = 1; i <= 5; i++) {
+            payload.put(0, (byte) ('0' + i));
+            assertTrue(writer.offer(i, "test/" + i, payload));
+        }
+        assertEquals(3, writer.queueSize());
+        release.countDown();
+        writer.close();
+        assertEquals(Arrays.asList("0 test/0 0", "3 test/3 3", "4 test/4 4", "5 test/5 5"), written);
+    }
+}
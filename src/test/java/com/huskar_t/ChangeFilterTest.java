@@ -0,0 +1,128 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests which publishes {@link ChangeFilter} lets through.
+ */
+class ChangeFilterTest {
+
+    private static ByteBuffer payload(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * a publish whose row is written once accepted
+     */
+    private static boolean write(ChangeFilter filter, String topic, ByteBuffer payload, long received) {
+        if (!filter.accept(topic, payload, received)) {
+            return false;
+        }
+        filter.written(topic, payload, received);
+        return true;
+    }
+
+    @Test
+    void test_identical_payloads_skipped_until_heartbeat() {
+        final DedupConfig config = new DedupConfig(null);
+        config.setHeartbeatMs(1000);
+        final ChangeFilter filter = new ChangeFilter(config, StandardCharsets.UTF_8);
+
+        assertTrue(write(filter, "a", payload("on"), 0));
+        assertFalse(write(filter, "a", payload("on"), 10));
+        assertTrue(write(filter, "b", payload("on"), 10));
+        assertTrue(write(filter, "a", payload("off"), 20));
+        assertFalse(write(filter, "a", payload("off"), 999));
+        assertTrue(write(filter, "a", payload("off"), 1020));
+
+        final ByteBuffer buffer = payload("off");
+        write(filter, "a", buffer, 1030);
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void test_value_counts_once_written() {
+        final DedupConfig config = new DedupConfig(null);
+        config.setDeadband(1);
+        final ChangeFilter filter = new ChangeFilter(config, StandardCharsets.UTF_8);
+
+        // shed or failed, nothing to compare with
+        assertTrue(filter.accept("t", payload("20"), 0));
+        assertTrue(filter.accept("t", payload("20"), 1));
+        filter.written("t", payload("20"), 2);
+        assertFalse(filter.accept("t", payload("20.5"), 3));
+        // a newer value that was not written does not move the baseline
+        assertTrue(filter.accept("t", payload("22"), 4));
+        assertFalse(filter.accept("t", payload("20.5"), 5));
+        assertTrue(filter.accept("t", payload("22"), 6));
+    }
+
+    @Test
+    void test_deadband() {
+        final DedupConfig config = new DedupConfig(null);
+        config.setDeadband(0.5);
+        config.setPercent(10);
+        final ChangeFilter filter = new ChangeFilter(config, StandardCharsets.UTF_8);
+
+        assertTrue(write(filter, "t", payload("20.0"), 0));
+        // 10% of 20 is the larger band
+        assertFalse(write(filter, "t", payload("21.5"), 1));
+        assertFalse(write(filter, "t", payload("18"), 2));
+        assertTrue(write(filter, "t", payload("22.5"), 3));
+
+        assertTrue(write(filter, "small", payload("1"), 0));
+        assertFalse(write(filter, "small", payload("1.4"), 1));
+        assertTrue(write(filter, "small", payload("1.6"), 2));
+        assertTrue(write(filter, "small", payload("text"), 3));
+        assertFalse(write(filter, "small", payload("text"), 4));
+    }
+
+    @Test
+    void test_json_path_deadband() {
+        final DedupConfig config = new DedupConfig(null);
+        config.setDeadband(1);
+        config.setPath("$.temp");
+        final ChangeFilter filter = new ChangeFilter(config, StandardCharsets.UTF_8);
+
+        assertTrue(write(filter, "t", payload("{\"temp\":20,\"seq\":1}"), 0));
+        assertFalse(write(filter, "t", payload("{\"temp\":20.5,\"seq\":2}"), 1));
+        assertTrue(write(filter, "t", payload("{\"temp\":21.5,\"seq\":3}"), 2));
+        assertTrue(write(filter, "t", payload("{\"seq\":4}"), 3));
+    }
+
+    @Test
+    void test_capacity_bounded() {
+        final DedupConfig config = new DedupConfig(null);
+        config.setCapacity(1);
+        final ChangeFilter filter = new ChangeFilter(config, StandardCharsets.UTF_8);
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(write(filter, "topic/" + i, payload("x"), i));
+        }
+        // the most recent topics are still known
+        assertFalse(write(filter, "topic/99999", payload("x"), 100000));
+    }
+}
@@ -0,0 +1,59 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the states of {@link CircuitBreaker}.
+ */
+class CircuitBreakerTest {
+
+    @Test
+    void test_open_probe_close() throws Exception {
+        final OverloadConfig config = new OverloadConfig(null);
+        config.setBreakerFailures(3);
+        config.setBreakerOpenMs(50);
+        final CircuitBreaker breaker = new CircuitBreaker(config);
+
+        breaker.failed();
+        breaker.failed();
+        breaker.succeeded();
+        breaker.failed();
+        breaker.failed();
+        assertTrue(breaker.allow());
+        breaker.failed();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allow());
+
+        Thread.sleep(60);
+        assertTrue(breaker.allow());
+        assertFalse(breaker.allow());
+        breaker.failed();
+        assertFalse(breaker.allow());
+
+        Thread.sleep(60);
+        assertTrue(breaker.allow());
+        breaker.succeeded();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allow());
+    }
+}
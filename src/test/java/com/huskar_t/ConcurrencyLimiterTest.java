@@ -0,0 +1,75 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests how {@link ConcurrencyLimiter} follows the latency of the writes.
+ */
+class ConcurrencyLimiterTest {
+
+    private static OverloadConfig config(int initial) {
+        final OverloadConfig config = new OverloadConfig(null);
+        config.setInitialLimit(initial);
+        config.setMinLimit(2);
+        config.setMaxLimit(8);
+        return config;
+    }
+
+    @Test
+    void test_no_permit_over_limit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(config(4));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        assertEquals(4, limiter.getInflight());
+        // a write that never started gives its permit back without a latency sample
+        limiter.cancel();
+        assertEquals(3, limiter.getInflight());
+        assertEquals(4, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release(System.nanoTime(), true);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void test_grows_while_fast_and_shrinks_on_failure() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(config(4));
+        for (int i = 0; i < 1000; i++) {
+            while (limiter.tryAcquire()) {
+                // fill the limit so it is used
+            }
+            limiter.release(System.nanoTime() - 1000000, true);
+        }
+        assertEquals(8, limiter.getLimit(), 0.001);
+
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(1);
+            limiter.release(System.nanoTime(), false);
+            limiter.tryAcquire();
+        }
+        assertEquals(2, limiter.getLimit(), 0.001);
+    }
+}
@@ -0,0 +1,105 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests how {@link EndpointRing} spreads topics and moves them off endpoints that are down.
+ */
+class EndpointRingTest {
+
+    private static List<Endpoint> endpoints(ClusterConfig config, int count) {
+        final List<Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            endpoints.add(new Endpoint("10.0.0." + i, "6041", config));
+        }
+        return endpoints;
+    }
+
+    @Test
+    void test_topics_spread_evenly() {
+        final EndpointRing ring = new EndpointRing(endpoints(new ClusterConfig(null), 3), 160);
+        final int[] counts = new int[3];
+        for (int i = 0; i < 30000; i++) {
+            counts[ring.primary("factory/line" + (i % 100) + "/sensor" + i)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 8000, Arrays.toString(counts));
+        }
+    }
+
+    @Test
+    void test_new_endpoint_only_takes_topics() {
+        final ClusterConfig config = new ClusterConfig(null);
+        final List<Endpoint> endpoints = endpoints(config, 4);
+        final EndpointRing three = new EndpointRing(endpoints.subList(0, 3), 160);
+        final EndpointRing four = new EndpointRing(endpoints, 160);
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            final String topic = "sensor/" + i;
+            final int before = three.primary(topic);
+            final int after = four.primary(topic);
+            if (before != after) {
+                assertEquals(3, after);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1500 && moved < 3500, String.valueOf(moved));
+    }
+
+    @Test
+    void test_down_endpoint_skipped() {
+        final ClusterConfig config = new ClusterConfig(null);
+        config.setFailureThreshold(2);
+        final List<Endpoint> endpoints = endpoints(config, 3);
+        final EndpointRing ring = new EndpointRing(endpoints, 160);
+        String topic = null;
+        for (int i = 0; topic == null; i++) {
+            if (ring.primary("sensor/" + i) == 1) {
+                topic = "sensor/" + i;
+            }
+        }
+        final Endpoint own = endpoints.get(1);
+        assertSame(own, ring.pick(topic));
+
+        own.failed();
+        own.succeeded(0);
+        own.failed();
+        assertSame(own, ring.pick(topic));
+        own.failed();
+        assertNotSame(own, ring.pick(topic));
+        assertEquals(1, ring.primary(topic));
+        assertSame(ring.pick(topic), ring.pick(topic));
+
+        for (Endpoint endpoint : endpoints) {
+            endpoint.failed();
+            endpoint.failed();
+        }
+        assertSame(own, ring.pick(topic));
+    }
+}
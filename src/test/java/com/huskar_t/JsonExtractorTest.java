@@ -0,0 +1,60 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the typed literals rendered by {@link JsonExtractor}.
+ */
+class JsonExtractorTest {
+
+    private final JsonExtractor extractor = new JsonExtractor(
+            Arrays.asList("$.temp", "device.ok", "device.count", "ts", "name"),
+            Arrays.asList(JsonMapping.ColumnType.DOUBLE, JsonMapping.ColumnType.BOOL, JsonMapping.ColumnType.INT,
+                    JsonMapping.ColumnType.TIMESTAMP, JsonMapping.ColumnType.NCHAR));
+
+    @Test
+    void test_extract_nested_and_skip_unmapped() {
+        final String[] literals = new String[5];
+        assertTrue(extractor.extract("{\"skip\":[1,{\"temp\":9},\"x\"],\"temp\":21.5," +
+                "\"device\":{\"ok\":true,\"count\":3.7,\"other\":{\"a\":null}},\"ts\":1600000000000,\"name\":\"it's\"}", literals));
+        assertArrayEquals(new String[]{"21.5", "true", "3", "1600000000000", "'it\\'s'"}, literals);
+    }
+
+    @Test
+    void test_missing_and_mismatched_values_are_null() {
+        final String[] literals = new String[5];
+        assertTrue(extractor.extract("{\"temp\":\"abc\",\"device\":1,\"ts\":\"2021-01-01 00:00:00.000\"}", literals));
+        assertArrayEquals(new String[]{"null", "null", "null", "'2021-01-01 00:00:00.000'", "null"}, literals);
+    }
+
+    @Test
+    void test_not_an_object() {
+        final String[] literals = new String[5];
+        assertFalse(extractor.extract("ascII test", literals));
+        assertFalse(extractor.extract("[1,2]", literals));
+        assertFalse(extractor.extract("{\"temp\":1,", literals));
+    }
+}
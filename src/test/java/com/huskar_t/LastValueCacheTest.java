@@ -0,0 +1,107 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.DocumentHelper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the rings, the merge with database rows and the eviction of {@link LastValueCache}.
+ */
+class LastValueCacheTest {
+
+    private static LastValueCache cache(String xml) throws Exception {
+        return new LastValueCache(new HistoryConfig(DocumentHelper.parseText("<history>" + xml + "</history>").getRootElement()));
+    }
+
+    private static ByteBuffer utf8(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> payloads(List<Row> rows) {
+        final List<String> payloads = new ArrayList<>();
+        for (Row row : rows) {
+            payloads.add(StandardCharsets.UTF_8.decode(row.getPayload().duplicate()).toString());
+        }
+        return payloads;
+    }
+
+    @Test
+    void test_ring_keeps_last_values() throws Exception {
+        final LastValueCache cache = cache("<topic>sensors/#</topic><count>3</count><maxAgeMs>1000</maxAgeMs>");
+        assertFalse(cache.matches("other"));
+        cache.add("other", 1, utf8("x"));
+        assertEquals(0, cache.size());
+
+        final ByteBuffer payload = utf8("v1");
+        cache.add("sensors/a", 100, payload);
+        assertEquals(0, payload.position());
+        payload.put(0, (byte) 'x');
+        cache.add("sensors/a", 200, utf8("v2"));
+        // the database may have older values
+        assertNull(cache.get("sensors/a", 300, false));
+        assertEquals(Arrays.asList("v1", "v2"), payloads(cache.get("sensors/a", 300, true)));
+        cache.add("sensors/a", 300, utf8("v3"));
+        cache.add("sensors/a", 400, utf8("v4"));
+        assertEquals(Arrays.asList("v2", "v3", "v4"), payloads(cache.get("sensors/a", 400, false)));
+        // older than maxAgeMs
+        assertEquals(Arrays.asList("v3", "v4"), payloads(cache.get("sensors/a", 1250, false)));
+        assertNull(cache.get("sensors/b", 400, false));
+        assertTrue(cache.get("sensors/b", 400, true).isEmpty());
+    }
+
+    @Test
+    void test_load_merges_older_rows() throws Exception {
+        final LastValueCache cache = cache("<count>3</count><maxAgeMs>0</maxAgeMs>");
+        cache.add("a", 300, utf8("v3"));
+        cache.load("a", Arrays.asList(
+                new Row(100, "a", utf8("v1")),
+                new Row(200, "a", utf8("v2")),
+                new Row(300, "a", utf8("v3"))));
+        assertEquals(Arrays.asList("v1", "v2", "v3"), payloads(cache.get("a", 0, false)));
+        cache.add("a", 400, utf8("v4"));
+        assertEquals(Arrays.asList("v2", "v3", "v4"), payloads(cache.get("a", 0, false)));
+        // a topic without rows is complete and empty
+        cache.load("b", Collections.emptyList());
+        assertTrue(cache.get("b", 0, false).isEmpty());
+    }
+
+    @Test
+    void test_least_recently_used_evicted() throws Exception {
+        final LastValueCache cache = cache("<capacity>2</capacity>");
+        cache.add("sensors/a", 1, utf8("a"));
+        cache.add("sensors/b", 1, utf8("b"));
+        cache.get("sensors/a", 1, true);
+        cache.add("other/c", 1, utf8("c"));
+        assertEquals(2, cache.size());
+        assertEquals(Collections.singletonList("sensors/a"), cache.topics("sensors/+"));
+        assertEquals(Arrays.asList("sensors/a", "other/c"), cache.topics("#"));
+    }
+}
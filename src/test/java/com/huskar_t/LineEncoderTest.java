@@ -0,0 +1,76 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.dom4j.DocumentHelper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This tests the line protocol rendered by {@link LineEncoder}.
+ */
+class LineEncoderTest {
+
+    private static LineEncoder encoder(String xml) throws Exception {
+        return encoder(xml, TimestampConfig.Precision.MS);
+    }
+
+    private static LineEncoder encoder(String xml, TimestampConfig.Precision precision) throws Exception {
+        final SchemalessConfig config = new SchemalessConfig(
+                DocumentHelper.parseText("<schemaless>" + xml + "</schemaless>").getRootElement(), "mqtt_payload", "topic");
+        return new LineEncoder(config, "payload", StandardCharsets.UTF_8, precision);
+    }
+
+    @Test
+    void test_default_topic_tag_and_payload_field() throws Exception {
+        final LineEncoder encoder = encoder("");
+        assertEquals("mqtt_payload,topic=a/b\\ c payload=L\"say \\\"hi\\\"\\nC:\\\\\" 1600000000000",
+                encoder.encode(1600000000000L, "a/b c", "say \"hi\"\nC:\\"));
+    }
+
+    @Test
+    void test_topic_levels_and_fields() throws Exception {
+        final LineEncoder encoder = encoder("<measurement>{0}_data</measurement>" +
+                "<tags><tag><name>site</name><value>{1}</value></tag><tag><name>device</name><value>{2}</value></tag></tags>" +
+                "<fields><field><name>temp</name><path>$.v.temp</path></field>" +
+                "<field><name>count</name><type>BIGINT</type></field>" +
+                "<field><name>ok</name><type>BOOL</type></field>" +
+                "<field><name>name</name><type>NCHAR(16)</type></field>" +
+                "<field><name>ts</name><path>time</path><type>TIMESTAMP</type></field></fields>");
+        assertEquals("sensors_data,site=s1,device=d\\=1 temp=21.5f64,count=3i64,ok=true,name=L\"x,y\" 1600000000123",
+                encoder.encode(1, "sensors/s1/d=1", "{\"v\":{\"temp\":21.5},\"count\":3,\"ok\":true,\"name\":\"x,y\",\"time\":1600000000123}"));
+        // missing levels leave their tag out, missing values their field
+        assertEquals("sensors_data,site=s1 count=1i64 2", encoder.encode(2, "sensors/s1", "{\"count\":1}"));
+        // no mapped field at all, the payload is kept as it is
+        assertEquals("sensors_data payload=L\"raw\" 3", encoder.encode(3, "sensors", "raw"));
+    }
+
+    @Test
+    void test_payload_timestamp_in_database_precision() throws Exception {
+        final LineEncoder encoder = encoder("<fields><field><name>temp</name></field>" +
+                "<field><name>ts</name><path>time</path><type>TIMESTAMP</type></field></fields>", TimestampConfig.Precision.NS);
+        assertEquals("mqtt_payload,topic=a temp=1f64 1600000000123000000",
+                encoder.encode(1, "a", "{\"temp\":1,\"time\":1600000000123}"));
+        // the receive time is in database precision already
+        assertEquals("mqtt_payload,topic=a temp=1f64 1600000000123000001",
+                encoder.encode(1600000000123000001L, "a", "{\"temp\":1}"));
+    }
+}
@@ -0,0 +1,98 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the timestamps handed out by {@link SeriesClock}.
+ */
+class SeriesClockTest {
+
+    @Test
+    void test_timestamps_strictly_increasing() {
+        final SeriesClock clock = new SeriesClock(16, 60000);
+        long last = 0;
+        for (int i = 0; i < 10000; i++) {
+            final long next = clock.next("a", System.currentTimeMillis());
+            assertTrue(next > last);
+            last = next;
+        }
+        assertEquals(100, clock.next("b", 100));
+    }
+
+    @Test
+    void test_concurrent_timestamps_unique() throws Exception {
+        final SeriesClock clock = new SeriesClock(16, 60000);
+        final Set<Long> timestamps = ConcurrentHashMap.newKeySet();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 10000; j++) {
+                    timestamps.add(clock.next("a", 1000));
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, timestamps.size());
+    }
+
+    @Test
+    void test_least_recently_used_forgotten() {
+        final SeriesClock clock = new SeriesClock(2, 1000);
+        clock.next("a", 1);
+        clock.next("b", 2);
+        clock.next("a", 3);
+        clock.next("c", 6);
+        assertEquals(2, clock.size());
+        assertEquals(4, clock.next("a", 3));
+        // forgotten, a new series starts at the arrival time
+        assertEquals(2, clock.next("b", 2));
+        assertEquals(2, clock.size());
+    }
+
+    @Test
+    void test_drift_limited() {
+        final SeriesClock clock = new SeriesClock(16, 3);
+        assertEquals(100, clock.next("a", 100));
+        assertEquals(101, clock.next("a", 100));
+        assertEquals(102, clock.next("a", 100));
+        assertEquals(103, clock.next("a", 100));
+        // no further ahead of the arrival time than the drift
+        assertEquals(103, clock.next("a", 100));
+        assertEquals(104, clock.next("a", 101));
+        assertEquals(105, clock.next("a", 105));
+    }
+}
@@ -0,0 +1,166 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the segment files of {@link Spool} and the replay into a {@link StubTDengineServer}.
+ */
+class SpoolTest {
+
+    @TempDir
+    Path folder;
+
+    private static SpoolConfig config(int segmentBytes, long maxBytes) {
+        final SpoolConfig config = new SpoolConfig(null);
+        config.setEnable(true);
+        config.setSegmentBytes(segmentBytes);
+        config.setMaxBytes(maxBytes);
+        config.setRetryIntervalMs(50);
+        return config;
+    }
+
+    private static Row row(long timestamp, String payload) {
+        return new Row(timestamp, "test/hivemq", ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String payload(Row row) {
+        return Util.getStringFromByteBuffer(row.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void test_read_commit_across_segments() throws Exception {
+        final Spool spool = new Spool(folder.toFile(), config(4096, 1 << 20));
+        spool.open();
+        assertTrue(spool.isEmpty());
+        for (int i = 0; i < 200; i++) {
+            assertTrue(spool.append(row(i, "payload of row " + i)));
+        }
+        assertTrue(spool.segmentCount() > 1);
+        assertFalse(spool.isEmpty());
+
+        // rows are released only by commit
+        final List<Row> first = spool.read(50, Integer.MAX_VALUE);
+        assertEquals(first.size(), spool.read(50, Integer.MAX_VALUE).size());
+        assertEquals(0, first.get(0).getTimestamp());
+
+        final List<Row> rows = new ArrayList<>();
+        List<Row> batch;
+        while (!(batch = spool.read(50, Integer.MAX_VALUE)).isEmpty()) {
+            rows.addAll(batch);
+            spool.commit();
+        }
+        assertEquals(200, rows.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, rows.get(i).getTimestamp());
+            assertEquals("payload of row " + i, payload(rows.get(i)));
+        }
+        assertTrue(spool.isEmpty());
+        assertEquals(1, spool.segmentCount());
+        spool.close();
+    }
+
+    @Test
+    void test_rows_survive_reopen() throws Exception {
+        final Spool spool = new Spool(folder.toFile(), config(4096, 1 << 20));
+        spool.open();
+        for (int i = 0; i < 10; i++) {
+            spool.append(row(i, "中文 " + i));
+        }
+        spool.close();
+
+        final Spool reopened = new Spool(folder.toFile(), config(4096, 1 << 20));
+        reopened.open();
+        assertFalse(reopened.isEmpty());
+        final List<Row> rows = reopened.read(100, Integer.MAX_VALUE);
+        assertEquals(10, rows.size());
+        assertEquals("中文 9", payload(rows.get(9)));
+        reopened.commit();
+        assertTrue(reopened.read(100, Integer.MAX_VALUE).isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    void test_reject_over_quota() throws Exception {
+        final Spool spool = new Spool(folder.toFile(), config(4096, 8192));
+        spool.open();
+        int appended = 0;
+        while (spool.append(row(appended, "payload of row " + appended))) {
+            appended++;
+        }
+        assertTrue(appended > 0);
+        assertEquals(2, spool.segmentCount());
+        // reading releases space for new rows
+        while (!spool.read(1000, Integer.MAX_VALUE).isEmpty()) {
+            spool.commit();
+        }
+        assertTrue(spool.append(row(appended, "payload after replay")));
+        spool.close();
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_replay_after_recovery() throws Exception {
+        try (StubTDengineServer server = new StubTDengineServer()) {
+            final TDengine tdengine = new TDengine(server.writeConfig(folder, ""));
+            assertTrue(tdengine.connect());
+            final SpoolConfig config = config(1 << 16, 1 << 20);
+            final Spool spool = new Spool(folder.resolve("spool").toFile(), config);
+            spool.open();
+            tdengine.setSpool(spool);
+
+            server.setResponder(sql -> StubTDengineServer.ERROR);
+            for (int i = 0; i < 5; i++) {
+                assertFalse(tdengine.saveData(1600000000000L + i, "test/hivemq", "payload" + i).get());
+            }
+            assertFalse(spool.isEmpty());
+
+            final SpoolReplayer replayer = new SpoolReplayer(tdengine, spool, config, 1000, 60000);
+            replayer.start();
+            Thread.sleep(200);
+            assertFalse(spool.isEmpty());
+
+            server.setResponder(sql -> StubTDengineServer.SUCC);
+            while (!spool.isEmpty()) {
+                Thread.sleep(10);
+            }
+            final String last = server.getStatements().get(server.getStatements().size() - 1);
+            assertTrue(last.startsWith("import into hivemq.mqtt_payload values ("));
+            for (int i = 0; i < 5; i++) {
+                assertTrue(last.contains(",'test/hivemq','payload" + i + "')"));
+            }
+            replayer.close();
+            spool.close();
+            tdengine.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the statements rendered by {@link SqlEncoder}.
+ */
+class SqlEncoderTest {
+
+    private final SqlEncoder encoder = new SqlEncoder("import into hivemq.mqtt_payload values", " (%s,'%s','%s')");
+
+    @Test
+    void test_single_row() {
+        assertEquals("import into hivemq.mqtt_payload values (now,'test/hivemq','ascII test')",
+                encoder.encode("now", "test/hivemq", "ascII test"));
+    }
+
+    @Test
+    void test_escape_quote_and_backslash() {
+        assertEquals("import into hivemq.mqtt_payload values (now,'it\\'s','C:\\\\temp\\\\\\'x\\'')",
+                encoder.encode("now", "it's", "C:\\temp\\'x'"));
+    }
+
+    @Test
+    void test_rows() {
+        assertEquals("import into hivemq.mqtt_payload values (1,'a','1') (2,'b','\\'2\\'')",
+                encoder.encode(Arrays.asList(new Row(1, "a", gbk("1")), new Row(2, "b", gbk("'2'")))));
+    }
+
+    @Test
+    void test_rows_decode_payload_in_place() {
+        final ByteBuffer direct = ByteBuffer.allocateDirect(32);
+        direct.put(gbk("中文'测试\\"));
+        direct.flip();
+        assertEquals("import into hivemq.mqtt_payload values (1,'it\\'s','中文\\'测试\\\\') (2,'b','中文')",
+                encoder.encode(Arrays.asList(new Row(1, "it's", direct), new Row(2, "b", gbk("中文").asReadOnlyBuffer()))));
+        // the payload can be rendered again, e.g. when the batch is retried
+        assertEquals(10, direct.remaining());
+    }
+
+    @Test
+    void test_rows_grouped_by_table() {
+        final SqlEncoder stable = new SqlEncoder("insert into", " (%s,'%s')");
+        assertEquals("insert into db.a values (1,'1') (3,'3') db.b using db.st tags ('b') values (2,'2')",
+                stable.encodeInto(Arrays.asList(new Row(1, "a", gbk("1")), new Row(2, "b", gbk("2")), new Row(3, "a", gbk("3"))),
+                        topic -> "a".equals(topic) ? "db.a" : "db.b using db.st tags ('b')"));
+        assertEquals("insert into db.a values (now,'it\\'s')", stable.encodeInto("db.a", "now", "it's"));
+    }
+
+    @Test
+    void test_rows_hex_and_base64_payload() {
+        final ByteBuffer binary = ByteBuffer.wrap(new byte[]{'\'', 0, (byte) 0xc3, '\\'}).asReadOnlyBuffer();
+        final SqlEncoder hex = new SqlEncoder("import into db.raw values", " (%s,'%s','%s')", Util.DEFAULT_CHARSET, PayloadTable.Encoding.HEX);
+        assertEquals("import into db.raw values (1,'a','2700c35c')", hex.encode(Collections.singletonList(new Row(1, "a", binary))));
+        final SqlEncoder base64 = new SqlEncoder("import into db.raw values", " (%s,'%s','%s')", Util.DEFAULT_CHARSET, PayloadTable.Encoding.BASE64);
+        assertEquals("import into db.raw values (1,'a','JwDDXA==')", base64.encode(Collections.singletonList(new Row(1, "a", binary))));
+        assertEquals(4, binary.remaining());
+    }
+
+    @Test
+    void test_estimate_covers_rendered_rows() {
+        final List<Row> rows = Arrays.asList(
+                new Row(1600000000000L, "it's", ByteBuffer.wrap("it's 'quoted' \\".getBytes(StandardCharsets.UTF_8))),
+                new Row(1600000000001L, "it's", ByteBuffer.wrap("中文".getBytes(StandardCharsets.UTF_8))),
+                new Row(1600000000002L, "b", ByteBuffer.wrap("b".getBytes(StandardCharsets.UTF_8))));
+        final STableConfig flat = new STableConfig(null);
+        final STableConfig stable = new STableConfig(null);
+        stable.setEnable(true);
+        for (STableConfig config : Arrays.asList(flat, stable)) {
+            for (PayloadTable.Encoding encoding : PayloadTable.Encoding.values()) {
+                final PayloadTable table = new PayloadTable("hivemq", "mqtt_payload", StandardCharsets.UTF_8, encoding, config);
+                final String prefix = config.isEnable() ? "insert into" : "import into hivemq.mqtt_payload values";
+                final int rendered = table.renderRows(rows).getBytes(StandardCharsets.UTF_8).length - prefix.length();
+                int estimate = 0;
+                String previous = null;
+                for (Row row : rows) {
+                    estimate += table.estimateSize(row.getTopic(), row.getPayload(), row.getTopic().equals(previous));
+                    previous = row.getTopic();
+                }
+                // only the timestamps are reserved at their longest
+                assertTrue(rendered <= estimate && estimate <= rendered + rows.size() * 7, encoding + ": " + rendered + " " + estimate);
+            }
+        }
+    }
+
+    private static ByteBuffer gbk(String payload) {
+        return ByteBuffer.wrap(payload.getBytes(Charset.forName("GBK")));
+    }
+
+    @Test
+    void test_reuse_does_not_leak_previous_statement() {
+        encoder.encode("now", "a long topic that fills the buffer", "a long payload that fills the buffer");
+        assertEquals("import into hivemq.mqtt_payload values (now,'a','b')", encoder.encode("now", "a", "b"));
+    }
+}
@@ -0,0 +1,106 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the columnar row storage and the reuse of {@link StagingBuffer}.
+ */
+class StagingBufferTest {
+
+    private static ByteBuffer payload(String payload) {
+        return ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(Row row) {
+        return Util.getStringFromByteBuffer(row.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void test_rows_view_the_arena() {
+        final StagingBuffer buffer = new StagingBuffer(3, 1024, true);
+        final ByteBuffer first = payload("xfirst");
+        first.position(1);
+        assertTrue(buffer.add(1, "a", first));
+        assertEquals(1, first.position());
+        // the bytes were copied, the publish may reuse its buffer
+        first.put(1, (byte) 'F');
+        assertTrue(buffer.add(2, "b", payload("中文")));
+        assertTrue(buffer.add(3, "c", payload("")));
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.add(4, "d", payload("4")));
+
+        final List<Row> rows = buffer.rows();
+        assertEquals(3, rows.size());
+        assertEquals(1, rows.get(0).getTimestamp());
+        assertEquals("a", rows.get(0).getTopic());
+        assertEquals("first", text(rows.get(0)));
+        assertEquals("中文", text(rows.get(1)));
+        assertEquals("", text(rows.get(2)));
+
+        buffer.dropFirst();
+        assertEquals(2, buffer.size());
+        assertEquals("b", buffer.rows().get(0).getTopic());
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.add(5, "e", payload("again")));
+        final Row row = buffer.rows().get(0);
+        assertEquals("again", text(row));
+        // the view of the first row is reused
+        assertTrue(row == rows.get(0));
+    }
+
+    @Test
+    void test_max_bytes() {
+        final StagingBuffer buffer = new StagingBuffer(100, 100, false);
+        // an empty buffer takes a row beyond maxBytes as long as the payload fits the arena
+        assertTrue(buffer.add(1, "a", ByteBuffer.allocate(90)));
+        assertTrue(buffer.isFull());
+        buffer.clear();
+        assertTrue(buffer.add(1, "a", ByteBuffer.allocate(40)));
+        assertFalse(buffer.isFull());
+        assertFalse(buffer.add(2, "a", ByteBuffer.allocate(40)));
+        assertTrue(buffer.add(2, "a", ByteBuffer.allocate(10)));
+        assertFalse(buffer.add(3, "a", ByteBuffer.allocate(101)));
+    }
+
+    @Test
+    void test_sizer_sees_topic_groups() {
+        final List<Boolean> grouped = new ArrayList<>();
+        final StagingBuffer buffer = new StagingBuffer(10, 100, false, (topic, payload, same) -> {
+            grouped.add(same);
+            return 40;
+        });
+        assertTrue(buffer.add(1, "a", payload("1")));
+        assertTrue(buffer.add(2, "a", payload("2")));
+        // the statement would exceed maxBytes although the payloads are tiny
+        assertFalse(buffer.add(3, "b", payload("3")));
+        assertEquals(Arrays.asList(false, true, false), grouped);
+    }
+}
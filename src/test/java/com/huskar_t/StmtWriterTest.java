@@ -0,0 +1,76 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests how {@link StmtWriter} arranges rows into bound columns, binding itself needs the native sdk.
+ */
+class StmtWriterTest {
+
+    private static Row row(long timestamp, String topic, String payload) {
+        return new Row(timestamp, topic, ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static final List<Row> ROWS = Arrays.asList(
+            row(1, "a", "it's"),
+            row(2, "b", "中文"),
+            row(3, "a", "3"));
+
+    @Test
+    void test_flat_table_columns() {
+        final STableConfig stable = new STableConfig(null);
+        final StmtWriter writer = new StmtWriter(new PayloadTable("hivemq", "mqtt_payload", StandardCharsets.UTF_8, stable), StandardCharsets.UTF_8, 64);
+        assertEquals("insert into ? values (?, ?, ?)", writer.getSql());
+
+        final List<StmtWriter.Columns> columns = new ArrayList<>(writer.columns(ROWS));
+        assertEquals(1, columns.size());
+        assertEquals("hivemq.mqtt_payload", columns.get(0).getTable());
+        assertEquals(Arrays.asList(1L, 2L, 3L), columns.get(0).getTimestamps());
+        assertEquals(Arrays.asList("a", "b", "a"), columns.get(0).getTopics());
+        // payloads are bound as they are, without escaping
+        assertEquals(Arrays.asList("it's", "中文", "3"), columns.get(0).getPayloads());
+    }
+
+    @Test
+    void test_subtable_columns() {
+        final STableConfig stable = new STableConfig(null);
+        stable.setEnable(true);
+        final StmtWriter writer = new StmtWriter(new PayloadTable("hivemq", "mqtt_payload", StandardCharsets.UTF_8, stable), StandardCharsets.UTF_8, 64);
+        assertEquals("insert into ? using hivemq.mqtt_payload tags (?) values (?, ?)", writer.getSql());
+
+        final List<StmtWriter.Columns> columns = new ArrayList<>(writer.columns(ROWS));
+        assertEquals(2, columns.size());
+        assertTrue(columns.get(0).getTable().startsWith("hivemq.t_"));
+        assertEquals(Arrays.asList(1L, 3L), columns.get(0).getTimestamps());
+        assertEquals(Arrays.asList("it's", "3"), columns.get(0).getPayloads());
+        assertNull(columns.get(0).getTopics());
+        assertEquals(Arrays.asList("中文"), columns.get(1).getPayloads());
+    }
+}
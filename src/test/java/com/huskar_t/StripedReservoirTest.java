@@ -0,0 +1,68 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.codahale.metrics.Snapshot;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This tests the buckets and quantiles of {@link StripedReservoir}.
+ */
+class StripedReservoirTest {
+
+    @Test
+    void test_buckets_cover_all_values() {
+        int last = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            final int bucket = StripedReservoir.bucket(value);
+            assertEquals(last == bucket ? last : last + 1, bucket);
+            last = bucket;
+            final long lower = StripedReservoir.lowerBound(bucket);
+            assertEquals(true, lower <= value && value - lower <= value / 16);
+        }
+        assertEquals(StripedReservoir.bucket(Long.MAX_VALUE), StripedReservoir.bucket(Long.MAX_VALUE - 1));
+        assertEquals(0, StripedReservoir.bucket(-5));
+    }
+
+    @Test
+    void test_quantiles() {
+        final StripedReservoir reservoir = new StripedReservoir();
+        for (long value = 1; value <= 10000; value++) {
+            reservoir.update(value);
+        }
+        final Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(10000, snapshot.size());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(5000.5, snapshot.getMean(), 0.001);
+        assertEquals(5000, snapshot.getMedian(), 5000 * 0.04);
+        assertEquals(9900, snapshot.get99thPercentile(), 9900 * 0.04);
+        assertEquals(10000, snapshot.getValue(1.0), 10000 * 0.04);
+        assertEquals(2887, snapshot.getStdDev(), 2887 * 0.04);
+    }
+
+    @Test
+    void test_empty_snapshot() {
+        final Snapshot snapshot = new StripedReservoir().getSnapshot();
+        assertEquals(0, snapshot.size());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0.0, snapshot.get99thPercentile());
+    }
+}
@@ -0,0 +1,167 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * local stand-in for the TDengine REST endpoints /rest/sql and /influxdb/v1/write,
+ * it records every statement and line protocol body and answers with whatever the responder returns
+ * gzip request bodies are decompressed
+ */
+class StubTDengineServer implements AutoCloseable {
+    static final String SUCC = "{\"status\":\"succ\",\"head\":[\"affected_rows\"],\"data\":[[1]],\"rows\":1}";
+    static final String ERROR = "{\"status\":\"error\",\"code\":534,\"desc\":\"Syntax error in SQL\"}";
+
+    static {
+        // headers and body are separate writes, with Nagle every answer waits for the delayed ack of the client
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final List<String> statements = new CopyOnWriteArrayList<>();
+    private final List<String> lines = new CopyOnWriteArrayList<>();
+    private volatile Function<String, String> responder = sql -> SUCC;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicInteger gzipRequests = new AtomicInteger();
+
+    StubTDengineServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/rest/sql", exchange -> {
+            final String sql = read(exchange);
+            this.statements.add(sql);
+            final String response = this.responder.apply(sql);
+            final byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            // TDengine answers errors with http 400
+            exchange.sendResponseHeaders(response.contains("\"succ\"") ? 200 : 400, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        this.server.createContext("/influxdb/v1/write", exchange -> {
+            final String body = read(exchange);
+            this.lines.add(exchange.getRequestURI().getQuery() + "\n" + body);
+            if (this.responder.apply(body).contains("\"succ\"")) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                final byte[] bytes = "{\"code\":-1,\"message\":\"invalid line\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(500, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+            exchange.close();
+        });
+        this.server.start();
+    }
+
+    private String read(HttpExchange exchange) throws IOException {
+        final byte[] wire = readAll(exchange.getRequestBody());
+        this.bytesReceived.addAndGet(wire.length);
+        if (!"gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            return new String(wire, StandardCharsets.UTF_8);
+        }
+        this.gzipRequests.incrementAndGet();
+        return new String(readAll(new GZIPInputStream(new ByteArrayInputStream(wire))), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        try (InputStream in = input) {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        }
+    }
+
+    int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * @return request body bytes as sent, before gunzip
+     */
+    long getBytesReceived() {
+        return this.bytesReceived.get();
+    }
+
+    int getGzipRequests() {
+        return this.gzipRequests.get();
+    }
+
+    List<String> getStatements() {
+        return this.statements;
+    }
+
+    /**
+     * @return query string and body of every line protocol write, separated by a line break
+     */
+    List<String> getLines() {
+        return this.lines;
+    }
+
+    void setResponder(Function<String, String> responder) {
+        this.responder = responder;
+    }
+
+    /**
+     * @param folder   目录
+     * @param extraXml additional sections of tdengine.xml
+     * @return path of a tdengine.xml pointing at this server
+     */
+    String writeConfig(Path folder, String extraXml) throws IOException {
+        return this.writeConfig(folder, "http", extraXml);
+    }
+
+    /**
+     * @param type connection type
+     */
+    String writeConfig(Path folder, String type, String extraXml) throws IOException {
+        final Path config = folder.resolve("tdengine.xml");
+        Files.write(config, ("<tdengine><type>" + type + "</type><ip>127.0.0.1</ip><port>" + this.getPort() + "</port>" +
+                "<username>root</username><password>taosdata</password><db>hivemq</db><table>mqtt_payload</table>" +
+                "<topicColumn>topic</topicColumn><PayloadColumn>payload</PayloadColumn><maxlength>64</maxlength>" +
+                "<httpLock>false</httpLock>" + extraXml + "</tdengine>").getBytes(StandardCharsets.UTF_8));
+        return config.toString();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}
@@ -0,0 +1,63 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * This tests the table clauses and the eviction of {@link SubtableCache}.
+ */
+class SubtableCacheTest {
+
+    @Test
+    void test_clause_after_created() {
+        final SubtableCache cache = new SubtableCache("hivemq", "mqtt_payload", "t_", 10);
+        final String using = cache.clause("it's/topic");
+        assertEquals("hivemq.t_", using.substring(0, 9));
+        assertEquals(9 + 32, using.indexOf(' '));
+        assertEquals(" using hivemq.mqtt_payload tags ('it\\'s/topic')", using.substring(using.indexOf(' ')));
+        assertEquals(using.substring(7, 9 + 32), cache.name("it's/topic"));
+        // the history reads do not fill the cache of the writes
+        assertEquals("t_", cache.name("other").substring(0, 2));
+        assertEquals(1, cache.size());
+        cache.markCreated("it's/topic");
+        assertEquals(using.substring(0, using.indexOf(' ')), cache.clause("it's/topic"));
+        cache.invalidate("it's/topic");
+        assertEquals(using, cache.clause("it's/topic"));
+        // a/b and a_b must not share a subtable
+        assertNotEquals(cache.clause("a/b"), cache.clause("a_b"));
+    }
+
+    @Test
+    void test_least_recently_used_evicted() {
+        final SubtableCache cache = new SubtableCache("hivemq", "mqtt_payload", "t_", 2);
+        final SubtableCache.Entry a = cache.get("a");
+        cache.get("b");
+        assertSame(a, cache.get("a"));
+        cache.get("c");
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("a"));
+        assertNotSame(cache.get("b"), cache.get("c"));
+        assertEquals(2, cache.size());
+    }
+}
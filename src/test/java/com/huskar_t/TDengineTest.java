@@ -0,0 +1,547 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import com.hivemq.extension.sdk.api.packets.subscribe.SubackReasonCode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the REST write path of {@link TDengine} against a {@link StubTDengineServer}.
+ */
+class TDengineTest {
+
+    @TempDir
+    Path folder;
+
+    private StubTDengineServer server;
+    private TDengine tdengine;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new StubTDengineServer();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (tdengine != null) {
+            tdengine.close();
+        }
+        server.close();
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_async_save_data() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<http><async>true</async></http>"));
+        assertTrue(tdengine.connect());
+        assertEquals("create database if not exists hivemq", server.getStatements().get(0));
+
+        assertTrue(tdengine.saveData(1600000000001L, "test/hivemq", "ascII test").get());
+        assertEquals("import into hivemq.mqtt_payload values (1600000000001,'test/hivemq','ascII test')",
+                server.getStatements().get(server.getStatements().size() - 1));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_async_save_data_retries_base64() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<http><async>true</async></http>"));
+        assertTrue(tdengine.connect());
+        server.setResponder(sql -> sql.contains("bad") ? StubTDengineServer.ERROR : StubTDengineServer.SUCC);
+
+        assertTrue(tdengine.saveData(1600000000001L, "test/hivemq", "bad").get());
+        assertEquals("import into hivemq.mqtt_payload values (1600000000001,'test/hivemq','YmFk')",
+                server.getStatements().get(server.getStatements().size() - 1));
+
+        server.setResponder(sql -> StubTDengineServer.ERROR);
+        assertFalse(tdengine.saveData(1600000000001L, "test/hivemq", "bad").get());
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_stable_subtable_created_once() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<stable><enable>true</enable></stable>"));
+        assertTrue(tdengine.connect());
+        assertEquals("create stable if not exists hivemq.mqtt_payload (ts timestamp, payload NCHAR(64)) tags (topic NCHAR(64))",
+                server.getStatements().get(1));
+
+        assertTrue(tdengine.saveData(1600000000001L, "test/hivemq", "first").get());
+        final String first = server.getStatements().get(server.getStatements().size() - 1);
+        assertTrue(first.startsWith("insert into hivemq.t_"));
+        assertTrue(first.endsWith(" using hivemq.mqtt_payload tags ('test/hivemq') values (1600000000001,'first')"));
+        final String subtable = first.substring("insert into ".length(), first.indexOf(' ', "insert into ".length()));
+
+        assertTrue(tdengine.saveData(1600000000001L, "test/hivemq", "second").get());
+        assertEquals("insert into " + subtable + " values (1600000000001,'second')",
+                server.getStatements().get(server.getStatements().size() - 1));
+
+        // a failed write falls back to the using clause in case the subtable was dropped
+        server.setResponder(sql -> sql.contains(" using ") ? StubTDengineServer.SUCC : StubTDengineServer.ERROR);
+        assertTrue(tdengine.saveData(1600000000001L, "test/hivemq", "third").get());
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_json_mapping() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<mappings><mapping><topic>sensors/+/telemetry</topic><table>telemetry</table><columns>" +
+                "<column><name>ts</name><path>time</path><type>TIMESTAMP</type></column>" +
+                "<column><name>temp</name><path>$.temp</path><type>DOUBLE</type></column>" +
+                "<column><name>ok</name><type>BOOL</type></column>" +
+                "</columns></mapping></mappings>"));
+        assertTrue(tdengine.connect());
+        assertEquals("create table if not exists hivemq.telemetry (ts timestamp, topic NCHAR(64), temp DOUBLE, ok BOOL)",
+                server.getStatements().get(2));
+
+        assertTrue(tdengine.saveData(1600000000001L, "sensors/a/telemetry", "{\"temp\":21.5,\"ok\":false,\"time\":1600000000000}").get());
+        assertEquals("import into hivemq.telemetry values (1600000000000,'sensors/a/telemetry',21.5,false)",
+                server.getStatements().get(server.getStatements().size() - 1));
+        assertTrue(tdengine.saveData(1600000000001L, "sensors/a/telemetry", "{\"temp\":20}").get());
+        assertEquals("import into hivemq.telemetry values (1600000000001,'sensors/a/telemetry',20,null)",
+                server.getStatements().get(server.getStatements().size() - 1));
+
+        // payloads that are not JSON objects and other topics keep going to the payload table
+        assertTrue(tdengine.saveData(1600000000001L, "sensors/a/telemetry", "ascII test").get());
+        assertEquals("import into hivemq.mqtt_payload values (1600000000001,'sensors/a/telemetry','ascII test')",
+                server.getStatements().get(server.getStatements().size() - 1));
+
+        final List<Row> rows = Arrays.asList(
+                new Row(1, "sensors/b/telemetry", ByteBuffer.wrap("{\"temp\":1}".getBytes(StandardCharsets.UTF_8))),
+                new Row(2, "other", ByteBuffer.wrap("x".getBytes(StandardCharsets.UTF_8))),
+                new Row(3, "sensors/c/telemetry", ByteBuffer.wrap("{\"temp\":3}".getBytes(StandardCharsets.UTF_8))));
+        assertTrue(tdengine.saveBatch(rows));
+        final List<String> statements = server.getStatements();
+        assertEquals("import into hivemq.telemetry values (1,'sensors/b/telemetry',1,null) (3,'sensors/c/telemetry',3,null)",
+                statements.get(statements.size() - 2));
+        assertEquals("import into hivemq.mqtt_payload values (2,'other','x')", statements.get(statements.size() - 1));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_json_mapping_timestamp_precision() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<timestamp><precision>us</precision></timestamp>" +
+                "<mappings><mapping><topic>sensors/+/telemetry</topic><table>telemetry</table><columns>" +
+                "<column><name>ts</name><path>time</path><type>TIMESTAMP</type></column>" +
+                "<column><name>temp</name><type>DOUBLE</type></column>" +
+                "</columns></mapping></mappings>"));
+        assertTrue(tdengine.connect());
+        // epoch milliseconds of the payload are moved to the precision of the database
+        assertTrue(tdengine.saveData(1600000000001000L, "sensors/a/telemetry", "{\"temp\":1,\"time\":1600000000000}").get());
+        assertEquals("import into hivemq.telemetry values (1600000000000000,'sensors/a/telemetry',1)",
+                server.getStatements().get(server.getStatements().size() - 1));
+        assertTrue(tdengine.saveBatch(Collections.singletonList(new Row(1600000000001000L, "sensors/b/telemetry",
+                ByteBuffer.wrap("{\"temp\":2,\"time\":1600000000002}".getBytes(StandardCharsets.UTF_8))))));
+        assertEquals("import into hivemq.telemetry values (1600000000002000,'sensors/b/telemetry',2)",
+                server.getStatements().get(server.getStatements().size() - 1));
+        // dates are parsed by TDengine
+        assertTrue(tdengine.saveData(1600000000001000L, "sensors/a/telemetry", "{\"temp\":3,\"time\":\"2020-09-13 12:26:40\"}").get());
+        assertEquals("import into hivemq.telemetry values ('2020-09-13 12:26:40','sensors/a/telemetry',3)",
+                server.getStatements().get(server.getStatements().size() - 1));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_window_aggregate() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<aggregates>" +
+                "<aggregate><topic>sensors/+/temp</topic><table>temp_1s</table><graceMs>0</graceMs></aggregate>" +
+                "<aggregate><topic>sensors/+/env</topic><table>env_1s</table><sample>2</sample><fields>" +
+                "<field><name>t</name><path>temp</path></field><field><name>h</name><path>$.humidity</path></field>" +
+                "</fields></aggregate></aggregates>"));
+        assertTrue(tdengine.connect());
+        assertTrue(server.getStatements().contains("create stable if not exists hivemq.temp_1s (ts timestamp, cnt BIGINT, " +
+                "value_min DOUBLE, value_max DOUBLE, value_avg DOUBLE, value_last DOUBLE) tags (topic NCHAR(64))"));
+        final SubtableCache temp = new SubtableCache("hivemq", "temp_1s", "t_temp_1s_", 10);
+        final SubtableCache env = new SubtableCache("hivemq", "env_1s", "t_env_1s_", 10);
+        final Aggregator aggregator = tdengine.getAggregator();
+        final TDengineMetrics metrics = tdengine.getMetrics();
+        // windows an hour ahead are never closed by the ticker
+        final long base = (System.currentTimeMillis() / 1000 + 3600) * 1000;
+
+        assertFalse(aggregator.accept("sensors/a/temp", utf8("21.5"), () -> base + 100));
+        assertFalse(aggregator.accept("sensors/a/temp", utf8("20"), () -> base + 200));
+        assertFalse(aggregator.accept("sensors/a/temp", utf8(" 23\n"), () -> base + 999));
+        assertFalse(aggregator.accept("sensors/a/temp", utf8("22"), () -> base + 1000));
+        // not a number and not an aggregated topic
+        assertTrue(aggregator.accept("sensors/a/temp", utf8("offline"), () -> base));
+        assertTrue(aggregator.accept("sensors/a/other", utf8("1"), () -> base));
+        final int statements = server.getStatements().size();
+
+        aggregator.flush(base + 1000);
+        assertEquals(statements + 1, server.getStatements().size());
+        assertEquals("insert into " + temp.clause("sensors/a/temp") + " values (" + base + ",3,20.0,23.0,21.5,23.0)",
+                server.getStatements().get(statements));
+        temp.markCreated("sensors/a/temp");
+        // the window was written
+        assertFalse(aggregator.accept("sensors/a/temp", utf8("30"), () -> base + 500));
+        assertEquals(1, metrics.getRowsLate().getCount());
+
+        // every second publish is also written as it is
+        assertTrue(aggregator.accept("sensors/b/env", utf8("{\"temp\":20,\"humidity\":40}"), () -> base));
+        assertFalse(aggregator.accept("sensors/b/env", utf8("{\"temp\":22}"), () -> base + 10));
+        assertTrue(aggregator.accept("sensors/b/env", utf8("{\"status\":\"ok\"}"), () -> base + 20));
+        aggregator.close();
+        final List<String> written = server.getStatements().subList(statements + 1, server.getStatements().size());
+        assertEquals(2, written.size());
+        // the subtable exists now
+        assertTrue(written.contains("insert into " + temp.clause("sensors/a/temp") + " values (" + (base + 1000) + ",1,22.0,22.0,22.0,22.0)"));
+        assertTrue(written.contains("insert into " + env.clause("sensors/b/env") + " values (" + base + ",2,20.0,22.0,21.0,22.0,40.0,40.0,40.0,40.0)"));
+        assertEquals(7, metrics.getRowsAggregated().getCount());
+        assertEquals(0, aggregator.size());
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_window_aggregate_topics_share_window() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<aggregates>" +
+                "<aggregate><topic>sensors/+/temp</topic><table>temp_1s</table><graceMs>0</graceMs></aggregate></aggregates>"));
+        assertTrue(tdengine.connect());
+        final Aggregator aggregator = tdengine.getAggregator();
+        final long base = (System.currentTimeMillis() / 1000 + 3600) * 1000;
+        assertFalse(aggregator.accept("sensors/a/temp", utf8("1"), () -> base + 100));
+        assertFalse(aggregator.accept("sensors/b/temp", utf8("2"), () -> base + 200));
+        assertFalse(aggregator.accept("sensors/a/temp", utf8("3"), () -> base + 300));
+        final int statements = server.getStatements().size();
+        aggregator.flush(base + 1000);
+
+        // the same window start in two subtables, neither row overwrites the other
+        final SubtableCache subtables = new SubtableCache("hivemq", "temp_1s", "t_temp_1s_", 10);
+        assertNotEquals(subtables.table("sensors/a/temp"), subtables.table("sensors/b/temp"));
+        final String a = " " + subtables.clause("sensors/a/temp") + " values (" + base + ",2,1.0,3.0,2.0,3.0)";
+        final String b = " " + subtables.clause("sensors/b/temp") + " values (" + base + ",1,2.0,2.0,2.0,2.0)";
+        assertEquals(statements + 1, server.getStatements().size());
+        final String insert = server.getStatements().get(statements);
+        assertTrue(insert.equals("insert into" + a + b) || insert.equals("insert into" + b + a), insert);
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_history_replay() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<history><enable>true</enable><topic>sensors/#</topic>" +
+                "<count>2</count><maxAgeMs>0</maxAgeMs><batchMs>200</batchMs></history>"));
+        assertTrue(tdengine.connect());
+        server.setResponder(sql -> sql.startsWith("select ts") ? "{\"status\":\"succ\",\"head\":[\"ts\",\"topic\",\"payload\"]," +
+                "\"data\":[[3000,\"sensors/a\",\"v3\"],[2000,\"sensors/a\",\"v2\"],[1000,\"sensors/a\",\"v1\"]],\"rows\":3}"
+                : StubTDengineServer.SUCC);
+        final LastValueCache cache = tdengine.getHistory();
+        tdengine.remember(10, "sensors/hot", utf8("h1"));
+        tdengine.remember(20, "sensors/hot", utf8("h2"));
+        final HistoryLoader loader = new HistoryLoader(tdengine, cache, tdengine.getHistoryConfig());
+        loader.start();
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        final CountDownLatch replayed = new CountDownLatch(6);
+        final HistoryInterceptor interceptor = new HistoryInterceptor(cache, loader, tdengine.getMetrics(), (clientId, row, qos) -> {
+            sent.add(clientId + " " + row.getTopic() + " " + StandardCharsets.UTF_8.decode(row.getPayload().duplicate()) +
+                    " " + row.getTimestamp() + " " + qos.getQosNumber());
+            replayed.countDown();
+        });
+        try {
+            // a reconnect storm, both clients are answered by one query
+            interceptor.subscribed("c1", 1, Arrays.asList("sensors/hot", "sensors/a", "sensors/b", "other", "$share/g/sensors/a"));
+            interceptor.subscribed("c2", 7, Collections.singletonList("sensors/a"));
+            interceptor.acknowledged("c1", 1, Arrays.asList(SubackReasonCode.GRANTED_QOS_1, SubackReasonCode.GRANTED_QOS_0,
+                    SubackReasonCode.GRANTED_QOS_1, SubackReasonCode.GRANTED_QOS_1, SubackReasonCode.GRANTED_QOS_1));
+            assertEquals(Arrays.asList("c1 sensors/hot h1 10 1", "c1 sensors/hot h2 20 1"), sent);
+            interceptor.acknowledged("c2", 7, Collections.singletonList(SubackReasonCode.GRANTED_QOS_2));
+            replayed.await();
+            // the replays of loaded topics run on the loader thread
+            loader.close();
+            final List<String> selects = new ArrayList<>();
+            for (String statement : server.getStatements()) {
+                if (statement.startsWith("select ts")) {
+                    selects.add(statement);
+                }
+            }
+            // every topic has its own limit
+            assertEquals(Collections.singletonList("select ts, topic, payload from hivemq.mqtt_payload " +
+                    "where topic = 'sensors/a' order by ts desc limit 2 union all " +
+                    "select ts, topic, payload from hivemq.mqtt_payload " +
+                    "where topic = 'sensors/b' order by ts desc limit 2"), selects);
+            assertTrue(sent.containsAll(Arrays.asList("c1 sensors/a v2 2000 0", "c1 sensors/a v3 3000 0",
+                    "c2 sensors/a v2 2000 2", "c2 sensors/a v3 3000 2")));
+            assertTrue(sent.indexOf("c1 sensors/a v2 2000 0") < sent.indexOf("c1 sensors/a v3 3000 0"));
+
+            // loaded topics are hot now, a wildcard replays the topics of the cache
+            interceptor.subscribed("c3", 1, Collections.singletonList("sensors/+"));
+            interceptor.acknowledged("c3", 1, Collections.singletonList(SubackReasonCode.GRANTED_QOS_1));
+            interceptor.subscribed("c4", 1, Collections.singletonList("sensors/a"));
+            interceptor.acknowledged("c4", 1, Collections.singletonList(SubackReasonCode.NOT_AUTHORIZED));
+            assertEquals(10, sent.size());
+            assertTrue(sent.containsAll(Arrays.asList("c3 sensors/hot h2 20 1", "c3 sensors/a v3 3000 1")));
+            assertEquals(1, selects.size());
+            final TDengineMetrics metrics = tdengine.getMetrics();
+            assertEquals(4, metrics.getHistoryHits().getCount());
+            assertEquals(2, metrics.getHistoryLoaded().getCount());
+            assertEquals(1, metrics.getHistoryQueries().getCount());
+            assertEquals(10, metrics.getHistoryReplayed().getCount());
+        } finally {
+            loader.close();
+        }
+    }
+
+    private static ByteBuffer utf8(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_route_to_other_database() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<rules><exclude>factory/+/debug</exclude>" +
+                "<route><topic>factory/#</topic><db>factory</db><table>factory_payload</table></route></rules>"));
+        assertTrue(tdengine.connect());
+        assertTrue(server.getStatements().contains("create database if not exists factory"));
+        assertTrue(server.getStatements().contains("create table if not exists factory.factory_payload (ts timestamp, topic NCHAR(64), payload NCHAR(64))"));
+        assertFalse(tdengine.accepts("factory/a/debug"));
+
+        final List<Row> rows = Arrays.asList(
+                new Row(1, "factory/a", ByteBuffer.wrap("1".getBytes(StandardCharsets.UTF_8))),
+                new Row(2, "other", ByteBuffer.wrap("2".getBytes(StandardCharsets.UTF_8))),
+                new Row(3, "factory/b", ByteBuffer.wrap("3".getBytes(StandardCharsets.UTF_8))));
+        assertTrue(tdengine.saveBatch(rows));
+        final List<String> statements = server.getStatements();
+        assertEquals("import into factory.factory_payload values (1,'factory/a','1') (3,'factory/b','3')",
+                statements.get(statements.size() - 2));
+        assertEquals("import into hivemq.mqtt_payload values (2,'other','2')", statements.get(statements.size() - 1));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_route_payload_encoding() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<rules>" +
+                "<route><topic>raw/#</topic><table>raw_payload</table><encoding>hex</encoding></route>" +
+                "<route><topic>utf8/#</topic><table>utf8_payload</table><charset>UTF-8</charset></route></rules>"));
+        assertTrue(tdengine.connect());
+        assertTrue(server.getStatements().contains("create table if not exists hivemq.raw_payload (ts timestamp, topic NCHAR(64), payload BINARY(128))"));
+        assertTrue(tdengine.isRaw("raw/a"));
+        assertFalse(tdengine.isRaw("utf8/a"));
+        assertEquals(StandardCharsets.UTF_8, tdengine.charsetOf("utf8/a"));
+        assertEquals(Util.DEFAULT_CHARSET, tdengine.charsetOf("other"));
+
+        final ByteBuffer binary = ByteBuffer.wrap(new byte[]{'\'', 0, (byte) 0xc3}).asReadOnlyBuffer();
+        assertTrue(tdengine.saveData(1, "raw/a", binary).get());
+        final List<String> statements = server.getStatements();
+        assertEquals("import into hivemq.raw_payload values (1,'raw/a','2700c3')", statements.get(statements.size() - 1));
+
+        // a rejected raw row is not retried as base64
+        server.setResponder(sql -> StubTDengineServer.ERROR);
+        final int sent = statements.size();
+        assertFalse(tdengine.saveData(2, "raw/a", binary).get());
+        assertEquals(sent + 1, statements.size());
+        server.setResponder(sql -> StubTDengineServer.SUCC);
+
+        assertTrue(tdengine.saveBatch(Arrays.asList(
+                new Row(3, "raw/b", ByteBuffer.wrap(new byte[]{1, 2})),
+                new Row(4, "utf8/a", ByteBuffer.wrap("中文".getBytes(StandardCharsets.UTF_8))))));
+        assertEquals("import into hivemq.raw_payload values (3,'raw/b','0102')", statements.get(statements.size() - 2));
+        assertEquals("import into hivemq.utf8_payload values (4,'utf8/a','中文')", statements.get(statements.size() - 1));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_sync_save_data() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, ""));
+        assertTrue(tdengine.connect());
+        assertTrue(tdengine.saveData(1600000000001L, "test/hivemq", "ascII test").get());
+        assertEquals("import into hivemq.mqtt_payload values (1600000000001,'test/hivemq','ascII test')",
+                server.getStatements().get(server.getStatements().size() - 1));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_arrival_timestamps_per_series() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<timestamp><precision>us</precision></timestamp>" +
+                "<rules><route><topic>factory/#</topic><table>factory_payload</table></route></rules>"));
+        assertTrue(tdengine.connect());
+        assertEquals("create database if not exists hivemq precision 'us'", server.getStatements().get(0));
+
+        // rows of the same millisecond stay within it and don't collide
+        assertEquals(1600000000000000L, tdengine.arrival("test/a", 1600000000000L));
+        assertEquals(1600000000000001L, tdengine.arrival("test/b", 1600000000000L));
+        assertEquals(1600000000000002L, tdengine.arrival("test/a", 1599999999999L));
+        // another table is another series
+        assertEquals(1600000000000000L, tdengine.arrival("factory/a", 1600000000000L));
+        assertEquals(1600000000001000L, tdengine.arrival("test/a", 1600000000001L));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_metrics() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, ""));
+        assertTrue(tdengine.connect());
+        final TDengineMetrics metrics = tdengine.getMetrics();
+        server.setResponder(sql -> sql.contains("bad") ? StubTDengineServer.ERROR : StubTDengineServer.SUCC);
+
+        assertTrue(tdengine.saveData(1, "test/hivemq", "ok").get());
+        assertTrue(tdengine.saveData(2, "test/hivemq", "bad").get());
+        assertTrue(tdengine.saveBatch(Arrays.asList(
+                new Row(3, "test/hivemq", ByteBuffer.wrap("a".getBytes(StandardCharsets.UTF_8))),
+                new Row(4, "test/hivemq", ByteBuffer.wrap("b".getBytes(StandardCharsets.UTF_8))))));
+        server.setResponder(sql -> StubTDengineServer.ERROR);
+        assertFalse(tdengine.saveData(5, "test/hivemq", "ok").get());
+
+        assertEquals(4, metrics.getRowsWritten().getCount());
+        assertEquals(1, metrics.getRowsFailed().getCount());
+        assertEquals(2, metrics.getRowsBase64Retried().getCount());
+        assertTrue(metrics.getHttpRoundTrip().getCount() >= 7);
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_schemaless_lines() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "schemaless", ""));
+        assertTrue(tdengine.connect());
+        assertEquals("create database if not exists hivemq", server.getStatements().get(0));
+        assertEquals(1, server.getStatements().size());
+
+        assertTrue(tdengine.saveData(1, "test/hivemq", "ascII test").get());
+        assertTrue(tdengine.saveBatch(Arrays.asList(
+                new Row(2, "a", ByteBuffer.wrap("x".getBytes(StandardCharsets.UTF_8))),
+                new Row(3, "b", ByteBuffer.wrap("y".getBytes(StandardCharsets.UTF_8))))));
+        assertEquals(Arrays.asList(
+                "db=hivemq&precision=ms\nmqtt_payload,topic=test/hivemq payload=L\"ascII test\" 1",
+                "db=hivemq&precision=ms\nmqtt_payload,topic=a payload=L\"x\" 2\nmqtt_payload,topic=b payload=L\"y\" 3"),
+                server.getLines());
+
+        server.setResponder(sql -> StubTDengineServer.ERROR);
+        assertFalse(tdengine.saveData(4, "test/hivemq", "ascII test").get());
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_cluster_failover() throws Exception {
+        final StubTDengineServer other = new StubTDengineServer();
+        tdengine = new TDengine(server.writeConfig(folder, "<cluster><endpoints><endpoint>127.0.0.1:" + other.getPort() +
+                "</endpoint></endpoints><failureThreshold>1</failureThreshold><downMs>60000</downMs></cluster>"));
+        assertTrue(tdengine.connect());
+        assertEquals(2, tdengine.getEndpointCount());
+        String own = null;
+        String moved = null;
+        for (int i = 0; own == null || moved == null; i++) {
+            if (tdengine.laneOf("sensor/" + i) == 0) {
+                own = "sensor/" + i;
+            } else {
+                moved = "sensor/" + i;
+            }
+        }
+
+        assertTrue(tdengine.saveData(1, own, "a").get());
+        assertTrue(tdengine.saveData(2, moved, "b").get());
+        assertEquals("import into hivemq.mqtt_payload values (1,'" + own + "','a')",
+                server.getStatements().get(server.getStatements().size() - 1));
+        assertEquals(Collections.singletonList("import into hivemq.mqtt_payload values (2,'" + moved + "','b')"),
+                other.getStatements());
+
+        other.close();
+        assertFalse(tdengine.saveData(3, moved, "c").get());
+        assertTrue(tdengine.saveData(4, moved, "d").get());
+        assertEquals("import into hivemq.mqtt_payload values (4,'" + moved + "','d')",
+                server.getStatements().get(server.getStatements().size() - 1));
+        assertEquals(1, tdengine.laneOf(moved));
+        assertTrue(tdengine.isAvailable());
+    }
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    void test_lanes_keep_topic_order() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder, "<lanes>4</lanes>"));
+        assertTrue(tdengine.connect());
+        final int topics = 16;
+        final int rows = 100;
+        final List<CompletableFuture<Boolean>> futures = new CopyOnWriteArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[topics / 2];
+        for (int i = 0; i < threads.length; i++) {
+            final int first = i * 2;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int row = 1; row <= rows; row++) {
+                    futures.add(tdengine.saveData(row, "lane/" + first, "x"));
+                    futures.add(tdengine.saveData(row, "lane/" + (first + 1), "x"));
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+
+        final Pattern pattern = Pattern.compile("values \\((\\d+),'(lane/\\d+)'");
+        final Map<String, Integer> last = new HashMap<>();
+        int count = 0;
+        for (String statement : server.getStatements()) {
+            final Matcher matcher = pattern.matcher(statement);
+            if (matcher.find()) {
+                final int timestamp = Integer.parseInt(matcher.group(1));
+                final Integer previous = last.put(matcher.group(2), timestamp);
+                assertEquals(previous == null ? 1 : previous + 1, timestamp, statement);
+                count++;
+            }
+        }
+        assertEquals(topics * rows, count);
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void test_gzip_large_bodies() throws Exception {
+        tdengine = new TDengine(server.writeConfig(folder,
+                "<http><async>true</async><gzip>true</gzip><gzipThreshold>1000</gzipThreshold></http>"));
+        assertTrue(tdengine.connect());
+        assertEquals(0, server.getGzipRequests());
+
+        final List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(new Row(i, "sensors/" + i, ByteBuffer.wrap("{\"temp\":20.5,\"unit\":\"C\"}".getBytes(StandardCharsets.UTF_8))));
+        }
+        final long before = server.getBytesReceived();
+        assertTrue(tdengine.saveBatch(rows));
+        assertEquals(1, server.getGzipRequests());
+        final String statement = server.getStatements().get(server.getStatements().size() - 1);
+        assertTrue(statement.contains("(99,'sensors/99','{\"temp\":20.5,\"unit\":\"C\"}')"), statement);
+        assertTrue(server.getBytesReceived() - before < statement.getBytes(StandardCharsets.UTF_8).length / 4);
+    }
+}
@@ -0,0 +1,89 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.apache.http.entity.ContentType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This tests the bodies written by {@link TextEntity}.
+ */
+class TextEntityTest {
+    private static final ContentType TEXT = ContentType.create("text/plain", StandardCharsets.UTF_8);
+
+    private static String text(int length) {
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("import into hivemq.mqtt_payload values (1600000000001,'温度/😀','{\"t\":20}') ");
+        }
+        return text.append('\ud800').toString();
+    }
+
+    private static byte[] body(TextEntity entity) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void test_plain_body() throws IOException {
+        for (int length : new int[]{0, 10, 100000}) {
+            final String text = text(length);
+            final TextEntity entity = new TextEntity(text, TEXT, -1);
+            final byte[] body = body(entity);
+            assertEquals(new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), new String(body, StandardCharsets.UTF_8));
+            assertEquals(text.getBytes(StandardCharsets.UTF_8).length, body.length);
+            assertEquals(body.length, entity.getContentLength());
+            assertEquals("text/plain; charset=UTF-8", entity.getContentType().getValue());
+        }
+    }
+
+    @Test
+    void test_gzip_body() throws IOException {
+        for (int length : new int[]{0, 10, 100000}) {
+            final String text = text(length);
+            final TextEntity entity = new TextEntity(text, TEXT, 6);
+            assertEquals(-1, entity.getContentLength());
+            assertEquals("gzip", entity.getContentEncoding().getValue());
+            // twice on the same thread reuses the deflater
+            assertEquals(new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), gunzip(body(entity)));
+            assertEquals(new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), gunzip(body(entity)));
+        }
+    }
+}
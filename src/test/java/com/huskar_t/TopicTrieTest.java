@@ -0,0 +1,80 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the matching of {@link TopicTrie} and the include/exclude semantics of {@link TopicRules}.
+ */
+class TopicTrieTest {
+
+    private static final List<String> FILTERS = Arrays.asList(
+            "sensors/+/temp", "sensors/#", "#", "a/b", "a/+", "+/+", "+", "a//c", "$SYS/#", "x/+/#");
+    private static final List<String> TOPICS = Arrays.asList(
+            "sensors/a/temp", "sensors", "sensors/a/b/temp", "a/b", "a/c", "a", "a//c", "a/b/c", "", "/",
+            "$SYS/broker", "$SYS", "x/y", "x/y/z", "x");
+
+    @Test
+    void test_same_result_as_filter_matching() {
+        for (String filter : FILTERS) {
+            final TopicTrie<String> trie = new TopicTrie<>();
+            trie.add(filter, filter);
+            for (String topic : TOPICS) {
+                assertEquals(Util.matchesTopicFilter(filter, topic), trie.matches(topic), filter + " " + topic);
+            }
+        }
+    }
+
+    @Test
+    void test_first_added_wins() {
+        final TopicTrie<String> trie = new TopicTrie<>();
+        trie.add("sensors/#", "all");
+        trie.add("sensors/+/temp", "temp");
+        trie.add("sensors/a/temp", "exact");
+        assertEquals("all", trie.match("sensors/a/temp"));
+
+        final TopicTrie<String> specific = new TopicTrie<>();
+        specific.add("sensors/a/temp", "exact");
+        specific.add("sensors/+/temp", "temp");
+        specific.add("sensors/#", "all");
+        assertEquals("exact", specific.match("sensors/a/temp"));
+        assertEquals("temp", specific.match("sensors/b/temp"));
+        assertEquals("all", specific.match("sensors/b"));
+        assertNull(specific.match("other"));
+    }
+
+    @Test
+    void test_rules() {
+        final TopicRules rules = new TopicRules();
+        assertTrue(rules.accepts("anything"));
+        rules.addInclude("sensors/#");
+        rules.addExclude("sensors/+/debug");
+        assertTrue(rules.accepts("sensors/a/temp"));
+        assertFalse(rules.accepts("sensors/a/debug"));
+        assertFalse(rules.accepts("other"));
+    }
+}
@@ -0,0 +1,124 @@
+
+/*
+ * Copyright 2018-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.huskar_t;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This tests the payload decoding, number parsing, hex and base64 encoding and topic filter matching of {@link Util}.
+ */
+class UtilTest {
+
+    @Test
+    void test_decode_heap_read_only_and_direct() {
+        final byte[] bytes = "中文测试".getBytes(Charset.forName("GBK"));
+        final ByteBuffer heap = ByteBuffer.wrap(bytes);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        assertEquals("中文测试", Util.getStringFromByteBuffer(heap));
+        assertEquals("中文测试", Util.getStringFromByteBuffer(heap.asReadOnlyBuffer()));
+        assertEquals("中文测试", Util.getStringFromByteBuffer(direct));
+        assertEquals(bytes.length, heap.remaining());
+        assertEquals(bytes.length, direct.remaining());
+    }
+
+    @Test
+    void test_decode_with_configured_charset() {
+        final ByteBuffer utf8 = ByteBuffer.wrap("中文测试".getBytes(StandardCharsets.UTF_8));
+        assertEquals("中文测试", Util.getStringFromByteBuffer(utf8, StandardCharsets.UTF_8));
+        assertEquals("中文测试", Util.getStringFromByteBuffer(ByteBuffer.wrap("中文测试".getBytes(Charset.forName("GBK")))));
+    }
+
+    @Test
+    void test_decode_slice() {
+        final ByteBuffer buffer = ByteBuffer.wrap("xxascII testxx".getBytes(StandardCharsets.UTF_8));
+        buffer.position(2).limit(12);
+        assertEquals("ascII test", Util.getStringFromByteBuffer(buffer.slice()));
+        assertEquals("ascII test", Util.getStringFromByteBuffer(buffer));
+    }
+
+    @Test
+    void test_hex_and_base64() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{0, 1, (byte) 0xab, (byte) 0xff, 'x', 'y', 'z'});
+        buffer.position(1);
+        assertEquals("01abff78797a", Util.hex(buffer.asReadOnlyBuffer()));
+        assertEquals(1, buffer.position());
+        assertEquals(ByteBuffer.wrap(Util.unhex("01ABff78797a")), buffer);
+        for (int length = 0; length < 8; length++) {
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 97 + 200);
+            }
+            final char[] chars = new char[Util.base64Length(length)];
+            assertEquals(chars.length, Util.base64(ByteBuffer.wrap(bytes), chars, 0));
+            assertEquals(Base64.getEncoder().encodeToString(bytes), new String(chars));
+        }
+    }
+
+    @Test
+    void test_parse_double() {
+        assertEquals(21.5, Util.parseDouble(ascii(" 21.5\n")));
+        assertEquals(-0.001, Util.parseDouble(ascii("-1e-3")));
+        assertEquals(100.0, Util.parseDouble(ascii("+.1E3")));
+        assertEquals(7.0, Util.parseDouble(ascii("7.")));
+        assertEquals(0.1 + 0.2, Util.parseDouble(ascii("0.30000000000000004")));
+        assertEquals(1.7976931348623157E308, Util.parseDouble(ascii("1.7976931348623157E308")));
+        assertEquals(123456789012345678.0, Util.parseDouble(ascii("123456789012345678")));
+        assertTrue(Double.isNaN(Util.parseDouble(ascii(""))));
+        assertTrue(Double.isNaN(Util.parseDouble(ascii("."))));
+        assertTrue(Double.isNaN(Util.parseDouble(ascii("1e"))));
+        assertTrue(Double.isNaN(Util.parseDouble(ascii("12a"))));
+        // bytes of a multi-byte character are not white space
+        assertTrue(Double.isNaN(Util.parseDouble(ByteBuffer.wrap("23.5°".getBytes(StandardCharsets.UTF_8)))));
+        assertTrue(Double.isNaN(Util.parseDouble(ByteBuffer.wrap("°23.5".getBytes(StandardCharsets.UTF_8)))));
+        assertTrue(Double.isNaN(Util.parseDouble(ascii("{\"v\":1}"))));
+        final ByteBuffer buffer = ascii("x42");
+        buffer.position(1);
+        assertEquals(42.0, Util.parseDouble(buffer));
+        assertEquals(1, buffer.position());
+    }
+
+    private static ByteBuffer ascii(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void test_topic_filter() {
+        assertTrue(Util.matchesTopicFilter("sensors/+/temp", "sensors/a/temp"));
+        assertTrue(Util.matchesTopicFilter("sensors/+/temp", "sensors//temp"));
+        assertFalse(Util.matchesTopicFilter("sensors/+/temp", "sensors/a/b/temp"));
+        assertFalse(Util.matchesTopicFilter("sensors/+", "sensors/a/temp"));
+        assertTrue(Util.matchesTopicFilter("sensors/#", "sensors/a/temp"));
+        assertTrue(Util.matchesTopicFilter("sensors/#", "sensors"));
+        assertFalse(Util.matchesTopicFilter("sensors/#", "sensorsX"));
+        assertTrue(Util.matchesTopicFilter("#", "a/b"));
+        assertFalse(Util.matchesTopicFilter("#", "$SYS/a"));
+        assertTrue(Util.matchesTopicFilter("a/b", "a/b"));
+        assertFalse(Util.matchesTopicFilter("a/b", "a/bc"));
+        assertFalse(Util.matchesTopicFilter("a/b/c", "a/b"));
+    }
+}